@@ -3,6 +3,14 @@
 # Exit on error
 set -e
 
+# JwtKeyRing refuses to start without a signing key; it is read from Secret Manager.
+JWT_SIGNING_JWK_SECRET="${JWT_SIGNING_JWK_SECRET:-auth-service-jwt-signing-jwk}"
+if ! gcloud secrets describe "$JWT_SIGNING_JWK_SECRET" >/dev/null 2>&1; then
+  echo "Secret $JWT_SIGNING_JWK_SECRET not found. Create it with com.cosmicdoc.authservice.util.JwtSigningKeyGenerator"
+  echo "and grant the Cloud Run service account roles/secretmanager.secretAccessor on it."
+  exit 1
+fi
+
 echo "Building auth-service with Java 17 compatibility..."
 mvn clean package -DskipTests -Djava.version=17 -Dmaven.compiler.source=17 -Dmaven.compiler.target=17 -Dmaven.compiler.release=17 
 
@@ -27,5 +35,6 @@ gcloud run deploy auth-service \
   --platform managed \
   --region us-central1 \
   --allow-unauthenticated \
+  --set-secrets="JWT_SIGNING_JWK=${JWT_SIGNING_JWK_SECRET}:latest" \
   --port=8080 \
   --timeout=10m
@@ -1,6 +1,14 @@
 #!/bin/bash
 set -e
 
+# JwtKeyRing refuses to start without a signing key; it is read from Secret Manager.
+JWT_SIGNING_JWK_SECRET="${JWT_SIGNING_JWK_SECRET:-auth-service-jwt-signing-jwk}"
+if ! gcloud secrets describe "$JWT_SIGNING_JWK_SECRET" >/dev/null 2>&1; then
+  echo "Secret $JWT_SIGNING_JWK_SECRET not found. Create it with com.cosmicdoc.authservice.util.JwtSigningKeyGenerator"
+  echo "and grant the Cloud Run service account roles/secretmanager.secretAccessor on it."
+  exit 1
+fi
+
 echo "Building ultra-minimal auth-service for Cloud Run..."
 ./mvnw clean package -DskipTests
 
@@ -23,4 +31,5 @@ gcloud run deploy auth-service-cloudrun \
   --platform managed \
   --region us-central1 \
   --allow-unauthenticated \
+  --set-secrets="JWT_SIGNING_JWK=${JWT_SIGNING_JWK_SECRET}:latest" \
   --port=8080
@@ -10,6 +10,14 @@ SERVICE_NAME="auth-service"
 # Set the region
 REGION="us-central1"
 
+# JwtKeyRing refuses to start without a signing key; it is read from Secret Manager.
+JWT_SIGNING_JWK_SECRET="${JWT_SIGNING_JWK_SECRET:-auth-service-jwt-signing-jwk}"
+if ! gcloud secrets describe "$JWT_SIGNING_JWK_SECRET" --project=$PROJECT_ID >/dev/null 2>&1; then
+  echo "Secret $JWT_SIGNING_JWK_SECRET not found. Create it with com.cosmicdoc.authservice.util.JwtSigningKeyGenerator"
+  echo "and grant the Cloud Run service account roles/secretmanager.secretAccessor on it."
+  exit 1
+fi
+
 # Configure Google Cloud project
 echo "Configuring Google Cloud project: $PROJECT_ID"
 gcloud config set project $PROJECT_ID
@@ -25,6 +33,7 @@ gcloud run deploy $SERVICE_NAME \
   --platform managed \
   --region $REGION \
   --allow-unauthenticated \
+  --set-secrets="JWT_SIGNING_JWK=${JWT_SIGNING_JWK_SECRET}:latest" \
   --set-env-vars="SPRING_PROFILES_ACTIVE=prod,ALLOWED_ORIGINS=https://healthcare-app-h62dk7wqza-$REGION.a.run.app"
 
 echo "Deployment complete. Please note the service URL output above."
@@ -8,6 +8,14 @@ REGION="asia-south1"
 SERVICE_NAME="auth-service"
 IMAGE="gcr.io/${PROJECT_ID}/${SERVICE_NAME}:latest"
 
+# JwtKeyRing refuses to start without a signing key; it is read from Secret Manager.
+JWT_SIGNING_JWK_SECRET="${JWT_SIGNING_JWK_SECRET:-auth-service-jwt-signing-jwk}"
+if ! gcloud secrets describe "$JWT_SIGNING_JWK_SECRET" --project="${PROJECT_ID}" >/dev/null 2>&1; then
+  echo "Secret $JWT_SIGNING_JWK_SECRET not found. Create it with com.cosmicdoc.authservice.util.JwtSigningKeyGenerator"
+  echo "and grant the Cloud Run service account roles/secretmanager.secretAccessor on it."
+  exit 1
+fi
+
 echo "=== Building ${SERVICE_NAME} JAR file ===" 
 # Build the Java application with Maven
 mvn clean package
@@ -29,6 +37,7 @@ if [ $? -eq 0 ]; then
     --platform=managed \
     --region="${REGION}" \
     --allow-unauthenticated \
+    --set-secrets="JWT_SIGNING_JWK=${JWT_SIGNING_JWK_SECRET}:latest" \
     --port=8081 \
     --memory=512Mi \
     --project="${PROJECT_ID}"
@@ -6,6 +6,14 @@ REGION="us-central1"
 SERVICE_NAME="auth-service"
 IMAGE="gcr.io/$PROJECT_ID/$SERVICE_NAME:latest"
 
+# JwtKeyRing refuses to start without a signing key; it is read from Secret Manager.
+JWT_SIGNING_JWK_SECRET="${JWT_SIGNING_JWK_SECRET:-auth-service-jwt-signing-jwk}"
+if ! gcloud secrets describe "$JWT_SIGNING_JWK_SECRET" --project=$PROJECT_ID >/dev/null 2>&1; then
+  echo "Secret $JWT_SIGNING_JWK_SECRET not found. Create it with com.cosmicdoc.authservice.util.JwtSigningKeyGenerator"
+  echo "and grant the Cloud Run service account roles/secretmanager.secretAccessor on it."
+  exit 1
+fi
+
 echo "=== Building $SERVICE_NAME container ==="
 # Submit the build to Cloud Build
 gcloud builds submit --tag=$IMAGE \
@@ -20,5 +28,6 @@ gcloud run deploy $SERVICE_NAME \
   --region=$REGION \
   --allow-unauthenticated \
   --set-env-vars="SPRING_PROFILES_ACTIVE=cloud" \
+  --set-secrets="JWT_SIGNING_JWK=${JWT_SIGNING_JWK_SECRET}:latest" \
   --set-env-vars="ALLOWED_ORIGINS=https://healthcare-app-1078740886343.us-central1.run.app" \
   --project=$PROJECT_ID
@@ -0,0 +1,38 @@
+package com.cosmicdoc.authservice.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logback {@link AsyncAppender} that counts the events it drops.
+ * <p>
+ * Configured in {@code logback-spring.xml} with {@code neverBlock=true}, the appender
+ * hands events to a bounded ring buffer and returns immediately; a background worker
+ * writes them out. When the buffer is full the event is dropped rather than blocking
+ * the request thread. Those drops are counted here so they can be published as a
+ * metric (the count is approximate when several threads log into a full buffer at once).
+ * <p>
+ * Logback creates appenders outside the Spring context, so the count is kept in a
+ * static counter shared by all instances of this appender.
+ */
+public class DropCountingAsyncAppender extends AsyncAppender {
+
+    private static final LongAdder DROPPED = new LongAdder();
+
+    /**
+     * @return the number of log events dropped because an async buffer was full
+     */
+    public static long droppedEvents() {
+        return DROPPED.sum();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (isNeverBlock() && getRemainingCapacity() == 0) {
+            DROPPED.increment();
+        }
+        super.append(event);
+    }
+}
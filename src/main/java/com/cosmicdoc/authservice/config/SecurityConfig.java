@@ -1,5 +1,13 @@
 package com.cosmicdoc.authservice.config;
 
+import com.cosmicdoc.authservice.security.BCryptCostCalibrator;
+import com.cosmicdoc.authservice.security.BoundedPasswordEncoder;
+import com.cosmicdoc.authservice.security.CachingJwtAuthenticationFilter;
+import com.cosmicdoc.authservice.security.JwtKeyRing;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -8,8 +16,14 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.server.resource.web.BearerTokenAuthenticationEntryPoint;
+import org.springframework.security.oauth2.server.resource.web.access.BearerTokenAccessDeniedHandler;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
+
+import java.time.Duration;
 
 @Configuration
 @EnableWebSecurity
@@ -17,13 +31,50 @@ import org.springframework.security.web.SecurityFilterChain;
 
 public class SecurityConfig {
 
+    /**
+     * BCrypt, executed on a bounded pool so hashing can never occupy more than the
+     * configured number of cores or queue without limit.
+     * <p>
+     * The work factor is either fixed with {@code app.security.bcrypt.strength} or, when
+     * that is 0, calibrated at startup to the target latency on the current CPU.
+     */
+    @Bean
+    public BoundedPasswordEncoder passwordEncoder(MeterRegistry meterRegistry,
+                                           @Value("${app.security.bcrypt.strength:0}") int strength,
+                                           @Value("${app.security.bcrypt.target-latency-ms:50}") long targetLatencyMs,
+                                           @Value("${app.security.bcrypt.min-strength:10}") int minStrength,
+                                           @Value("${app.security.bcrypt.max-strength:14}") int maxStrength,
+                                           @Value("${app.security.password-hashing.threads:0}") int threads,
+                                           @Value("${app.security.password-hashing.queue-capacity:64}") int queueCapacity,
+                                           @Value("${app.security.password-hashing.max-wait-ms:2000}") long maxWaitMs) {
+        int bcryptStrength = strength > 0
+                ? strength
+                : BCryptCostCalibrator.calibrate(Duration.ofMillis(targetLatencyMs), minStrength, maxStrength);
+        int hashingThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new BoundedPasswordEncoder(new BCryptPasswordEncoder(bcryptStrength), hashingThreads, queueCapacity,
+                Duration.ofMillis(maxWaitMs), meterRegistry);
+    }
+
+    /**
+     * Verifies bearer tokens against this service's own key ring, in process.
+     */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public JwtDecoder jwtDecoder(JwtKeyRing keyRing) {
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(keyRing.keySelector());
+        return new NimbusJwtDecoder(processor);
     }
 
+    /**
+     * Bearer tokens are authenticated by {@link CachingJwtAuthenticationFilter}, which
+     * verifies each token once and caches the result until the token expires. It is
+     * created here rather than as a bean so it only runs in this chain, not also as a
+     * servlet filter.
+     */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, JwtDecoder jwtDecoder, JwtKeyRing keyRing,
+                                                   MeterRegistry meterRegistry,
+                                                   @Value("${app.security.token-cache.max-size:10000}") long tokenCacheSize) throws Exception {
         http
                 .csrf(csrf -> csrf.disable()) // Disable CSRF for stateless APIs
                 .cors(cors -> cors.disable()) // Disable CORS for local testing
@@ -32,8 +83,16 @@ public class SecurityConfig {
                         .requestMatchers("/api/public/**").permitAll() // Allow all public endpoints
                         .requestMatchers("/test/**").permitAll() // Allow test endpoints for Firestore testing
                         .requestMatchers("/error").permitAll() // Allow error pages
+                        .requestMatchers("/.well-known/jwks.json").permitAll() // Public keys for other services
+                        .requestMatchers("/actuator/health", "/actuator/info").permitAll() // Health checks
+                        .requestMatchers("/actuator/**").authenticated() // Metrics expose internals; require a bearer token
                         .anyRequest().permitAll() // For now, allow everything for debugging
-                );
+                )
+                .addFilterBefore(new CachingJwtAuthenticationFilter(jwtDecoder, keyRing, tokenCacheSize, meterRegistry),
+                        AnonymousAuthenticationFilter.class)
+                .exceptionHandling(exceptions -> exceptions
+                        .authenticationEntryPoint(new BearerTokenAuthenticationEntryPoint())
+                        .accessDeniedHandler(new BearerTokenAccessDeniedHandler()));
         return http.build();
     }
 }
\ No newline at end of file
@@ -1,8 +1,10 @@
 package com.cosmicdoc.authservice.controller;
 
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -23,11 +25,14 @@ public class DevUtilityController {
 
     private final Firestore firestore;
     private final PasswordEncoder passwordEncoder;
+    private final LoginProjectionStore loginProjections;
 
     @Autowired
-    public DevUtilityController(Firestore firestore, PasswordEncoder passwordEncoder) {
+    public DevUtilityController(Firestore firestore, PasswordEncoder passwordEncoder,
+                                LoginProjectionStore loginProjections) {
         this.firestore = firestore;
         this.passwordEncoder = passwordEncoder;
+        this.loginProjections = loginProjections;
     }
 
     /**
@@ -63,8 +68,12 @@ public class DevUtilityController {
             Map<String, Object> updates = new HashMap<>();
             updates.put("hashedPassword", hashedPassword);
             
-            // Apply the update
-            firestore.collection("users").document(userId).update(updates).get();
+            // Apply the update to the user and its login projection
+            WriteBatch batch = firestore.batch();
+            batch.update(firestore.collection("users").document(userId), updates);
+            loginProjections.updateInBatch(batch, userDoc.getString("email"),
+                    Map.of(LoginProjectionStore.HASHED_PASSWORD, hashedPassword));
+            batch.commit().get();
             
             return ResponseEntity.ok("Password reset successful for user: " + email);
             
@@ -0,0 +1,45 @@
+package com.cosmicdoc.authservice.controller;
+
+import com.cosmicdoc.authservice.security.JwtKeyRing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.Duration;
+
+/**
+ * Serves the public keys that verify this service's tokens, so other services can
+ * validate them locally (e.g. with Spring's {@code jwk-set-uri}).
+ * <p>
+ * The key set changes rarely and verifiers refetch it when they meet an unknown
+ * {@code kid}, so it may be cached for {@code app.jwt.jwks.max-age}; its ETag lets
+ * a cache revalidate without downloading it again.
+ */
+@RestController
+public class JwksController {
+
+    private final JwtKeyRing keyRing;
+    private final CacheControl cacheControl;
+
+    public JwksController(JwtKeyRing keyRing,
+                          @Value("${app.jwt.jwks.max-age:5m}") Duration maxAge) {
+        this.keyRing = keyRing;
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePublic();
+    }
+
+    @GetMapping(value = "/.well-known/jwks.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> jwks(WebRequest request) {
+        JwtKeyRing.Snapshot keys = keyRing.current();
+        if (request.checkNotModified(keys.publicJwksEtag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .cacheControl(cacheControl)
+                .eTag(keys.publicJwksEtag())
+                .body(keys.publicJwks());
+    }
+}
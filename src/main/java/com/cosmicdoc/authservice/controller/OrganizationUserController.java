@@ -1,19 +1,32 @@
 package com.cosmicdoc.authservice.controller;
 
+import com.cosmicdoc.authservice.dto.request.BulkUpdateUserStatusRequest;
 import com.cosmicdoc.authservice.dto.request.CreateUserRequest;
 import com.cosmicdoc.authservice.dto.request.UpdateUserRequest;
 import com.cosmicdoc.authservice.dto.request.UpdateUserStatusRequest;
 import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.dto.response.UserPageResponse;
 import com.cosmicdoc.authservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.authservice.repository.OrganizationMemberPager;
 import com.cosmicdoc.authservice.security.SecurityUtils; // A helper class to get context from JWT
+import com.cosmicdoc.authservice.service.BulkUserImportService;
+import com.cosmicdoc.authservice.service.BulkUserStatusService;
+import com.cosmicdoc.authservice.service.OrganizationUserDirectory;
 import com.cosmicdoc.authservice.service.OrganizationUserService;
+import com.cosmicdoc.common.model.UserStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -23,6 +36,19 @@ import java.util.List;
 public class OrganizationUserController {
 
     private final OrganizationUserService organizationUserService;
+    private final BulkUserImportService bulkUserImportService;
+    private final BulkUserStatusService bulkUserStatusService;
+    private final OrganizationUserDirectory userDirectory;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.admin.users.default-page-size:50}")
+    private int defaultPageSize;
+
+    @Value("${app.admin.users.max-page-size:200}")
+    private int maxPageSize;
+
+    @Value("${app.admin.users.directory.max-results:50}")
+    private int maxSearchResults;
 
     /**
      * Endpoint for an admin to create a new user within their organization.
@@ -43,6 +69,28 @@ public class OrganizationUserController {
         }
     }
 
+    /**
+     * Endpoint for an admin to create many users in their organization from a CSV
+     * ({@code text/csv}, with a header row) or NDJSON ({@code application/x-ndjson}) upload.
+     * Returns one result per row; rows that fail do not stop the others.
+     */
+    @PostMapping(value = "/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<?> importUsers(@RequestHeader("Content-Type") MediaType contentType, InputStream body) {
+        String adminOrgId = SecurityUtils.getOrganizationId();
+        BulkUserImportService.Format format = contentType.isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                ? BulkUserImportService.Format.CSV
+                : BulkUserImportService.Format.NDJSON;
+        try {
+            return ResponseEntity.ok(bulkUserImportService.importUsers(adminOrgId, body, format));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body("Failed to read the upload.");
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An internal error occurred.");
+        }
+    }
+
     /**
      * Endpoint for an admin to activate or suspend a user in their organization.
      */
@@ -63,13 +111,59 @@ public class OrganizationUserController {
     }
 
     /**
-     * Endpoint to list all users within the admin's organization.
+     * Endpoint for an admin to activate or suspend many users of their organization at once,
+     * given by ID or by a role/branch filter. Progress is streamed back as NDJSON, one line
+     * per batch of users, and the last line has {@code "done": true}.
+     */
+    @PatchMapping(value = "/status", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> updateUserStatuses(@Valid @RequestBody BulkUpdateUserStatusRequest request) {
+        // Resolve the organization here: the body is written on another thread, without the security context.
+        String adminOrgId = SecurityUtils.getOrganizationId();
+
+        StreamingResponseBody body = out -> bulkUserStatusService.updateStatus(adminOrgId, request, progress -> {
+            out.write(objectMapper.writeValueAsBytes(progress));
+            out.write('\n');
+            out.flush();
+        });
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    /**
+     * Endpoint to list the users within the admin's organization, one page at a time.
+     * Pass the returned {@code nextCursor} as {@code cursor} to fetch the next page.
      */
     @GetMapping("/")
-    public ResponseEntity<List<UserDetailResponse>> listUsers() {
+    public ResponseEntity<?> listUsers(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String role,
+            @RequestParam(required = false) UserStatus status,
+            @RequestParam(required = false) String branch,
+            @RequestParam(defaultValue = "ID") OrganizationMemberPager.Sort sort) {
+
+        String adminOrgId = SecurityUtils.getOrganizationId();
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+        try {
+            UserPageResponse page = organizationUserService.listUsers(adminOrgId,
+                    new OrganizationMemberPager.Filter(role, branch, sort), status, cursor, pageSize);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Endpoint for the admin UI's search-as-you-type: the users of the admin's organization
+     * whose name (or any word of it onwards) or email starts with {@code q}.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<UserDetailResponse>> searchUsers(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit) {
+
         String adminOrgId = SecurityUtils.getOrganizationId();
-        List<UserDetailResponse> users = organizationUserService.getUsersInOrganization(adminOrgId);
-        return ResponseEntity.ok(users);
+        int maxResults = Math.max(1, Math.min(limit, maxSearchResults));
+        return ResponseEntity.ok(userDirectory.search(adminOrgId, q, maxResults));
     }
 
     /**
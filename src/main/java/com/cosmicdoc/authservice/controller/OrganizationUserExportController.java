@@ -0,0 +1,56 @@
+package com.cosmicdoc.authservice.controller;
+
+import com.cosmicdoc.authservice.repository.OrganizationMemberPager;
+import com.cosmicdoc.authservice.security.SecurityUtils;
+import com.cosmicdoc.authservice.service.OrganizationUserExporter;
+import com.cosmicdoc.authservice.service.OrganizationUserService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@RestController
+@RequestMapping("/api/admin/users")
+@RequiredArgsConstructor
+@PreAuthorize("hasAnyRole('ROLE_SUPER_ADMIN', 'ROLE_ADMIN')")
+public class OrganizationUserExportController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+
+    private final OrganizationUserService organizationUserService;
+    private final OrganizationUserExporter exporter;
+
+    @Value("${app.admin.users.export-page-size:500}")
+    private int exportPageSize;
+
+    /**
+     * Endpoint to export every user of the admin's organization as NDJSON, one user per line.
+     * The response is streamed page by page, so it starts immediately and memory use does not
+     * depend on the size of the organization. With {@code gzip=true} the file is gzip-compressed.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(defaultValue = "false") boolean gzip) {
+        // Resolve the organization here: the body is written on another thread, without the security context.
+        String adminOrgId = SecurityUtils.getOrganizationId();
+        OrganizationMemberPager.Filter allMembers = new OrganizationMemberPager.Filter(null, null, OrganizationMemberPager.Sort.ID);
+
+        StreamingResponseBody body = out -> exporter.export(
+                cursor -> organizationUserService.listUsers(adminOrgId, allMembers, null, cursor, exportPageSize),
+                out, gzip);
+
+        String filename = "users-" + adminOrgId + (gzip ? ".ndjson.gz" : ".ndjson");
+        return ResponseEntity.ok()
+                .contentType(gzip ? GZIP : NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
+    }
+}
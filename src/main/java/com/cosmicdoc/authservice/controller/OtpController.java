@@ -1,11 +1,14 @@
 package com.cosmicdoc.authservice.controller;
 
 import com.cosmicdoc.authservice.dto.request.OtpRequest;
+import com.cosmicdoc.authservice.exception.OtpResendTooSoonException;
 import com.cosmicdoc.authservice.service.OtpService;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -29,6 +32,10 @@ public class OtpController {
             otpService.sendOtp(request.getMobile(), request.getPurpose());
             return ResponseEntity.ok()
                 .body(new ApiResponse(true, "OTP sent successfully to " + request.getMobile()));
+        } catch (OtpResendTooSoonException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                .body(ApiResponse.error(e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.badRequest()
                 .body(ApiResponse.error(e.getMessage()));
@@ -3,16 +3,20 @@ package com.cosmicdoc.authservice.controller;
 import com.cosmicdoc.authservice.dto.request.*;
 import com.cosmicdoc.authservice.dto.response.SignInResponse;
 import com.cosmicdoc.authservice.exception.AuthenticationException;
+import com.cosmicdoc.authservice.exception.ResourceAlreadyExistsException;
 import com.cosmicdoc.authservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.authservice.exception.ServiceOverloadedException;
 import com.cosmicdoc.authservice.service.UserOnboardingService;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/public/auth")
@@ -25,14 +29,24 @@ public class UserOnboardingController {
     }
 
     @PostMapping("/signup-super-admin")
-    public ResponseEntity<String> signupSuperAdmin(@Valid @RequestBody SuperAdminSignupRequest request) {
-        try {
-            userOnboardingService.signupSuperAdmin(request);
-            return ResponseEntity.ok("Organization and Super Admin created. Please check email for verification.");
-        } catch (ExecutionException | InterruptedException e) {
-            // Add proper global exception handling later
-            return ResponseEntity.status(500).body("Error during signup: " + e.getMessage());
-        }
+    public CompletableFuture<ResponseEntity<String>> signupSuperAdmin(@Valid @RequestBody SuperAdminSignupRequest request) {
+        // The servlet thread is released while Firestore works; the response is written when the future completes.
+        return userOnboardingService.signupSuperAdmin(request)
+                .thenApply(done -> ResponseEntity.ok("Organization and Super Admin created. Please check email for verification."))
+                .exceptionally(failure -> {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause()
+                            : failure;
+                    if (cause instanceof ResourceAlreadyExistsException) {
+                        // The email or organization name is already taken.
+                        return ResponseEntity.status(409).body(cause.getMessage());
+                    }
+                    if (cause instanceof ServiceOverloadedException) {
+                        return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "1").body(cause.getMessage());
+                    }
+                    // Add proper global exception handling later
+                    return ResponseEntity.status(500).body("Error during signup: " + cause.getMessage());
+                });
     }
 
     @PostMapping("/signin")
@@ -56,6 +70,11 @@ public class UserOnboardingController {
             //    A 401 Unauthorized status is the correct HTTP response for authentication failures.
             return ResponseEntity.status(401).body(e.getMessage());
 
+        } catch (ServiceOverloadedException e) {
+            // Password verification capacity is exhausted. Fail fast with 503 so clients back off
+            // instead of piling more work onto the hashing queue.
+            return ResponseEntity.status(503).header(HttpHeaders.RETRY_AFTER, "1").body(e.getMessage());
+
         } catch (Exception e) {
             // 4. A general catch-all for unexpected server-side errors.
             //    This could be a database issue or a NullPointerException that was missed.
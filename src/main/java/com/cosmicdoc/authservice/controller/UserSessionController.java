@@ -1,7 +1,13 @@
 package com.cosmicdoc.authservice.controller;
 
+import com.cosmicdoc.authservice.dto.request.RefreshTokenRequest;
+import com.cosmicdoc.authservice.dto.response.TokenRefreshResponse;
+import com.cosmicdoc.authservice.exception.AuthenticationException;
+import com.cosmicdoc.authservice.service.RefreshTokenService;
+import jakarta.validation.Valid;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -12,10 +18,30 @@ import java.util.Map;
 @RequestMapping("/api/public/auth")
 public class UserSessionController {
 
+    private final RefreshTokenService refreshTokenService;
+
+    public UserSessionController(RefreshTokenService refreshTokenService) {
+        this.refreshTokenService = refreshTokenService;
+    }
+
+    @PostMapping("/token/refresh")
+    public ResponseEntity<?> refresh(@Valid @RequestBody RefreshTokenRequest request) {
+        try {
+            RefreshTokenService.Refreshed refreshed = refreshTokenService.refresh(request.getRefreshToken());
+            return ResponseEntity.ok(new TokenRefreshResponse(refreshed.accessToken(), refreshed.refreshToken()));
+        } catch (AuthenticationException e) {
+            // Unknown, expired, revoked or reused: the client has to sign in again.
+            return ResponseEntity.status(401).body(e.getMessage());
+        }
+    }
+
     @PostMapping("/logout")
-    public ResponseEntity<Map<String, Boolean>> logout() {
-        // In a stateless JWT authentication system, the server doesn't need to invalidate the token
-        // Client-side will remove the token, so we just return a success response
+    public ResponseEntity<Map<String, Boolean>> logout(@RequestBody(required = false) RefreshTokenRequest request) {
+        // In a stateless JWT authentication system, the server doesn't need to invalidate the access token
+        // Client-side will remove it; a refresh token sent along is revoked so it cannot mint new ones
+        if (request != null && request.getRefreshToken() != null && !request.getRefreshToken().isBlank()) {
+            refreshTokenService.revoke(request.getRefreshToken());
+        }
         Map<String, Boolean> response = new HashMap<>();
         response.put("success", true);
         return ResponseEntity.ok(response);
@@ -0,0 +1,33 @@
+package com.cosmicdoc.authservice.dto.request;
+
+import com.cosmicdoc.common.model.UserStatus;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO for changing the status of many users at once. The users are given either as a
+ * list of IDs or as a role and/or branch filter over the organization's members.
+ */
+@Data
+public class BulkUpdateUserStatusRequest {
+
+    @NotNull(message = "Status cannot be null.")
+    private UserStatus status; // e.g., ACTIVE, SUSPENDED
+
+    @Size(max = 5000, message = "At most 5000 user IDs can be updated per request.")
+    private List<String> userIds;
+
+    private String role;   // e.g., "ROLE_NURSE"
+    private String branch; // Branch ID
+
+    @AssertTrue(message = "Provide either userIds or a role/branch filter, not both.")
+    private boolean isSelectionValid() {
+        boolean byIds = userIds != null && !userIds.isEmpty();
+        boolean byFilter = role != null || branch != null;
+        return byIds != byFilter;
+    }
+}
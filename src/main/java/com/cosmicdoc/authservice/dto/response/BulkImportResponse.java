@@ -0,0 +1,24 @@
+package com.cosmicdoc.authservice.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a bulk user import: a count per outcome and one result per row, in file order.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkImportResponse {
+
+    private Map<BulkImportRowResult.Status, Integer> counts;
+    private List<BulkImportRowResult> results;
+    // True if the file had more rows than allowed; the rows after the limit were not read
+    private boolean truncated;
+}
@@ -0,0 +1,33 @@
+package com.cosmicdoc.authservice.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The outcome of one row of a bulk user import.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkImportRowResult {
+
+    public enum Status {
+        CREATED,               // A new user was created and added to the organization
+        ADDED_TO_ORGANIZATION, // An existing user was added to the organization
+        ALREADY_MEMBER,        // The user was already a member; nothing was written
+        INVALID,               // The row was rejected before anything was written
+        FAILED                 // Writing the row failed
+    }
+
+    // Line number of the row in the uploaded file
+    private int row;
+    private String email;
+    private Status status;
+    private String userId;
+    private String message;
+}
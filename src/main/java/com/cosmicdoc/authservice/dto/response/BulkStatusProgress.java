@@ -0,0 +1,33 @@
+package com.cosmicdoc.authservice.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One line of the progress stream of a bulk status change. The counts are running
+ * totals; the ID lists only cover the users handled since the previous line.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkStatusProgress {
+
+    private int processed;
+    private int updated;
+    private int notMembers;
+    private int failed;
+    // Requested users that are not members of the organization; nothing was written for them
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<String> notMemberIds;
+    // Members whose update failed, e.g. because their user document is missing
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<String> failedIds;
+    // True on the last line
+    private boolean done;
+}
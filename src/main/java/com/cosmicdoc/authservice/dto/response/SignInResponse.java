@@ -24,6 +24,13 @@ public class SignInResponse {
      */
     private String token;
 
+    /**
+     * An opaque token that can be exchanged at {@code /api/public/auth/token/refresh}
+     * for a new access token without signing in again. It can be used once; the
+     * response carries its replacement.
+     */
+    private String refreshToken;
+
     /**
      * The unique ID of the authenticated user.
      */
@@ -0,0 +1,24 @@
+package com.cosmicdoc.authservice.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The tokens returned by a refresh.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokenRefreshResponse {
+
+    /**
+     * A new access token (JWT) for the same user, organization and role.
+     */
+    private String token;
+
+    /**
+     * The refresh token to use next time; the one that was presented is now spent.
+     */
+    private String refreshToken;
+}
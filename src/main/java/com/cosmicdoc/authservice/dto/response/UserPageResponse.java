@@ -0,0 +1,22 @@
+package com.cosmicdoc.authservice.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One page of an organization's users.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPageResponse {
+
+    private List<UserDetailResponse> users;
+    // Opaque cursor for the next page; null when this is the last page
+    private String nextCursor;
+}
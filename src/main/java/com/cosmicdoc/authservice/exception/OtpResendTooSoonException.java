@@ -0,0 +1,30 @@
+package com.cosmicdoc.authservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a new OTP is requested while the only code that could be sent has
+ * already been used, so sending it again would deliver a code that is rejected.
+ * <p>
+ * The client should ask again after {@link #getRetryAfterSeconds()}. It is mapped to a
+ * 429 Too Many Requests HTTP status with a {@code Retry-After} header.
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class OtpResendTooSoonException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * @param message           the detail message.
+     * @param retryAfterSeconds seconds until a new code can be sent.
+     */
+    public OtpResendTooSoonException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
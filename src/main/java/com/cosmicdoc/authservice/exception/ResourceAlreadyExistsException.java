@@ -0,0 +1,26 @@
+package com.cosmicdoc.authservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Custom exception thrown when a resource cannot be created because one with the same
+ * unique key already exists in the system.
+ * <p>
+ * This is typically used when a signup uses an email or organization name that is
+ * already taken. It is mapped to a 409 Conflict HTTP status.
+ *
+ * By extending RuntimeException, it is an "unchecked" exception.
+ */
+@ResponseStatus(HttpStatus.CONFLICT) // This annotation provides a default HTTP status code.
+public class ResourceAlreadyExistsException extends RuntimeException {
+
+    /**
+     * Constructs a new ResourceAlreadyExistsException with the specified detail message.
+     *
+     * @param message the detail message (e.g., "An account with this email already exists.").
+     */
+    public ResourceAlreadyExistsException(String message) {
+        super(message);
+    }
+}
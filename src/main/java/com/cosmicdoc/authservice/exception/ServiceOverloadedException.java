@@ -0,0 +1,37 @@
+package com.cosmicdoc.authservice.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Custom exception thrown when the service sheds load instead of queueing more work.
+ * <p>
+ * This is used when a bounded resource, such as the password hashing executor, is
+ * saturated. Failing fast keeps the request threads free for other endpoints; the
+ * client is expected to retry after a short delay. It is mapped to a
+ * 503 Service Unavailable HTTP status.
+ *
+ * By extending RuntimeException, it is an "unchecked" exception.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE) // This annotation provides a default HTTP status code.
+public class ServiceOverloadedException extends RuntimeException {
+
+    /**
+     * Constructs a new ServiceOverloadedException with the specified detail message.
+     *
+     * @param message the detail message.
+     */
+    public ServiceOverloadedException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new ServiceOverloadedException with the specified detail message and cause.
+     *
+     * @param message the detail message.
+     * @param cause the cause of the exception.
+     */
+    public ServiceOverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,118 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.cosmicdoc.authservice.repository.FirestoreFutures.toCompletableFuture;
+
+/**
+ * Non-blocking Firestore access for the signup flow.
+ * <p>
+ * Every method returns a {@link CompletableFuture} adapted from the Firestore client's
+ * own futures, so several reads can be in flight at once and no request thread has
+ * to wait for them.
+ * <p>
+ * The uniqueness checks only let signup fail fast. Uniqueness itself is enforced by
+ * reservation documents ({@code email_index/{email}}, see {@link UserLookupIndex},
+ * and {@code organization_name_index/{normalizedName}}) that are <em>created</em> in
+ * the signup batch: if another signup reserved the same email or name in the
+ * meantime, the whole batch fails with {@code ALREADY_EXISTS}.
+ */
+@Component
+public class AsyncOnboardingRepository {
+
+    public static final String ORGANIZATION_NAME_INDEX = "organization_name_index";
+    public static final String ORGANIZATION_ID_FIELD = "organizationId";
+
+    private final Firestore firestore;
+    private final UserLookupIndex userLookupIndex;
+    private final boolean usersFallbackToQuery;
+    private final boolean organizationsFallbackToQuery;
+
+    public AsyncOnboardingRepository(Firestore firestore,
+                                     UserLookupIndex userLookupIndex,
+                                     @Value("${app.users.lookup-index.fallback-to-query:true}") boolean usersFallbackToQuery,
+                                     @Value("${app.organizations.name-index.fallback-to-query:true}") boolean organizationsFallbackToQuery) {
+        this.firestore = firestore;
+        this.userLookupIndex = userLookupIndex;
+        this.usersFallbackToQuery = usersFallbackToQuery;
+        this.organizationsFallbackToQuery = organizationsFallbackToQuery;
+    }
+
+    /**
+     * Normalizes an organization name to its reservation key: trimmed and lower-cased,
+     * the same value stored as {@code normalizedName} on the organization.
+     */
+    public static String normalizeOrganizationName(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param email The email address as entered.
+     * @return a future completing with true if a user already has this email
+     */
+    public CompletableFuture<Boolean> emailTaken(String email) {
+        String key = UserLookupIndex.normalizeEmail(email);
+        return toCompletableFuture(userLookupIndex.emailIndexRef(key).get())
+                .thenCompose(entry -> {
+                    if (entry.exists() || !usersFallbackToQuery) {
+                        return CompletableFuture.completedFuture(entry.exists());
+                    }
+                    // Users created before the index only show up in a query.
+                    return toCompletableFuture(firestore.collection("users")
+                            .whereEqualTo("email", email).limit(1).get())
+                            .thenApply(result -> !result.isEmpty());
+                });
+    }
+
+    /**
+     * @param name The organization name as entered.
+     * @return a future completing with true if an organization already has this name
+     */
+    public CompletableFuture<Boolean> organizationNameTaken(String name) {
+        String key = normalizeOrganizationName(name);
+        return toCompletableFuture(organizationNameRef(key).get())
+                .thenCompose(entry -> {
+                    if (entry.exists() || !organizationsFallbackToQuery) {
+                        return CompletableFuture.completedFuture(entry.exists());
+                    }
+                    // Organizations created before the reservation documents only show up in a query.
+                    return toCompletableFuture(firestore.collection("organizations")
+                            .whereEqualTo("normalizedName", key).limit(1).get())
+                            .thenApply(result -> !result.isEmpty());
+                });
+    }
+
+    /**
+     * Adds the reservation of an organization name to a batch. The batch fails with
+     * {@code ALREADY_EXISTS} if the name is already reserved.
+     *
+     * @param batch          The batch creating the organization.
+     * @param name           The organization name as entered.
+     * @param organizationId The ID of the new organization.
+     */
+    public void reserveOrganizationName(WriteBatch batch, String name, String organizationId) {
+        batch.create(organizationNameRef(normalizeOrganizationName(name)), Map.of(ORGANIZATION_ID_FIELD, organizationId));
+    }
+
+    /**
+     * Commits a batch without blocking.
+     *
+     * @param batch The batch to commit.
+     * @return a future completing when the batch has been applied
+     */
+    public CompletableFuture<Void> commit(WriteBatch batch) {
+        return toCompletableFuture(batch.commit()).thenApply(results -> null);
+    }
+
+    private DocumentReference organizationNameRef(String normalizedName) {
+        return firestore.collection(ORGANIZATION_NAME_INDEX).document(normalizedName);
+    }
+}
@@ -0,0 +1,97 @@
+package com.cosmicdoc.authservice.repository;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stream of document changes in a collection, or the part of it matching a filter, as
+ * delivered by a Firestore snapshot listener. Kept as an interface so that consumers can be driven by
+ * an in-process fake.
+ */
+public interface ChangeStream {
+
+    /**
+     * Firestore allows at most this many values in one {@code in} or
+     * {@code array-contains-any} filter.
+     */
+    int MAX_VALUES = 30;
+
+    /**
+     * How a subscription's field is matched against its values.
+     */
+    enum Operator {
+        /** The field equals one of the values. */
+        IN,
+        /** The field is an array holding at least one of the values. */
+        ARRAY_CONTAINS_ANY
+    }
+
+    enum ChangeType {
+        ADDED,
+        MODIFIED,
+        REMOVED
+    }
+
+    /**
+     * One changed document. For {@code REMOVED}, {@code data} is the last state of the document.
+     */
+    record Change(ChangeType type, String documentId, Map<String, Object> data) {
+    }
+
+    /**
+     * The changes of one snapshot.
+     *
+     * @param changes  The changed documents.
+     * @param readTime The time at which the snapshot was consistent.
+     * @param initial  True for the first snapshot of a subscription, which lists every
+     *                 existing document as {@code ADDED} rather than reporting changes.
+     */
+    record Batch(List<Change> changes, Instant readTime, boolean initial) {
+    }
+
+    /**
+     * Receives the changes of a subscription.
+     */
+    interface Listener {
+
+        void onChanges(Batch batch);
+
+        /**
+         * The subscription has ended and delivers no more changes.
+         */
+        void onError(Throwable error);
+    }
+
+    /**
+     * An active subscription.
+     */
+    interface Subscription extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Starts listening to every document of a collection.
+     *
+     * @param collection The collection.
+     * @param listener   Receives the changes, starting with the initial snapshot.
+     * @return The subscription; close it to stop listening.
+     */
+    Subscription subscribe(String collection, Listener listener);
+
+    /**
+     * Starts listening to the documents of a collection whose field matches one of the values.
+     * A document that stops matching is reported as {@code REMOVED}.
+     *
+     * @param collection The collection.
+     * @param field      The field to filter on.
+     * @param operator   How the field is matched.
+     * @param values     Up to {@value #MAX_VALUES} values.
+     * @param listener   Receives the changes, starting with the initial snapshot.
+     * @return The subscription; close it to stop listening.
+     */
+    Subscription subscribe(String collection, String field, Operator operator, List<String> values,
+                           Listener listener);
+}
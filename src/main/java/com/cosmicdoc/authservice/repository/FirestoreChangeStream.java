@@ -0,0 +1,67 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link ChangeStream} backed by Firestore snapshot listeners.
+ * <p>
+ * The client reconnects the underlying listen stream by itself after transient
+ * failures; {@link ChangeStream.Listener#onError} is only called when the listener
+ * has stopped for good.
+ */
+@Component
+public class FirestoreChangeStream implements ChangeStream {
+
+    private final Firestore firestore;
+
+    public FirestoreChangeStream(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @Override
+    public Subscription subscribe(String collection, Listener listener) {
+        return subscribe(firestore.collection(collection), listener);
+    }
+
+    @Override
+    public Subscription subscribe(String collection, String field, Operator operator, List<String> values,
+                                  Listener listener) {
+        if (values.isEmpty() || values.size() > MAX_VALUES) {
+            throw new IllegalArgumentException("A subscription needs 1 to " + MAX_VALUES + " values, not " + values.size());
+        }
+        Query query = operator == Operator.IN
+                ? firestore.collection(collection).whereIn(field, List.copyOf(values))
+                : firestore.collection(collection).whereArrayContainsAny(field, List.copyOf(values));
+        return subscribe(query, listener);
+    }
+
+    private static Subscription subscribe(Query query, Listener listener) {
+        AtomicBoolean initial = new AtomicBoolean(true);
+        ListenerRegistration registration = query.addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                listener.onError(error);
+                return;
+            }
+            List<Change> changes = new ArrayList<>(snapshot.getDocumentChanges().size());
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                changes.add(new Change(ChangeType.valueOf(change.getType().name()),
+                        change.getDocument().getId(), change.getDocument().getData()));
+            }
+            Timestamp readTime = snapshot.getReadTime();
+            listener.onChanges(new Batch(changes,
+                    Instant.ofEpochSecond(readTime.getSeconds(), readTime.getNanos()),
+                    initial.getAndSet(false)));
+        });
+        return registration::remove;
+    }
+}
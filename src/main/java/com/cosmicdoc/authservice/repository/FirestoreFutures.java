@@ -0,0 +1,64 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adapters between Firestore's {@link ApiFuture} and {@link CompletableFuture}.
+ */
+public final class FirestoreFutures {
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private FirestoreFutures() {
+    }
+
+    /**
+     * Adapts an {@link ApiFuture} without blocking any thread while it is pending.
+     * <p>
+     * The returned future completes on the Firestore client's callback thread, so
+     * dependent stages should be short or run on their own executor.
+     *
+     * @param apiFuture the Firestore future
+     * @return a future completing with the same result or failure
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                future.completeExceptionally(failure);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Checks whether a failure, possibly wrapped by a future, is a Firestore error with
+     * the given status code, e.g. {@code ALREADY_EXISTS} from a {@code create}.
+     *
+     * @param failure the failure to inspect
+     * @param code    the expected status code
+     * @return true if the failure or one of its causes is an {@link ApiException} with that code
+     */
+    public static boolean hasStatus(Throwable failure, StatusCode.Code code) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof ApiException apiException) {
+                return apiException.getStatusCode().getCode() == code;
+            }
+        }
+        return false;
+    }
+}
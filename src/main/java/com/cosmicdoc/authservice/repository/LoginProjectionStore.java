@@ -0,0 +1,257 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.cosmicdoc.authservice.util.SingleFlight;
+import com.cosmicdoc.common.model.UserStatus;
+import com.cosmicdoc.common.model.Users;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The {@code login_projection/{normalizedEmail}} documents: everything sign-in needs
+ * about a user in one document, so that sign-in is a single direct read.
+ * <p>
+ * A projection holds the user's ID, password hash, status, display name and
+ * organizations, plus the role in the default (first) organization. It is written in
+ * the same batch or transaction as the user and membership documents it copies from;
+ * partial changes are merged in, so a change never needs to read the projection first.
+ * <p>
+ * Users created before projections existed have none, or only the merged-in fields of
+ * later changes; {@link LoginProjection#isComplete()} is false for those, and sign-in
+ * takes the old path and then {@link #repair}s the projection.
+ * <p>
+ * Concurrent sign-ins with the same email share one in-flight read of the projection.
+ * A sign-in may therefore see the projection as it was up to one Firestore round trip
+ * before it arrived: one that joins a read started just before a suspension or password
+ * reset committed gets the old status or hash. This is accepted: an uncoalesced read
+ * issued just before the commit has the same window, so coalescing widens it by at most
+ * one round trip, and any sign-in arriving after the read completes starts a fresh read
+ * and sees the change.
+ */
+@Slf4j
+@Component
+public class LoginProjectionStore {
+
+    public static final String COLLECTION = "login_projection";
+    public static final String USER_ID = "userId";
+    public static final String EMAIL = "email";
+    public static final String HASHED_PASSWORD = "hashedPassword";
+    public static final String STATUS = "status";
+    public static final String DISPLAY_NAME = "displayName";
+    public static final String ORGANIZATIONS = "organizations";
+    public static final String DEFAULT_ORGANIZATION_ID = "defaultOrganizationId";
+    public static final String ROLE = "role";
+
+    /**
+     * A user as seen by sign-in.
+     *
+     * @param defaultOrganizationId The organization {@code role} belongs to. Sign-in
+     *                              only uses the role while this is still the user's
+     *                              first organization.
+     */
+    public record LoginProjection(String userId, String email, String hashedPassword, UserStatus status,
+                                  String displayName, List<String> organizations,
+                                  String defaultOrganizationId, String role) {
+
+        /**
+         * @return true if the projection holds everything sign-in needs.
+         */
+        public boolean isComplete() {
+            return userId != null && hashedPassword != null && status != null;
+        }
+
+        /**
+         * @return The role in the user's first organization, or null if the projection does not know it.
+         */
+        public String defaultRole() {
+            if (organizations == null || organizations.isEmpty()
+                    || !organizations.get(0).equals(defaultOrganizationId)) {
+                return null;
+            }
+            return role;
+        }
+
+        public Users toUser() {
+            return Users.builder()
+                    .userId(userId)
+                    .email(email)
+                    .hashedPassword(hashedPassword)
+                    .status(status)
+                    .displayName(displayName)
+                    .organizations(organizations == null ? new ArrayList<>() : new ArrayList<>(organizations))
+                    .build();
+        }
+    }
+
+    private final Firestore firestore;
+    private final MeterRegistry meterRegistry;
+    private final SingleFlight<String, DocumentSnapshot> reads;
+
+    public LoginProjectionStore(Firestore firestore, MeterRegistry meterRegistry) {
+        this.firestore = firestore;
+        this.meterRegistry = meterRegistry;
+        this.reads = new SingleFlight<>(COLLECTION, meterRegistry);
+    }
+
+    public DocumentReference ref(String email) {
+        return firestore.collection(COLLECTION).document(UserLookupIndex.normalizeEmail(email));
+    }
+
+    /**
+     * Reads the projection of a user.
+     *
+     * @param email The email address as entered.
+     * @return The projection, if one exists and is complete.
+     */
+    public Optional<LoginProjection> find(String email) {
+        String key = UserLookupIndex.normalizeEmail(email);
+        if (key == null) {
+            return Optional.empty();
+        }
+        DocumentSnapshot snapshot;
+        try {
+            DocumentReference ref = ref(email);
+            snapshot = reads.execute(key, () -> FirestoreFutures.toCompletableFuture(ref.get())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the login projection.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to read the login projection.", e.getCause());
+        }
+        LoginProjection projection = snapshot.exists() ? fromSnapshot(snapshot) : null;
+        if (projection == null || !projection.isComplete()) {
+            count("miss");
+            return Optional.empty();
+        }
+        count("hit");
+        return Optional.of(projection);
+    }
+
+    /**
+     * Writes the complete projection of a user.
+     *
+     * @param batch       The batch writing the user.
+     * @param user        The user as written.
+     * @param defaultRole The user's role in their first organization, or null if they have none.
+     */
+    public void putInBatch(WriteBatch batch, Users user, String defaultRole) {
+        batch.set(ref(user.getEmail()), fieldsOf(user, defaultRole));
+    }
+
+    /**
+     * Merges changed fields into a user's projection.
+     *
+     * @param batch  The batch writing the change to the user or membership.
+     * @param email  The user's email.
+     * @param fields The changed fields, named as the constants of this class.
+     */
+    public void updateInBatch(WriteBatch batch, String email, Map<String, Object> fields) {
+        batch.set(ref(email), fields, SetOptions.merge());
+    }
+
+    /**
+     * Merges changed fields into a user's projection within a transaction.
+     */
+    public void updateInTransaction(Transaction transaction, String email, Map<String, Object> fields) {
+        transaction.set(ref(email), fields, SetOptions.merge());
+    }
+
+    /**
+     * Rebuilds a user's projection from the user and membership documents, for a user
+     * whose projection is missing or out of date. Runs in a transaction, so a status or
+     * password change committed meanwhile is not overwritten with older values. Best
+     * effort: sign-in does not wait for it, and if it fails the next sign-in tries again.
+     *
+     * @param userId The user.
+     */
+    public void repair(String userId) {
+        DocumentReference userRef = firestore.collection("users").document(userId);
+        ApiFuture<Void> repaired = firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(userRef).get();
+            Users user = snapshot.exists() ? snapshot.toObject(Users.class) : null;
+            if (user == null || user.getEmail() == null) {
+                return null;
+            }
+            user.setUserId(userId);
+            String defaultRole = null;
+            if (user.getOrganizations() != null && !user.getOrganizations().isEmpty()) {
+                QuerySnapshot memberships = transaction.get(firestore.collection(OrganizationMemberPager.COLLECTION)
+                        .whereEqualTo("userId", userId)
+                        .whereEqualTo("organizationId", user.getOrganizations().get(0))
+                        .limit(1)).get();
+                defaultRole = memberships.isEmpty() ? null : memberships.getDocuments().get(0).getString(ROLE);
+            }
+            transaction.set(ref(user.getEmail()), fieldsOf(user, defaultRole));
+            return null;
+        });
+        ApiFutures.addCallback(repaired, new ApiFutureCallback<>() {
+            @Override
+            public void onSuccess(Void result) {
+                count("repaired");
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                log.warn("Could not repair the login projection of user {}", userId, failure);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @return All projection fields of a user.
+     */
+    public static Map<String, Object> fieldsOf(Users user, String defaultRole) {
+        List<String> organizations = user.getOrganizations() == null ? List.of() : user.getOrganizations();
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(USER_ID, user.getUserId());
+        fields.put(EMAIL, user.getEmail());
+        fields.put(HASHED_PASSWORD, user.getHashedPassword());
+        fields.put(STATUS, user.getStatus() == null ? null : user.getStatus().name());
+        fields.put(DISPLAY_NAME, user.getDisplayName());
+        fields.put(ORGANIZATIONS, organizations);
+        fields.put(DEFAULT_ORGANIZATION_ID, organizations.isEmpty() ? null : organizations.get(0));
+        fields.put(ROLE, organizations.isEmpty() ? null : defaultRole);
+        return fields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LoginProjection fromSnapshot(DocumentSnapshot snapshot) {
+        String status = snapshot.getString(STATUS);
+        return new LoginProjection(
+                snapshot.getString(USER_ID),
+                snapshot.getString(EMAIL),
+                snapshot.getString(HASHED_PASSWORD),
+                status == null ? null : UserStatus.valueOf(status),
+                snapshot.getString(DISPLAY_NAME),
+                (List<String>) snapshot.get(ORGANIZATIONS),
+                snapshot.getString(DEFAULT_ORGANIZATION_ID),
+                snapshot.getString(ROLE));
+    }
+
+    private void count(String result) {
+        Counter.builder("auth.login.projection")
+                .description("Login projection reads and repairs, by result")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,149 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads an organization's memberships one slice at a time, in a stable order, with
+ * the role and branch filters applied by Firestore.
+ * <p>
+ * Slices are positioned with {@code startAfter} on the sort key of the last membership
+ * the caller has seen, so reading page N costs the same as reading page 1.
+ * {@link #findMemberUserIds} checks the membership of many users with batched queries.
+ */
+@Component
+public class OrganizationMemberPager {
+
+    public static final String COLLECTION = "organization_members";
+    // Branch assignments on a membership; members with ORG_WIDE access have none.
+    public static final String BRANCH_IDS_FIELD = "branchIds";
+    // Values per whereIn (Firestore's limit).
+    private static final int WHERE_IN_CHUNK_SIZE = 30;
+
+    /**
+     * Order of the memberships. Every order ends with the document ID, so it is total.
+     */
+    public enum Sort {
+        ID,
+        ROLE
+    }
+
+    /**
+     * Filters applied by Firestore. A null value means "no filter".
+     */
+    public record Filter(String role, String branchId, Sort sort) {
+    }
+
+    /**
+     * A membership together with its sort key, which positions the next slice.
+     */
+    public record Entry(String documentId, OrganizationMember membership) {
+    }
+
+    /**
+     * @param entries   The memberships, in order.
+     * @param exhausted True if no membership follows the last entry.
+     */
+    public record Slice(List<Entry> entries, boolean exhausted) {
+    }
+
+    private final Firestore firestore;
+
+    public OrganizationMemberPager(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    /**
+     * Reads up to {@code limit} memberships following {@code after}.
+     *
+     * @param organizationId The organization whose memberships to read.
+     * @param filter         Role/branch filters and sort order.
+     * @param after          The last entry already returned, or null for the first slice.
+     * @param limit          Maximum number of entries.
+     * @return The next slice.
+     */
+    public Slice fetch(String organizationId, Filter filter, Entry after, int limit) {
+        Query query = firestore.collection(COLLECTION).whereEqualTo("organizationId", organizationId);
+        if (filter.role() != null) {
+            query = query.whereEqualTo("role", filter.role());
+        }
+        if (filter.branchId() != null) {
+            query = query.whereArrayContains(BRANCH_IDS_FIELD, filter.branchId());
+        }
+        if (filter.sort() == Sort.ROLE) {
+            query = query.orderBy("role");
+        }
+        query = query.orderBy(FieldPath.documentId());
+
+        if (after != null) {
+            Object afterId = firestore.collection(COLLECTION).document(after.documentId());
+            query = filter.sort() == Sort.ROLE
+                    ? query.startAfter(after.membership().getRole(), afterId)
+                    : query.startAfter(afterId);
+        }
+
+        // One extra document tells whether anything follows the slice.
+        List<QueryDocumentSnapshot> documents;
+        try {
+            documents = query.limit(limit + 1).get().get().getDocuments();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading memberships.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to read memberships.", e.getCause());
+        }
+
+        List<Entry> entries = new ArrayList<>(Math.min(limit, documents.size()));
+        for (int i = 0; i < documents.size() && i < limit; i++) {
+            QueryDocumentSnapshot document = documents.get(i);
+            entries.add(new Entry(document.getId(), document.toObject(OrganizationMember.class)));
+        }
+        return new Slice(entries, documents.size() <= limit);
+    }
+
+    /**
+     * Checks which of the given users are members of the organization, with one
+     * {@code whereIn} query per {@value #WHERE_IN_CHUNK_SIZE} users, all in flight at once.
+     *
+     * @param organizationId The organization.
+     * @param userIds        The users to check.
+     * @return The IDs of the users that are members.
+     */
+    public Set<String> findMemberUserIds(String organizationId, Collection<String> userIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        List<CompletableFuture<QuerySnapshot>> queries = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += WHERE_IN_CHUNK_SIZE) {
+            queries.add(FirestoreFutures.toCompletableFuture(firestore.collection(COLLECTION)
+                    .whereEqualTo("organizationId", organizationId)
+                    .whereIn("userId", new ArrayList<Object>(ids.subList(start, Math.min(start + WHERE_IN_CHUNK_SIZE, ids.size()))))
+                    .get()));
+        }
+
+        Set<String> members = new HashSet<>();
+        try {
+            for (CompletableFuture<QuerySnapshot> query : queries) {
+                for (QueryDocumentSnapshot document : query.join().getDocuments()) {
+                    members.add(document.getString("userId"));
+                }
+            }
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to read memberships.", e.getCause());
+        }
+        return members;
+    }
+}
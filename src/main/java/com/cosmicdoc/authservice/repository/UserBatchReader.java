@@ -0,0 +1,108 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.cosmicdoc.common.model.Users;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Reads many users by ID with Firestore multi-gets instead of one get per user.
+ * <p>
+ * The IDs are split into chunks of {@value #CHUNK_SIZE}; each chunk is a single
+ * {@code getAll} round trip and all chunks are in flight at the same time, so listing
+ * an organization of a few hundred members costs one round trip of latency instead
+ * of hundreds.
+ */
+@Component
+public class UserBatchReader {
+
+    static final int CHUNK_SIZE = 100;
+
+    /**
+     * Users found, keyed by ID in request order, plus the IDs that have no user document.
+     */
+    public record Result(Map<String, Users> found, List<String> missingIds) {
+    }
+
+    private final Firestore firestore;
+    private final Counter missing;
+    private final DistributionSummary batchSize;
+
+    public UserBatchReader(Firestore firestore, MeterRegistry meterRegistry) {
+        this.firestore = firestore;
+        this.missing = Counter.builder("auth.user.batch.missing")
+                .description("User IDs requested in a batch read that have no user document")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("auth.user.batch.size")
+                .description("Number of distinct user IDs per batch read")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reads the users with the given IDs. Duplicate IDs are read once.
+     *
+     * @param userIds The IDs to read.
+     * @return The users found and the IDs without a user document.
+     */
+    public Result findAllByIds(Collection<String> userIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        batchSize.record(ids.size());
+        if (ids.isEmpty()) {
+            return new Result(Map.of(), List.of());
+        }
+
+        List<CompletableFuture<List<DocumentSnapshot>>> chunks = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            List<String> chunk = ids.subList(start, Math.min(start + CHUNK_SIZE, ids.size()));
+            DocumentReference[] refs = chunk.stream()
+                    .map(id -> firestore.collection("users").document(id))
+                    .toArray(DocumentReference[]::new);
+            chunks.add(FirestoreFutures.toCompletableFuture(firestore.getAll(refs)));
+        }
+
+        Map<String, Users> byId = new HashMap<>();
+        try {
+            for (CompletableFuture<List<DocumentSnapshot>> chunk : chunks) {
+                for (DocumentSnapshot snapshot : chunk.join()) {
+                    if (snapshot.exists()) {
+                        Users user = snapshot.toObject(Users.class);
+                        if (user.getUserId() == null) {
+                            user.setUserId(snapshot.getId());
+                        }
+                        byId.put(snapshot.getId(), user);
+                    }
+                }
+            }
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to read users.", e.getCause());
+        }
+
+        // getAll does not guarantee result order; restore the requested order.
+        Map<String, Users> found = new LinkedHashMap<>();
+        List<String> missingIds = new ArrayList<>();
+        for (String id : ids) {
+            Users user = byId.get(id);
+            if (user != null) {
+                found.put(id, user);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        missing.increment(missingIds.size());
+        return new Result(found, missingIds);
+    }
+}
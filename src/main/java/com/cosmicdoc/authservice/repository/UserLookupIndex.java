@@ -0,0 +1,379 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.cosmicdoc.authservice.util.SingleFlight;
+import com.cosmicdoc.common.model.Users;
+import com.cosmicdoc.common.repository.UsersRepository;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Lookup of users by email or phone number through index documents instead of
+ * field queries over the whole {@code users} collection.
+ * <p>
+ * Every user has an {@code email_index/{normalizedEmail}} document and, when a mobile
+ * number is known, a {@code phone_index/{e164}} document, each holding the
+ * {@code userId}. They are written in the same {@link WriteBatch} as the user itself
+ * (see {@link #indexInBatch}), so a lookup is a direct document get followed by a get
+ * of the user.
+ * <p>
+ * Users created before the index existed are found with the original query as long as
+ * {@code app.users.lookup-index.fallback-to-query} is on; every such hit also writes
+ * the missing index document. Once {@code UserLookupIndexBackfill} has been run the
+ * fallback can be switched off, so lookups of unknown emails no longer cost a query.
+ * <p>
+ * Concurrent lookups of the same email or phone number (a shared login at a shift
+ * change, or clients retrying during an outage) share the in-flight reads of the index
+ * and user documents through a {@link SingleFlight}; each caller still gets its own
+ * {@link Users} object.
+ */
+@Component
+public class UserLookupIndex {
+
+    public static final String EMAIL_INDEX = "email_index";
+    public static final String PHONE_INDEX = "phone_index";
+    public static final String USER_ID_FIELD = "userId";
+
+    // Index documents per getAll, and values per whereIn of the query fallback (Firestore's limit).
+    private static final int GET_ALL_CHUNK_SIZE = 100;
+    private static final int WHERE_IN_CHUNK_SIZE = 30;
+
+    private final Firestore firestore;
+    private final UsersRepository userRepository;
+    private final UserBatchReader userBatchReader;
+    private final String defaultCountryCode;
+    private final boolean fallbackToQuery;
+    private final MeterRegistry meterRegistry;
+    private final SingleFlight<String, DocumentSnapshot> documentReads;
+
+    public UserLookupIndex(Firestore firestore,
+                           UsersRepository userRepository,
+                           UserBatchReader userBatchReader,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.users.lookup-index.default-country-code:91}") String defaultCountryCode,
+                           @Value("${app.users.lookup-index.fallback-to-query:true}") boolean fallbackToQuery) {
+        this.firestore = firestore;
+        this.userRepository = userRepository;
+        this.userBatchReader = userBatchReader;
+        this.meterRegistry = meterRegistry;
+        this.defaultCountryCode = defaultCountryCode;
+        this.fallbackToQuery = fallbackToQuery;
+        this.documentReads = new SingleFlight<>("user_lookup", meterRegistry);
+    }
+
+    /**
+     * Normalizes an email address to its index key: trimmed and lower-cased.
+     *
+     * @param email The email address as entered.
+     * @return The index key, or {@code null} if there is no email.
+     */
+    public static String normalizeEmail(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Normalizes a phone number to E.164 ({@code +<country code><number>}).
+     * Separators are dropped, a leading {@code 00} is treated as {@code +}, and a
+     * number without a country code gets {@code defaultCountryCode}.
+     *
+     * @param phone              The phone number as entered.
+     * @param defaultCountryCode Country code for numbers entered without one, e.g. "91".
+     * @return The E.164 number, or {@code null} if there are no digits.
+     */
+    public static String normalizePhone(String phone, String defaultCountryCode) {
+        if (phone == null) {
+            return null;
+        }
+        String trimmed = phone.trim();
+        String digits = trimmed.replaceAll("[^0-9]", "");
+        if (digits.isEmpty()) {
+            return null;
+        }
+        if (trimmed.startsWith("+")) {
+            return "+" + digits;
+        }
+        if (digits.startsWith("00")) {
+            return "+" + digits.substring(2);
+        }
+        // A national number, possibly with a trunk prefix 0.
+        if (digits.startsWith("0")) {
+            digits = digits.substring(1);
+        }
+        if (digits.length() <= 10) {
+            return "+" + defaultCountryCode + digits;
+        }
+        return "+" + digits;
+    }
+
+    /**
+     * Adds the index documents of a new user to the batch that creates the user, so
+     * the user and its index entries become visible together.
+     * <p>
+     * The email entry is <em>created</em>, which makes it a reservation: if another user
+     * already has the email, the whole batch fails with {@code ALREADY_EXISTS}.
+     *
+     * @param batch The batch creating the user.
+     * @param user  The user being created.
+     */
+    public void indexInBatch(WriteBatch batch, Users user) {
+        String email = normalizeEmail(user.getEmail());
+        if (email != null) {
+            batch.create(emailIndexRef(email), Map.of(USER_ID_FIELD, user.getUserId()));
+        }
+        String phone = normalizePhone(user.getMobileNumber(), defaultCountryCode);
+        if (phone != null) {
+            batch.set(phoneIndexRef(phone), Map.of(USER_ID_FIELD, user.getUserId()));
+        }
+    }
+
+    public DocumentReference emailIndexRef(String normalizedEmail) {
+        return firestore.collection(EMAIL_INDEX).document(normalizedEmail);
+    }
+
+    public DocumentReference phoneIndexRef(String e164) {
+        return firestore.collection(PHONE_INDEX).document(e164);
+    }
+
+    /**
+     * Finds a user by email address.
+     *
+     * @param email The email address as entered.
+     * @return The user, if one exists.
+     */
+    public Optional<Users> findByEmail(String email) {
+        String key = normalizeEmail(email);
+        if (key == null) {
+            return Optional.empty();
+        }
+        return find("email", emailIndexRef(key), email,
+                user -> key.equals(normalizeEmail(user.getEmail())),
+                userRepository::findByEmail);
+    }
+
+    /**
+     * Finds a user by mobile number.
+     *
+     * @param phone The mobile number as entered.
+     * @return The user, if one exists.
+     */
+    public Optional<Users> findByPhone(String phone) {
+        String key = normalizePhone(phone, defaultCountryCode);
+        if (key == null) {
+            return Optional.empty();
+        }
+        return find("phone", phoneIndexRef(key), phone,
+                user -> key.equals(normalizePhone(user.getMobileNumber(), defaultCountryCode)),
+                userRepository::findByPhone);
+    }
+
+    /**
+     * Finds the users with any of the given email addresses. The index documents and
+     * then the users are read with chunked multi-gets, and addresses missing from the
+     * index cost one {@code whereIn} query per {@value #WHERE_IN_CHUNK_SIZE} addresses,
+     * instead of one lookup per address.
+     *
+     * @param emails The email addresses as entered.
+     * @return The users found, keyed by normalized email.
+     */
+    public Map<String, Users> findAllByEmail(Collection<String> emails) {
+        // Normalized key -> address as entered, for the query fallback.
+        Map<String, String> rawByKey = new LinkedHashMap<>();
+        for (String email : emails) {
+            String key = normalizeEmail(email);
+            if (key != null) {
+                rawByKey.putIfAbsent(key, email.trim());
+            }
+        }
+        List<String> keys = new ArrayList<>(rawByKey.keySet());
+        if (keys.isEmpty()) {
+            return Map.of();
+        }
+
+        List<CompletableFuture<List<DocumentSnapshot>>> chunks = new ArrayList<>();
+        for (int start = 0; start < keys.size(); start += GET_ALL_CHUNK_SIZE) {
+            DocumentReference[] refs = keys.subList(start, Math.min(start + GET_ALL_CHUNK_SIZE, keys.size())).stream()
+                    .map(this::emailIndexRef)
+                    .toArray(DocumentReference[]::new);
+            chunks.add(FirestoreFutures.toCompletableFuture(firestore.getAll(refs)));
+        }
+        Map<String, String> userIdByKey = new HashMap<>();
+        try {
+            for (CompletableFuture<List<DocumentSnapshot>> chunk : chunks) {
+                for (DocumentSnapshot snapshot : chunk.join()) {
+                    String userId = snapshot.exists() ? snapshot.getString(USER_ID_FIELD) : null;
+                    if (userId != null) {
+                        userIdByKey.put(snapshot.getId(), userId);
+                    }
+                }
+            }
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to read " + EMAIL_INDEX, e.getCause());
+        }
+
+        Map<String, Users> users = userBatchReader.findAllByIds(userIdByKey.values()).found();
+        Map<String, Users> found = new HashMap<>();
+        Set<String> unresolved = new LinkedHashSet<>();
+        int stale = 0;
+        for (String key : keys) {
+            String userId = userIdByKey.get(key);
+            Users user = userId == null ? null : users.get(userId);
+            if (user != null && key.equals(normalizeEmail(user.getEmail()))) {
+                found.put(key, user);
+            } else {
+                if (userId != null) {
+                    stale++;
+                }
+                unresolved.add(key);
+            }
+        }
+        count("email", "index_hit", found.size());
+        count("email", "stale", stale);
+
+        if (fallbackToQuery && !unresolved.isEmpty()) {
+            int queryHits = queryByEmail(unresolved, rawByKey, found);
+            count("email", "query_hit", queryHits);
+            unresolved.removeAll(found.keySet());
+        }
+        count("email", "miss", unresolved.size());
+        return found;
+    }
+
+    private int queryByEmail(Set<String> keys, Map<String, String> rawByKey, Map<String, Users> found) {
+        // Stored emails are not necessarily normalized, so both forms are queried.
+        List<Object> values = new ArrayList<>();
+        for (String key : keys) {
+            values.add(key);
+            if (!rawByKey.get(key).equals(key)) {
+                values.add(rawByKey.get(key));
+            }
+        }
+
+        List<CompletableFuture<QuerySnapshot>> queries = new ArrayList<>();
+        for (int start = 0; start < values.size(); start += WHERE_IN_CHUNK_SIZE) {
+            queries.add(FirestoreFutures.toCompletableFuture(firestore.collection("users")
+                    .whereIn("email", values.subList(start, Math.min(start + WHERE_IN_CHUNK_SIZE, values.size())))
+                    .get()));
+        }
+        int hits = 0;
+        try {
+            for (CompletableFuture<QuerySnapshot> query : queries) {
+                for (QueryDocumentSnapshot document : query.join().getDocuments()) {
+                    Users user = document.toObject(Users.class);
+                    if (user.getUserId() == null) {
+                        user.setUserId(document.getId());
+                    }
+                    String key = normalizeEmail(user.getEmail());
+                    if (keys.contains(key) && found.putIfAbsent(key, user) == null) {
+                        hits++;
+                        // Read repair, as in find().
+                        emailIndexRef(key).set(Map.of(USER_ID_FIELD, user.getUserId()));
+                    }
+                }
+            }
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to query users by email.", e.getCause());
+        }
+        return hits;
+    }
+
+    private Optional<Users> find(String index, DocumentReference indexRef, String rawValue,
+                                 Predicate<Users> stillMatches,
+                                 Function<String, Optional<Users>> query) {
+        String userId = readUserId(indexRef);
+        if (userId != null) {
+            Optional<Users> user = readUser(userId);
+            if (user.isPresent() && stillMatches.test(user.get())) {
+                count(index, "index_hit");
+                return user;
+            }
+            // The user was deleted or changed its email/phone without the index following.
+            count(index, "stale");
+        }
+
+        if (!fallbackToQuery) {
+            count(index, "miss");
+            return Optional.empty();
+        }
+        Optional<Users> user = query.apply(rawValue);
+        if (user.isPresent()) {
+            count(index, "query_hit");
+            // Read repair: the next lookup of this user is a direct get.
+            indexRef.set(Map.of(USER_ID_FIELD, user.get().getUserId()));
+        } else {
+            count(index, "miss");
+        }
+        return user;
+    }
+
+    private String readUserId(DocumentReference indexRef) {
+        DocumentSnapshot snapshot = read(indexRef);
+        return snapshot.exists() ? snapshot.getString(USER_ID_FIELD) : null;
+    }
+
+    private Optional<Users> readUser(String userId) {
+        DocumentSnapshot snapshot = read(firestore.collection("users").document(userId));
+        if (!snapshot.exists()) {
+            return Optional.empty();
+        }
+        // Snapshots are shared between coalesced callers; the mapped user is not.
+        Users user = snapshot.toObject(Users.class);
+        if (user.getUserId() == null) {
+            user.setUserId(userId);
+        }
+        return Optional.of(user);
+    }
+
+    private DocumentSnapshot read(DocumentReference ref) {
+        try {
+            return documentReads.execute(ref.getPath(),
+                    () -> FirestoreFutures.toCompletableFuture(ref.get())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + ref.getPath(), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to read " + ref.getPath(), e.getCause());
+        }
+    }
+
+    private void count(String index, String result) {
+        count(index, result, 1);
+    }
+
+    private void count(String index, String result, int amount) {
+        if (amount == 0) {
+            return;
+        }
+        Counter.builder("auth.user.lookup")
+                .description("User lookups by email or phone, by how they were resolved")
+                .tag("index", index)
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment(amount);
+    }
+}
@@ -0,0 +1,112 @@
+package com.cosmicdoc.authservice.security;
+
+import com.cosmicdoc.authservice.config.DropCountingAsyncAppender;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured logging of authentication events.
+ * <p>
+ * Events go to the {@code com.cosmicdoc.authservice.auth-events} logger as a short
+ * event name plus key/value pairs, which {@code logback-spring.xml} routes through a
+ * non-blocking async appender. Credentials and password hashes are never logged.
+ * <p>
+ * DEBUG events are rate-limited to {@code app.logging.auth-events.debug-per-second};
+ * the rest are counted and skipped, so enabling DEBUG under load cannot flood the log
+ * pipeline.
+ */
+@Component
+public class AuthEventLogger {
+
+    private static final Logger log = LoggerFactory.getLogger("com.cosmicdoc.authservice.auth-events");
+
+    /**
+     * Why a sign-in attempt was rejected.
+     */
+    public enum SignInFailure {
+        UNKNOWN_EMAIL,
+        ACCOUNT_NOT_ACTIVE,
+        MISSING_PASSWORD_HASH,
+        BAD_PASSWORD
+    }
+
+    private final int maxDebugEventsPerSecond;
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger debugEventsThisSecond = new AtomicInteger();
+    private final Counter suppressedDebugEvents;
+
+    public AuthEventLogger(MeterRegistry meterRegistry,
+                           @Value("${app.logging.auth-events.debug-per-second:20}") int maxDebugEventsPerSecond) {
+        this.maxDebugEventsPerSecond = maxDebugEventsPerSecond;
+        this.suppressedDebugEvents = Counter.builder("auth.logging.debug.suppressed")
+                .description("DEBUG auth events skipped by the rate limit")
+                .register(meterRegistry);
+        FunctionCounter.builder("auth.logging.dropped", this, ignored -> DropCountingAsyncAppender.droppedEvents())
+                .description("Log events dropped because an async log buffer was full")
+                .register(meterRegistry);
+    }
+
+    public void signInSucceeded(String userId, String organizationId, String role) {
+        log.atInfo()
+                .setMessage("sign_in_succeeded")
+                .addKeyValue("userId", userId)
+                .addKeyValue("organizationId", organizationId)
+                .addKeyValue("role", role)
+                .log();
+    }
+
+    public void signInFailed(SignInFailure reason, String userId) {
+        log.atInfo()
+                .setMessage("sign_in_failed")
+                .addKeyValue("reason", reason)
+                .addKeyValue("userId", userId)
+                .log();
+    }
+
+    public void signInError(Throwable error) {
+        log.atError()
+                .setMessage("sign_in_error")
+                .addKeyValue("error", error.getClass().getSimpleName())
+                .setCause(error)
+                .log();
+    }
+
+    /**
+     * Logs a rate-limited DEBUG event.
+     *
+     * @param event  Short event name, e.g. "membership_missing".
+     * @param userId The user the event is about, if known.
+     * @param detail Free-form detail; must not contain credentials.
+     */
+    public void debug(String event, String userId, Object detail) {
+        if (!log.isDebugEnabled() || !debugPermitted()) {
+            return;
+        }
+        log.atDebug()
+                .setMessage(event)
+                .addKeyValue("userId", userId)
+                .addKeyValue("detail", detail)
+                .log();
+    }
+
+    private boolean debugPermitted() {
+        long second = System.currentTimeMillis() / 1000;
+        long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            debugEventsThisSecond.set(0);
+        }
+        if (debugEventsThisSecond.incrementAndGet() <= maxDebugEventsPerSecond) {
+            return true;
+        }
+        suppressedDebugEvents.increment();
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.cosmicdoc.authservice.security;
+
+import java.security.Principal;
+
+/**
+ * The caller of the current request, as verified from its bearer token.
+ * <p>
+ * Built once per token by {@link CachingJwtAuthenticationFilter} and read through
+ * {@link SecurityUtils}, so controllers and services get typed fields instead of
+ * looking claims up by name on every call.
+ *
+ * @param userId         The token's {@code sub} claim.
+ * @param email          The {@code email} claim, if present.
+ * @param organizationId The organization the token was issued for, if present.
+ * @param role           The user's role in that organization, if present.
+ */
+public record AuthPrincipal(String userId, String email, String organizationId, String role) implements Principal {
+
+    @Override
+    public String getName() {
+        return userId;
+    }
+}
@@ -0,0 +1,77 @@
+package com.cosmicdoc.authservice.security;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Picks the BCrypt work factor for the machine the service is running on.
+ * <p>
+ * Every increment of the BCrypt strength doubles the cost of a hash, and the time a
+ * given strength takes depends entirely on the CPU. Instead of hardcoding a strength,
+ * the calibrator times hashes at increasing strengths and returns the highest one
+ * whose median hash time stays within the target latency, never going below a
+ * configured floor.
+ */
+@Slf4j
+public final class BCryptCostCalibrator {
+
+    private static final int SAMPLES = 3;
+    private static final String SAMPLE_PASSWORD = "calibration-Password-123!";
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private BCryptCostCalibrator() {
+    }
+
+    /**
+     * Finds the highest strength in {@code [minStrength, maxStrength]} whose median
+     * hash time does not exceed {@code targetLatency}.
+     *
+     * @param targetLatency desired time for one hash
+     * @param minStrength   lowest strength ever returned, even on a slow CPU
+     * @param maxStrength   highest strength ever returned, even on a fast CPU
+     * @return the calibrated BCrypt strength
+     */
+    public static int calibrate(Duration targetLatency, int minStrength, int maxStrength) {
+        // The first hash pays for class loading and JIT warm-up; keep it out of the measurements.
+        new BCryptPasswordEncoder(4).encode(SAMPLE_PASSWORD);
+
+        int chosen = minStrength;
+        for (int strength = minStrength; strength <= maxStrength; strength++) {
+            Duration median = medianHashTime(strength);
+            log.info("BCrypt strength {} takes {} ms per hash", strength, median.toMillis());
+            if (median.compareTo(targetLatency) > 0) {
+                break;
+            }
+            chosen = strength;
+            // The next strength costs twice as much; stop early instead of timing a hash we will reject.
+            if (median.multipliedBy(2).compareTo(targetLatency) > 0) {
+                break;
+            }
+        }
+        log.info("Using BCrypt strength {} for a target of {} ms per hash", chosen, targetLatency.toMillis());
+        return chosen;
+    }
+
+    /**
+     * Times {@value #SAMPLES} hashes at the given strength and returns the median.
+     *
+     * @param strength BCrypt strength (log2 of the number of rounds)
+     * @return the median time for one hash
+     */
+    public static Duration medianHashTime(int strength) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            encoder.encode(SAMPLE_PASSWORD);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return Duration.ofNanos(samples[SAMPLES / 2]);
+    }
+}
@@ -0,0 +1,198 @@
+package com.cosmicdoc.authservice.security;
+
+import com.cosmicdoc.authservice.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link PasswordEncoder} that runs the (deliberately slow) hashing of its delegate
+ * on a dedicated, CPU-sized thread pool with a bounded queue.
+ * <p>
+ * BCrypt is pure CPU work. Running it on the servlet threads lets a burst of sign-in
+ * attempts occupy every request thread and every core, starving unrelated endpoints
+ * such as health checks. Here at most {@code threads} hashes run at once, at most
+ * {@code queueCapacity} wait, and everything beyond that is rejected immediately with
+ * a {@link ServiceOverloadedException} (503) instead of queueing without bound.
+ * <p>
+ * Queue depth, time spent waiting for a hashing thread and time spent hashing are
+ * published as Micrometer metrics.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder, DisposableBean {
+
+    private final PasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitNanos;
+
+    private final Timer encodeWait;
+    private final Timer encodeTime;
+    private final Timer matchesWait;
+    private final Timer matchesTime;
+    private final Counter rejected;
+
+    /**
+     * @param delegate      the encoder doing the actual hashing
+     * @param threads       number of hashing threads; usually the number of available cores
+     * @param queueCapacity maximum number of hashing requests waiting for a thread
+     * @param maxWait       longest a caller waits for its result before giving up
+     * @param meterRegistry registry for the executor metrics
+     */
+    public BoundedPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity,
+                                  Duration maxWait, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.maxWaitNanos = maxWait.toNanos();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("auth.password.hash.queue.depth", executor, pool -> pool.getQueue().size())
+                .description("Password hashing requests waiting for a hashing thread")
+                .register(meterRegistry);
+        this.encodeWait = waitTimer(meterRegistry, "encode");
+        this.encodeTime = hashTimer(meterRegistry, "encode");
+        this.matchesWait = waitTimer(meterRegistry, "matches");
+        this.matchesTime = hashTimer(meterRegistry, "matches");
+        this.rejected = Counter.builder("auth.password.hash.rejected")
+                .description("Password hashing requests rejected because the queue was full or the wait too long")
+                .register(meterRegistry);
+    }
+
+    private static Timer waitTimer(MeterRegistry registry, String operation) {
+        return Timer.builder("auth.password.hash.wait")
+                .description("Time a password hashing request waited for a hashing thread")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    private static Timer hashTimer(MeterRegistry registry, String operation) {
+        return Timer.builder("auth.password.hash.time")
+                .description("Time spent computing a password hash")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> delegate.encode(rawPassword), encodeWait, encodeTime);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> delegate.matches(rawPassword, encodedPassword), matchesWait, matchesTime);
+    }
+
+    /**
+     * Hashes the password on the hashing pool without blocking the caller.
+     * <p>
+     * The returned future fails with {@link ServiceOverloadedException} if the queue is
+     * full or no hashing thread picks the request up within the maximum wait.
+     *
+     * @param rawPassword the password to hash
+     * @return a future completing with the hash
+     */
+    public CompletableFuture<String> encodeAsync(CharSequence rawPassword) {
+        long enqueuedAt = System.nanoTime();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    // Timed out while queued; nobody is waiting for this hash any more.
+                    return;
+                }
+                long startedAt = System.nanoTime();
+                encodeWait.record(startedAt - enqueuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    result.complete(delegate.encode(rawPassword));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    encodeTime.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(
+                    new ServiceOverloadedException("The service is busy. Please try again shortly.", e));
+        }
+
+        return result.orTimeout(maxWaitNanos, TimeUnit.NANOSECONDS)
+                .exceptionallyCompose(failure -> {
+                    if (failure instanceof TimeoutException) {
+                        rejected.increment();
+                        return CompletableFuture.failedFuture(
+                                new ServiceOverloadedException("The service is busy. Please try again shortly.", failure));
+                    }
+                    return CompletableFuture.failedFuture(failure);
+                });
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        // Only inspects the hash prefix; cheap enough to run on the caller's thread.
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private <T> T execute(Callable<T> hashing, Timer waitTimer, Timer hashTimer) {
+        long enqueuedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                waitTimer.record(startedAt - enqueuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    return hashing.call();
+                } finally {
+                    hashTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new ServiceOverloadedException("The service is busy. Please try again shortly.", e);
+        }
+
+        try {
+            return future.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // A cancelled task that has not started yet is skipped by the pool.
+            future.cancel(false);
+            rejected.increment();
+            throw new ServiceOverloadedException("The service is busy. Please try again shortly.", e);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for password hashing.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Password hashing failed.", e.getCause());
+        }
+    }
+}
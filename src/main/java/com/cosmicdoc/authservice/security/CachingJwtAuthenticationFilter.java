@@ -0,0 +1,185 @@
+package com.cosmicdoc.authservice.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextHolderStrategy;
+import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.server.resource.InvalidBearerTokenException;
+import org.springframework.security.oauth2.server.resource.web.BearerTokenAuthenticationEntryPoint;
+import org.springframework.security.oauth2.server.resource.web.BearerTokenResolver;
+import org.springframework.security.oauth2.server.resource.web.DefaultBearerTokenResolver;
+import org.springframework.security.web.AuthenticationEntryPoint;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticates requests that carry a bearer token, verifying each distinct token once
+ * rather than on every request.
+ * <p>
+ * The first request with a token has its signature and timestamps checked by the
+ * {@link JwtDecoder}; the resulting {@link AuthPrincipal} and authentication are then
+ * cached under the token's SHA-256 (the token itself is never stored) until the token's
+ * {@code exp}, and at most {@code app.security.token-cache.max-size} are kept. A token
+ * without {@code exp} is rejected, as the cache could never drop it. A cached token is
+ * still refused once its signing key has been removed from the {@link JwtKeyRing}, so
+ * retiring a key takes effect immediately. Hit and miss counts are published as the
+ * {@code cache.gets} metrics with {@code cache=auth.token}.
+ * <p>
+ * Like Spring's resource-server filter, a request without a token passes through
+ * unauthenticated, and an invalid token is answered with 401 and a
+ * {@code WWW-Authenticate: Bearer error="invalid_token"} header.
+ */
+public class CachingJwtAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    });
+
+    /**
+     * A token's SHA-256, held as four longs rather than a byte array or string.
+     */
+    private record TokenHash(long a, long b, long c, long d) {
+
+        static TokenHash of(String token) {
+            ByteBuffer digest = ByteBuffer.wrap(SHA256.get().digest(token.getBytes(StandardCharsets.US_ASCII)));
+            return new TokenHash(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+        }
+    }
+
+    /**
+     * A verified token.
+     *
+     * @param authentication  The authentication to install for its requests.
+     * @param keyId           The {@code kid} of the key that verified it.
+     * @param expiresAtMillis Its {@code exp}, in epoch milliseconds.
+     */
+    private record Verified(Authentication authentication, String keyId, long expiresAtMillis) {
+    }
+
+    private final JwtDecoder jwtDecoder;
+    private final JwtKeyRing keyRing;
+    private final Clock clock;
+    private final Cache<TokenHash, Verified> cache;
+    private final BearerTokenResolver bearerTokenResolver = new DefaultBearerTokenResolver();
+    private final AuthenticationEntryPoint authenticationEntryPoint = new BearerTokenAuthenticationEntryPoint();
+    private final SecurityContextHolderStrategy securityContextHolderStrategy =
+            SecurityContextHolder.getContextHolderStrategy();
+
+    public CachingJwtAuthenticationFilter(JwtDecoder jwtDecoder, JwtKeyRing keyRing, long maxSize,
+                                          MeterRegistry meterRegistry) {
+        this(jwtDecoder, keyRing, maxSize, meterRegistry, Clock.systemUTC());
+    }
+
+    public CachingJwtAuthenticationFilter(JwtDecoder jwtDecoder, JwtKeyRing keyRing, long maxSize,
+                                          MeterRegistry meterRegistry, Clock clock) {
+        this.jwtDecoder = jwtDecoder;
+        this.keyRing = keyRing;
+        this.clock = clock;
+        this.cache = Caffeine.newBuilder()
+                .expireAfter(new Expiry<TokenHash, Verified>() {
+                    @Override
+                    public long expireAfterCreate(TokenHash hash, Verified verified, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, verified.expiresAtMillis() - clock.millis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(TokenHash hash, Verified verified, long currentTime,
+                                                  long currentDuration) {
+                        return expireAfterCreate(hash, verified, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(TokenHash hash, Verified verified, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "auth.token");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Authentication authentication;
+        try {
+            String token = bearerTokenResolver.resolve(request);
+            authentication = token == null ? null : authenticate(token);
+        } catch (OAuth2AuthenticationException e) {
+            securityContextHolderStrategy.clearContext();
+            authenticationEntryPoint.commence(request, response, e);
+            return;
+        }
+        if (authentication != null) {
+            SecurityContext context = securityContextHolderStrategy.createEmptyContext();
+            context.setAuthentication(authentication);
+            securityContextHolderStrategy.setContext(context);
+        }
+        chain.doFilter(request, response);
+    }
+
+    private Authentication authenticate(String token) {
+        TokenHash hash = TokenHash.of(token);
+        Verified verified = cache.get(hash, key -> verify(token));
+        if (verified.expiresAtMillis() <= clock.millis()
+                || !keyRing.current().verificationKeys().containsKey(verified.keyId())) {
+            // Expired, or its key was retired: verify again, which is refused unless the
+            // decoder still accepts it (e.g. within its clock skew).
+            cache.invalidate(hash);
+            verified = verify(token);
+        }
+        return verified.authentication();
+    }
+
+    private Verified verify(String token) {
+        Jwt jwt;
+        try {
+            jwt = jwtDecoder.decode(token);
+        } catch (JwtException e) {
+            throw new InvalidBearerTokenException(e.getMessage(), e);
+        }
+        Instant expiresAt = jwt.getExpiresAt();
+        if (expiresAt == null) {
+            throw new InvalidBearerTokenException("The token has no expiry.");
+        }
+        AuthPrincipal principal = new AuthPrincipal(jwt.getSubject(), jwt.getClaimAsString("email"),
+                jwt.getClaimAsString("organizationId"), jwt.getClaimAsString("role"));
+        // Roles are issued with their ROLE_ prefix, so the claim is the authority as is.
+        List<GrantedAuthority> authorities = principal.role() == null
+                ? List.of()
+                : AuthorityUtils.createAuthorityList(principal.role());
+        Authentication authentication = UsernamePasswordAuthenticationToken.authenticated(principal, null, authorities);
+        return new Verified(authentication, (String) jwt.getHeaders().get("kid"), expiresAt.toEpochMilli());
+    }
+}
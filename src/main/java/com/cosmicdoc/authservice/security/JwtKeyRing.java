@@ -0,0 +1,315 @@
+package com.cosmicdoc.authservice.security;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.proc.JWSKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.JSONObjectUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Key;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The keys tokens are signed and verified with: one active EC P-256 key that signs
+ * (ES256), and any number of verification keys, selected by the token's {@code kid}.
+ * <p>
+ * With {@code app.jwt.keys.location} set, the ring is read from a file
+ * ({@code file:/path/keys.json}) or a Firestore document
+ * ({@code firestore:collection/document}, field {@value #FIRESTORE_FIELD}) and reloaded
+ * every {@code app.jwt.keys.reload-interval}. Both hold the same JSON: a JWK set whose
+ * {@code active_kid} member names the private key to sign with; the other keys may be
+ * private or public. Without a location the ring is the single key in
+ * {@code app.jwt.signing-jwk}. If neither is set, startup fails unless
+ * {@code app.jwt.generate-dev-key} is on (the {@code dev} profile), in which case a
+ * key is generated that only this process knows.
+ * <p>
+ * Everything a request needs is in one immutable {@link Snapshot}, swapped in with a
+ * single volatile write, so signing and verification never lock or see a half-loaded
+ * ring, and a {@code kid} is found with one hash lookup. A failed or invalid reload
+ * keeps the current ring.
+ * <p>
+ * Rotating without invalidating live tokens takes three edits of the ring: add the new
+ * key (it is published in the JWKS but does not sign yet); once every JWKS cache has
+ * expired, make it active; once the longest-lived token signed by the old key has
+ * expired, remove the old key.
+ */
+@Slf4j
+@Component
+public class JwtKeyRing {
+
+    public static final String ACTIVE_KID = "active_kid";
+    public static final String FIRESTORE_FIELD = "keyRing";
+
+    /**
+     * One version of the ring.
+     *
+     * @param activeKeyId        The {@code kid} of the signing key.
+     * @param signingKey         The signing key.
+     * @param encodedHeader      The Base64URL-encoded JOSE header of tokens signed with it.
+     * @param verificationKeys   Public keys by {@code kid}, including the signing key's.
+     * @param publicJwks         The public JWK set, serialized as served.
+     * @param publicJwksEtag     A strong ETag of {@code publicJwks}.
+     * @param source             The JSON the ring was loaded from, to skip unchanged reloads.
+     */
+    public record Snapshot(String activeKeyId, ECPrivateKey signingKey, byte[] encodedHeader,
+                           Map<String, ECPublicKey> verificationKeys,
+                           String publicJwks, String publicJwksEtag, String source) {
+    }
+
+    private final String location;
+    private final Duration reloadInterval;
+    private final Firestore firestore;
+    private final MeterRegistry meterRegistry;
+
+    private volatile Snapshot current;
+    private ScheduledExecutorService reloader;
+
+    public JwtKeyRing(@Value("${app.jwt.signing-jwk:}") String signingJwk,
+                      @Value("${app.jwt.keys.location:}") String location,
+                      @Value("${app.jwt.generate-dev-key:false}") boolean generateDevKey,
+                      @Value("${app.jwt.keys.reload-interval:1m}") Duration reloadInterval,
+                      Firestore firestore,
+                      MeterRegistry meterRegistry) {
+        this.location = location;
+        this.reloadInterval = reloadInterval;
+        this.firestore = firestore;
+        this.meterRegistry = meterRegistry;
+        if (location.isBlank()) {
+            ECKey key = signingJwk.isBlank() ? generate(generateDevKey) : parseSingleKey(signingJwk);
+            this.current = snapshot(key.getKeyID(), List.of(key), null);
+        } else {
+            // Tokens cannot be issued without a ring, so the first load must succeed.
+            this.current = parse(read());
+            count("loaded");
+            log.info("Loaded JWT key ring from {}: signing with {}, {} verification keys.",
+                    location, current.activeKeyId(), current.verificationKeys().size());
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        if (location.isBlank()) {
+            return;
+        }
+        reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwt-key-ring-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = reloadInterval.toMillis();
+        reloader.scheduleWithFixedDelay(this::reloadQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The current ring. Read it once per operation, so the key and its
+     *         {@code kid} come from the same version.
+     */
+    public Snapshot current() {
+        return current;
+    }
+
+    /**
+     * @return Selects the verification key named by a token's {@code kid}.
+     */
+    public JWSKeySelector<SecurityContext> keySelector() {
+        return (header, context) -> {
+            if (!JWSAlgorithm.ES256.equals(header.getAlgorithm()) || header.getKeyID() == null) {
+                return List.of();
+            }
+            Key key = current.verificationKeys().get(header.getKeyID());
+            return key == null ? List.of() : List.of(key);
+        };
+    }
+
+    /**
+     * Reads the ring from its location and swaps it in if it changed.
+     *
+     * @return true if a new ring was installed.
+     * @throws IllegalStateException if the ring cannot be read or is invalid.
+     */
+    public boolean reload() {
+        String json = read();
+        if (json.equals(current.source())) {
+            return false;
+        }
+        Snapshot loaded = parse(json);
+        current = loaded;
+        count("changed");
+        log.info("Reloaded JWT key ring: signing with {}, {} verification keys.",
+                loaded.activeKeyId(), loaded.verificationKeys().size());
+        return true;
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            count("failed");
+            log.warn("Could not reload the JWT key ring from {}; keeping the current keys.", location, e);
+        }
+    }
+
+    private String read() {
+        try {
+            if (location.startsWith("file:")) {
+                return Files.readString(Path.of(location.substring("file:".length())), StandardCharsets.UTF_8);
+            }
+            if (location.startsWith("firestore:")) {
+                DocumentSnapshot snapshot = firestore.document(location.substring("firestore:".length())).get().get();
+                String json = snapshot.exists() ? snapshot.getString(FIRESTORE_FIELD) : null;
+                if (json == null) {
+                    throw new IllegalStateException(location + " has no " + FIRESTORE_FIELD + " field.");
+                }
+                return json;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + location, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + location, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to read " + location, e.getCause());
+        }
+        throw new IllegalStateException("app.jwt.keys.location must start with file: or firestore:, not " + location);
+    }
+
+    /**
+     * Parses and validates a ring.
+     *
+     * @param json A JWK set with an {@code active_kid} member.
+     * @return The ring.
+     * @throws IllegalStateException if the ring is invalid.
+     */
+    public static Snapshot parse(String json) {
+        String activeKeyId;
+        List<ECKey> keys = new ArrayList<>();
+        try {
+            Map<String, Object> object = JSONObjectUtils.parse(json);
+            activeKeyId = JSONObjectUtils.getString(object, ACTIVE_KID);
+            for (JWK jwk : JWKSet.parse(object).getKeys()) {
+                if (!(jwk instanceof ECKey key) || !Curve.P_256.equals(key.getCurve()) || key.getKeyID() == null) {
+                    throw new IllegalStateException("Every key in the ring must be a P-256 EC key with a kid.");
+                }
+                keys.add(key);
+            }
+        } catch (ParseException e) {
+            throw new IllegalStateException("The JWT key ring is not a valid JWK set.", e);
+        }
+        return snapshot(activeKeyId, keys, json);
+    }
+
+    private static Snapshot snapshot(String activeKeyId, List<ECKey> keys, String source) {
+        Map<String, ECPublicKey> verificationKeys = new HashMap<>();
+        List<JWK> publicKeys = new ArrayList<>();
+        ECPrivateKey signingKey = null;
+        try {
+            for (ECKey key : keys) {
+                if (verificationKeys.put(key.getKeyID(), key.toECPublicKey()) != null) {
+                    throw new IllegalStateException("The JWT key ring has two keys with kid " + key.getKeyID());
+                }
+                publicKeys.add(key.toPublicJWK());
+                if (key.getKeyID().equals(activeKeyId)) {
+                    signingKey = key.isPrivate() ? key.toECPrivateKey() : null;
+                }
+            }
+        } catch (JOSEException e) {
+            throw new IllegalStateException("The JWT key ring holds an unusable EC key.", e);
+        }
+        if (signingKey == null) {
+            throw new IllegalStateException("The JWT key ring has no private key with the active kid " + activeKeyId);
+        }
+        String publicJwks = new JWKSet(publicKeys).toString(true);
+        String etag = "\"" + DigestUtils.md5DigestAsHex(publicJwks.getBytes(StandardCharsets.UTF_8)) + "\"";
+        return new Snapshot(activeKeyId, signingKey, JwtService.encodeHeader(activeKeyId),
+                Map.copyOf(verificationKeys), publicJwks, etag,
+                Objects.requireNonNullElse(source, ""));
+    }
+
+    private static ECKey parseSingleKey(String json) {
+        ECKey key;
+        try {
+            key = ECKey.parse(json);
+        } catch (ParseException e) {
+            throw new IllegalStateException("app.jwt.signing-jwk is not an EC JWK.", e);
+        }
+        if (!Curve.P_256.equals(key.getCurve()) || !key.isPrivate() || key.getKeyID() == null) {
+            throw new IllegalStateException("app.jwt.signing-jwk must be a private P-256 key with a kid.");
+        }
+        return key;
+    }
+
+    /**
+     * @return A new private P-256 key with a random {@code kid}, as used in key rings.
+     */
+    public static ECKey newKey() {
+        try {
+            return new ECKeyGenerator(Curve.P_256)
+                    .keyID(UUID.randomUUID().toString())
+                    .keyUse(KeyUse.SIGNATURE)
+                    .algorithm(JWSAlgorithm.ES256)
+                    .generate();
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Could not generate a JWT signing key.", e);
+        }
+    }
+
+    private static ECKey generate(boolean allowed) {
+        if (!allowed) {
+            // A per-process key would make tokens fail on every other instance and after every restart.
+            throw new IllegalStateException("No JWT signing key configured: set app.jwt.signing-jwk (JWT_SIGNING_JWK) "
+                    + "or app.jwt.keys.location (JWT_KEYS_LOCATION), or app.jwt.generate-dev-key=true for local development.");
+        }
+        ECKey key = newKey();
+        log.warn("No app.jwt.signing-jwk or app.jwt.keys.location configured; signing with generated key {}. "
+                + "Tokens will not verify on other instances or after a restart.", key.getKeyID());
+        return key;
+    }
+
+    private void count(String result) {
+        Counter.builder("auth.jwt.keys.reload")
+                .description("JWT key ring loads, by result")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -2,43 +2,176 @@ package com.cosmicdoc.authservice.security;
 
 import com.cosmicdoc.common.model.OrganizationMember;
 import com.cosmicdoc.common.model.Users;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.security.Key;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.time.Clock;
 import java.util.Base64;
-import java.util.Date;
 
+/**
+ * Issues the access tokens: ES256 JWTs whose {@code kid} header names the key in
+ * {@code /.well-known/jwks.json} that verifies them.
+ * <p>
+ * Every token has the same shape, so instead of a generic JWT builder (claims map,
+ * Jackson, a fresh {@link Signature} per token) the token is written directly: the
+ * encoded header is precomputed per key in {@link JwtKeyRing.Snapshot}, the claims are
+ * serialized by hand in a fixed order, and each thread reuses its own
+ * {@link Signature} and buffer. The header and payload are byte for byte what jjwt
+ * 0.11 produces for the same claims, including leaving out null claims; the signature
+ * is the fixed-length R || S form JWS requires, converted from the JCA's DER output.
+ */
 @Service
 public class JwtService {
 
-    private final Key secretKey;
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+    private static final int ES256_PART_LENGTH = 32;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static final ThreadLocal<Signature> SIGNATURES = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withECDSA");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA256withECDSA is not available.", e);
+        }
+    });
+    private static final ThreadLocal<StringBuilder> PAYLOADS = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final JwtKeyRing keyRing;
     private final long expirationMs;
+    private final Clock clock;
 
-    public JwtService(@Value("${app.jwt.secret-key}") String secret,
+    @Autowired
+    public JwtService(JwtKeyRing keyRing,
                       @Value("${app.jwt.expiration-ms}") long expirationMs) {
-        this.secretKey = Keys.hmacShaKeyFor(Base64.getEncoder().encode(secret.getBytes()));
+        this(keyRing, expirationMs, Clock.systemUTC());
+    }
+
+    public JwtService(JwtKeyRing keyRing, long expirationMs, Clock clock) {
+        this.keyRing = keyRing;
         this.expirationMs = expirationMs;
+        this.clock = clock;
     }
 
     /**
      * Generates a JWT for a user belonging to a specific organization.
      */
     public String generateToken(Users user, OrganizationMember membership) {
-        Date now = new Date();
-        Date expiryDate = new Date(now.getTime() + expirationMs);
-
-        return Jwts.builder()
-                .setSubject(user.getUserId())
-                .claim("email", user.getEmail())
-                .claim("organizationId", membership.getOrganizationId())
-                .claim("role", membership.getRole()) // The user's role in THAT organization
-                .setIssuedAt(now)
-                .setExpiration(expiryDate)
-                .signWith(secretKey, SignatureAlgorithm.HS256)
-                .compact();
+        long nowMillis = clock.millis();
+        JwtKeyRing.Snapshot keys = keyRing.current();
+
+        StringBuilder payload = PAYLOADS.get();
+        payload.setLength(0);
+        payload.append('{');
+        appendClaim(payload, "sub", user.getUserId());
+        appendClaim(payload, "email", user.getEmail());
+        appendClaim(payload, "organizationId", membership.getOrganizationId());
+        appendClaim(payload, "role", membership.getRole()); // The user's role in THAT organization
+        appendClaim(payload, "iat", nowMillis / 1000);
+        appendClaim(payload, "exp", (nowMillis + expirationMs) / 1000);
+        payload.setCharAt(payload.length() - 1, '}');
+
+        byte[] header = keys.encodedHeader();
+        byte[] encodedPayload = BASE64URL.encode(payload.toString().getBytes(StandardCharsets.UTF_8));
+        // header.payload.signature; an ES256 signature is 64 bytes, 86 encoded.
+        byte[] token = new byte[header.length + 1 + encodedPayload.length + 1 + 86];
+        System.arraycopy(header, 0, token, 0, header.length);
+        token[header.length] = '.';
+        System.arraycopy(encodedPayload, 0, token, header.length + 1, encodedPayload.length);
+        int signingInputLength = header.length + 1 + encodedPayload.length;
+
+        byte[] der;
+        try {
+            Signature signature = SIGNATURES.get();
+            signature.initSign(keys.signingKey());
+            signature.update(token, 0, signingInputLength);
+            der = signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign the token.", e);
+        }
+        token[signingInputLength] = '.';
+        byte[] encodedSignature = BASE64URL.encode(derToJose(der));
+        System.arraycopy(encodedSignature, 0, token, signingInputLength + 1, encodedSignature.length);
+        return new String(token, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The Base64URL-encoded header of tokens signed with the key {@code kid},
+     *         as jjwt writes it.
+     */
+    static byte[] encodeHeader(String kid) {
+        StringBuilder header = new StringBuilder("{");
+        appendClaim(header, "kid", kid);
+        appendClaim(header, "alg", "ES256");
+        header.setCharAt(header.length() - 1, '}');
+        return BASE64URL.encode(header.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendClaim(StringBuilder json, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        json.append('"').append(name).append("\":\"");
+        appendEscaped(json, value);
+        json.append("\",");
+    }
+
+    private static void appendClaim(StringBuilder json, String name, long value) {
+        json.append('"').append(name).append("\":").append(value).append(',');
+    }
+
+    /**
+     * Escapes a JSON string the way Jackson's UTF-8 generator does by default: quote,
+     * backslash, control characters, and characters outside the BMP (written as an
+     * escaped surrogate pair, not as 4-byte UTF-8); everything else is written as is.
+     */
+    private static void appendEscaped(StringBuilder json, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                case '\b' -> json.append("\\b");
+                case '\f' -> json.append("\\f");
+                default -> {
+                    if (c < 0x20 || Character.isSurrogate(c)) {
+                        json.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF])
+                                .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts an ECDSA signature from the JCA's DER encoding,
+     * {@code SEQUENCE { INTEGER r, INTEGER s }}, to the JWS form: r and s as unsigned
+     * 32-byte big-endian numbers, concatenated.
+     */
+    static byte[] derToJose(byte[] der) {
+        // A P-256 signature is at most 72 bytes, so every DER length fits in one byte.
+        int offset = 2;
+        byte[] jose = new byte[2 * ES256_PART_LENGTH];
+        for (int part = 0; part < 2; part++) {
+            if (der[offset] != 0x02) {
+                throw new IllegalStateException("Unexpected ECDSA signature encoding.");
+            }
+            int length = der[offset + 1];
+            int start = offset + 2;
+            // Drop the sign byte DER adds to integers with the high bit set.
+            int skip = Math.max(0, length - ES256_PART_LENGTH);
+            int copy = length - skip;
+            System.arraycopy(der, start + skip, jose, (part + 1) * ES256_PART_LENGTH - copy, copy);
+            offset = start + length;
+        }
+        return jose;
     }
 }
@@ -3,7 +3,6 @@ package com.cosmicdoc.authservice.security;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.oauth2.jwt.Jwt;
 
 
 /**
@@ -12,6 +11,9 @@ import org.springframework.security.oauth2.jwt.Jwt;
  * This provides static methods to easily retrieve details like the user ID and
  * organization ID from the authenticated user's JWT, avoiding the need to
  * pass the Authentication object through multiple layers of the application.
+ * <p>
+ * The claims are read once per token, into the {@link AuthPrincipal} that
+ * {@link CachingJwtAuthenticationFilter} installs, so these are plain field reads.
  */
 public final class SecurityUtils {
 
@@ -22,17 +24,17 @@ public final class SecurityUtils {
     }
 
     /**
-     * Retrieves the JWT principal from the current security context.
-     * The principal contains all the claims from the validated token.
+     * Retrieves the principal from the current security context.
+     * The principal holds the claims of the validated token.
      *
-     * @return The Jwt object if the user is authenticated, otherwise null.
+     * @return The AuthPrincipal if the user is authenticated, otherwise null.
      */
-    private static Jwt getPrincipal() {
+    public static AuthPrincipal getPrincipal() {
         SecurityContext context = SecurityContextHolder.getContext();
         if (context != null) {
             Authentication authentication = context.getAuthentication();
-            if (authentication != null && authentication.getPrincipal() instanceof Jwt) {
-                return (Jwt) authentication.getPrincipal();
+            if (authentication != null && authentication.getPrincipal() instanceof AuthPrincipal principal) {
+                return principal;
             }
         }
         return null;
@@ -45,9 +47,9 @@ public final class SecurityUtils {
      * @throws SecurityException if the user is not authenticated or the claim is missing.
      */
     public static String getUserId() {
-        Jwt principal = getPrincipal();
+        AuthPrincipal principal = getPrincipal();
         if (principal != null) {
-            return principal.getSubject(); // 'sub' claim is standard for user ID
+            return principal.userId(); // 'sub' claim is standard for user ID
         }
         throw new SecurityException("Could not retrieve User ID. No authenticated user found in security context.");
     }
@@ -60,9 +62,9 @@ public final class SecurityUtils {
      * @throws SecurityException if the user is not authenticated or the claim is missing.
      */
     public static String getOrganizationId() {
-        Jwt principal = getPrincipal();
+        AuthPrincipal principal = getPrincipal();
         if (principal != null) {
-            String organizationId = principal.getClaimAsString("organizationId");
+            String organizationId = principal.organizationId();
             if (organizationId != null) {
                 return organizationId;
             }
@@ -77,9 +79,9 @@ public final class SecurityUtils {
      * @throws SecurityException if the user is not authenticated or the claim is missing.
      */
     public static String getRole() {
-        Jwt principal = getPrincipal();
+        AuthPrincipal principal = getPrincipal();
         if (principal != null) {
-            String role = principal.getClaimAsString("role");
+            String role = principal.role();
             if (role != null) {
                 return role;
             }
@@ -0,0 +1,28 @@
+package com.cosmicdoc.authservice.security;
+
+/**
+ * Marker stored as the password hash of accounts that have no password yet.
+ * <p>
+ * Such accounts are created by admins and imports and get their password when the user
+ * verifies the account. Storing a marker instead of the hash of a random password costs
+ * no BCrypt work, and since the marker is not a BCrypt hash no password can ever match it.
+ */
+public final class UnusablePassword {
+
+    // '!' never starts a BCrypt hash ("$2a$...", "$2b$...", "$2y$...").
+    public static final String MARKER = "!unusable";
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private UnusablePassword() {
+    }
+
+    /**
+     * @param hashedPassword the stored password hash
+     * @return true if no password can sign in with this hash
+     */
+    public static boolean isUnusable(String hashedPassword) {
+        return hashedPassword == null || hashedPassword.isEmpty() || hashedPassword.startsWith("!");
+    }
+}
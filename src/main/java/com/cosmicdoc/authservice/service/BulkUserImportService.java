@@ -0,0 +1,458 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.dto.request.CreateUserRequest;
+import com.cosmicdoc.authservice.dto.response.BulkImportResponse;
+import com.cosmicdoc.authservice.dto.response.BulkImportRowResult;
+import com.cosmicdoc.authservice.dto.response.BulkImportRowResult.Status;
+import com.cosmicdoc.authservice.repository.FirestoreFutures;
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
+import com.cosmicdoc.authservice.security.UnusablePassword;
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.UserStatus;
+import com.cosmicdoc.common.model.Users;
+import com.cosmicdoc.common.repository.OrganizationMemberRepository;
+import com.cosmicdoc.common.repository.UsersRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Imports many users into an organization from a CSV or NDJSON upload.
+ * <p>
+ * The upload is read as a stream, {@value #ROWS_PER_CHUNK} rows at a time. The emails of
+ * a chunk are resolved with one batched lookup, and its users and memberships are
+ * written in {@link WriteBatch}es of {@value #ROWS_PER_BATCH} rows that are committed in
+ * parallel. New users get {@link UnusablePassword#MARKER} instead of a hashed random
+ * password, so an import does no BCrypt work at all.
+ * <p>
+ * Every row gets its own result. A batch that fails is retried one row per batch, so
+ * one bad row (e.g. an email created concurrently) does not fail its neighbours.
+ */
+@Slf4j
+@Service
+public class BulkUserImportService {
+
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    static final int ROWS_PER_CHUNK = 500;
+    // A new user is up to four writes (user, email index, login projection, membership); a batch takes at most 500.
+    static final int ROWS_PER_BATCH = 100;
+
+    private final UsersRepository userRepository;
+    private final OrganizationMemberRepository memberRepository;
+    private final UserLookupIndex userLookupIndex;
+    private final LoginProjectionStore loginProjections;
+    private final Firestore firestore;
+    private final Validator validator;
+    private final OrganizationUserDirectory directory;
+    private final ObjectReader rowReader;
+    private final int maxRows;
+
+    public BulkUserImportService(UsersRepository userRepository,
+                                 OrganizationMemberRepository memberRepository,
+                                 UserLookupIndex userLookupIndex,
+                                 LoginProjectionStore loginProjections,
+                                 Firestore firestore,
+                                 Validator validator,
+                                 OrganizationUserDirectory directory,
+                                 ObjectMapper objectMapper,
+                                 @Value("${app.admin.users.import.max-rows:5000}") int maxRows) {
+        this.userRepository = userRepository;
+        this.memberRepository = memberRepository;
+        this.userLookupIndex = userLookupIndex;
+        this.loginProjections = loginProjections;
+        this.firestore = firestore;
+        this.validator = validator;
+        this.directory = directory;
+        this.rowReader = objectMapper.readerFor(CreateUserRequest.class);
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * A row as read from the upload; {@code request} is null if the row could not be parsed.
+     */
+    record Row(int line, CreateUserRequest request, String error) {
+    }
+
+    /**
+     * A row that passed validation, with what is to be written for it.
+     */
+    private static final class PlannedRow {
+        final Row row;
+        final String email;
+        Users user;
+        boolean newUser;
+        BulkImportRowResult result;
+
+        PlannedRow(Row row, String email) {
+            this.row = row;
+            this.email = email;
+        }
+    }
+
+    /**
+     * Imports the users of an upload into an organization.
+     *
+     * @param adminOrgId The organization ID of the admin performing the import.
+     * @param in         The upload. CSV needs a header row naming the {@code email},
+     *                   {@code displayName} and {@code role} columns; NDJSON has one
+     *                   {@link CreateUserRequest} object per line.
+     * @param format     The format of the upload.
+     * @return One result per row, in file order.
+     * @throws IllegalArgumentException if the CSV header lacks a required column.
+     */
+    public BulkImportResponse importUsers(String adminOrgId, InputStream in, Format format) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        RowSource source = format == Format.CSV ? new CsvRowSource(reader) : new NdjsonRowSource(reader);
+
+        List<BulkImportRowResult> results = new ArrayList<>();
+        Set<String> seenEmails = new HashSet<>();
+        List<Row> chunk = new ArrayList<>(ROWS_PER_CHUNK);
+        int rows = 0;
+        boolean truncated = false;
+
+        Row row;
+        while ((row = source.next()) != null) {
+            if (rows == maxRows) {
+                truncated = true;
+                break;
+            }
+            rows++;
+            chunk.add(row);
+            if (chunk.size() == ROWS_PER_CHUNK) {
+                results.addAll(importChunk(adminOrgId, chunk, seenEmails));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(importChunk(adminOrgId, chunk, seenEmails));
+        }
+        directory.invalidate(adminOrgId);
+
+        Map<Status, Integer> counts = new EnumMap<>(Status.class);
+        for (BulkImportRowResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+        }
+        log.info("Imported {} rows into organization {}: {}", results.size(), adminOrgId, counts);
+        return BulkImportResponse.builder()
+                .counts(counts)
+                .results(results)
+                .truncated(truncated)
+                .build();
+    }
+
+    private List<BulkImportRowResult> importChunk(String adminOrgId, List<Row> rows, Set<String> seenEmails) {
+        BulkImportRowResult[] results = new BulkImportRowResult[rows.size()];
+        List<PlannedRow> planned = new ArrayList<>();
+
+        // 1. Validate, and reject emails that appeared earlier in the upload.
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            String error = row.error() != null ? row.error() : validate(row.request());
+            String email = row.request() == null ? null : UserLookupIndex.normalizeEmail(row.request().getEmail());
+            if (error == null && !seenEmails.add(email)) {
+                error = "Duplicate email in this import.";
+            }
+            if (error != null) {
+                results[i] = result(row, email, Status.INVALID, null, error);
+            } else {
+                planned.add(new PlannedRow(row, email));
+            }
+        }
+
+        // 2. Resolve the emails of the whole chunk at once.
+        Map<String, Users> existing = userLookupIndex.findAllByEmail(
+                planned.stream().map(p -> p.email).collect(Collectors.toList()));
+
+        List<PlannedRow> toWrite = new ArrayList<>(planned.size());
+        for (PlannedRow p : planned) {
+            Users user = existing.get(p.email);
+            if (user == null) {
+                p.newUser = true;
+                p.user = Users.builder()
+                        .userId("user_" + UUID.randomUUID())
+                        .email(p.row.request().getEmail().trim())
+                        .displayName(p.row.request().getDisplayName())
+                        .status(UserStatus.PENDING_VERIFICATION) // User must verify and set a password.
+                        .hashedPassword(UnusablePassword.MARKER)
+                        .organizations(new ArrayList<>(List.of(adminOrgId)))
+                        .build();
+                toWrite.add(p);
+            } else if (user.getOrganizations() != null && user.getOrganizations().contains(adminOrgId)) {
+                p.result = result(p.row, p.email, Status.ALREADY_MEMBER, user.getUserId(),
+                        "User is already a member of this organization.");
+            } else {
+                p.user = user;
+                toWrite.add(p);
+            }
+        }
+
+        // 3. Write in batches, all committed in parallel.
+        writeAll(adminOrgId, toWrite);
+
+        int next = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = planned.get(next++).result;
+            }
+        }
+        return List.of(results);
+    }
+
+    private void writeAll(String adminOrgId, List<PlannedRow> rows) {
+        List<List<PlannedRow>> batches = new ArrayList<>();
+        List<CompletableFuture<?>> commits = new ArrayList<>();
+        for (int start = 0; start < rows.size(); start += ROWS_PER_BATCH) {
+            List<PlannedRow> batchRows = rows.subList(start, Math.min(start + ROWS_PER_BATCH, rows.size()));
+            batches.add(batchRows);
+            commits.add(commit(adminOrgId, batchRows));
+        }
+
+        // A failed batch wrote nothing; retry its rows one per batch to find the culprits.
+        Map<PlannedRow, CompletableFuture<?>> retries = new LinkedHashMap<>();
+        for (int i = 0; i < batches.size(); i++) {
+            Throwable failure = failureOf(commits.get(i));
+            if (failure != null) {
+                log.warn("Import batch of {} rows failed, retrying row by row: {}", batches.get(i).size(), failure.toString());
+            }
+            for (PlannedRow row : batches.get(i)) {
+                if (failure == null) {
+                    row.result = succeeded(row);
+                } else {
+                    retries.put(row, commit(adminOrgId, List.of(row)));
+                }
+            }
+        }
+        retries.forEach((row, commit) -> {
+            Throwable failure = failureOf(commit);
+            if (failure == null) {
+                row.result = succeeded(row);
+            } else if (FirestoreFutures.hasStatus(failure, StatusCode.Code.ALREADY_EXISTS)) {
+                // Another request created a user with this email in the meantime.
+                row.result = result(row.row, row.email, Status.FAILED, null, "A user with this email already exists.");
+            } else {
+                log.warn("Failed to import row {}", row.row.line(), failure);
+                row.result = result(row.row, row.email, Status.FAILED, null, "Failed to write the user.");
+            }
+        });
+    }
+
+    private CompletableFuture<?> commit(String adminOrgId, List<PlannedRow> rows) {
+        WriteBatch batch = firestore.batch();
+        for (PlannedRow row : rows) {
+            if (row.newUser) {
+                userRepository.saveInTransaction(batch, row.user);
+                userLookupIndex.indexInBatch(batch, row.user);
+                loginProjections.putInBatch(batch, row.user, row.row.request().getRole());
+            } else {
+                batch.update(firestore.collection("users").document(row.user.getUserId()),
+                        "organizations", FieldValue.arrayUnion(adminOrgId));
+                loginProjections.updateInBatch(batch, row.user.getEmail(),
+                        Map.of(LoginProjectionStore.ORGANIZATIONS, FieldValue.arrayUnion(adminOrgId)));
+            }
+            memberRepository.saveInTransaction(batch, OrganizationMember.builder()
+                    .userId(row.user.getUserId())
+                    .organizationId(adminOrgId)
+                    .role(row.row.request().getRole())
+                    .build());
+        }
+        return FirestoreFutures.toCompletableFuture(batch.commit());
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (RuntimeException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private BulkImportRowResult succeeded(PlannedRow row) {
+        return result(row.row, row.email, row.newUser ? Status.CREATED : Status.ADDED_TO_ORGANIZATION,
+                row.user.getUserId(), null);
+    }
+
+    private static BulkImportRowResult result(Row row, String email, Status status, String userId, String message) {
+        return BulkImportRowResult.builder()
+                .row(row.line())
+                .email(email)
+                .status(status)
+                .userId(userId)
+                .message(message)
+                .build();
+    }
+
+    private String validate(CreateUserRequest request) {
+        Set<ConstraintViolation<CreateUserRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Reads the rows of an upload one at a time.
+     */
+    private interface RowSource {
+
+        /**
+         * @return The next row, or null at the end of the upload.
+         */
+        Row next() throws IOException;
+    }
+
+    private final class NdjsonRowSource implements RowSource {
+
+        private final BufferedReader reader;
+        private int line;
+
+        NdjsonRowSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                CreateUserRequest request = null;
+                try {
+                    request = rowReader.readValue(text);
+                } catch (JsonProcessingException e) {
+                    // Reported as an invalid row below.
+                }
+                return request != null
+                        ? new Row(line, request, null)
+                        : new Row(line, null, "Malformed JSON: expected one user object per line.");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * CSV with a header row. Fields may be quoted with {@code "} (a quote inside a quoted
+     * field is written as {@code ""}); a quoted field cannot span lines.
+     */
+    static final class CsvRowSource implements RowSource {
+
+        private final BufferedReader reader;
+        private int line;
+        private int emailColumn = -1;
+        private int displayNameColumn = -1;
+        private int roleColumn = -1;
+
+        CsvRowSource(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            String header = nextLine();
+            if (header == null) {
+                return;
+            }
+            List<String> columns = split(header);
+            for (int i = 0; i < columns.size(); i++) {
+                switch (columns.get(i).trim().toLowerCase(Locale.ROOT)) {
+                    case "email" -> emailColumn = i;
+                    case "displayname" -> displayNameColumn = i;
+                    case "role" -> roleColumn = i;
+                    default -> { } // Unknown columns are ignored.
+                }
+            }
+            if (emailColumn < 0 || displayNameColumn < 0 || roleColumn < 0) {
+                throw new IllegalArgumentException("The CSV header must name the email, displayName and role columns.");
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String text = nextLine();
+            if (text == null) {
+                return null;
+            }
+            List<String> fields = split(text);
+            CreateUserRequest request = new CreateUserRequest();
+            request.setEmail(field(fields, emailColumn));
+            request.setDisplayName(field(fields, displayNameColumn));
+            request.setRole(field(fields, roleColumn));
+            return new Row(line, request, null);
+        }
+
+        private String nextLine() throws IOException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (!text.isBlank()) {
+                    return text;
+                }
+            }
+            return null;
+        }
+
+        private static String field(List<String> fields, int column) {
+            return column < fields.size() ? fields.get(column).trim() : null;
+        }
+
+        static List<String> split(String text) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
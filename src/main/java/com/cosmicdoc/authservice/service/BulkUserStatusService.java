@@ -0,0 +1,204 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.dto.request.BulkUpdateUserStatusRequest;
+import com.cosmicdoc.authservice.dto.response.BulkStatusProgress;
+import com.cosmicdoc.authservice.repository.FirestoreFutures;
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.cosmicdoc.authservice.repository.OrganizationMemberPager;
+import com.cosmicdoc.authservice.repository.UserBatchReader;
+import com.cosmicdoc.common.model.UserStatus;
+import com.cosmicdoc.common.model.Users;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Changes the status of many users of an organization at once.
+ * <p>
+ * Users are handled in steps of up to {@value #USERS_PER_STEP}: their membership is
+ * checked with batched queries (or is implied, when they were selected by a membership
+ * filter), the users are read in one multi-get for their emails, and the new status is
+ * written as a single-field update of each user document and its login projection in one
+ * {@link WriteBatch}. Progress is reported after every step.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BulkUserStatusService {
+
+    // Two writes per user (user, login projection); Firestore takes at most 500 per batch.
+    static final int USERS_PER_STEP = 250;
+
+    private final Firestore firestore;
+    private final OrganizationMemberPager memberPager;
+    private final UserBatchReader userBatchReader;
+    private final LoginProjectionStore loginProjections;
+    private final OrganizationUserDirectory directory;
+    private final RefreshTokenService refreshTokens;
+
+    /**
+     * Receives the progress of a bulk status change.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        void onProgress(BulkStatusProgress progress) throws IOException;
+    }
+
+    /**
+     * Changes the status of the selected users.
+     *
+     * @param adminOrgId The organization ID of the admin.
+     * @param request    The new status and the users, by ID or by role/branch filter.
+     * @param listener   Called after every step, and a last time with {@code done} set.
+     * @return The final totals.
+     */
+    public BulkStatusProgress updateStatus(String adminOrgId, BulkUpdateUserStatusRequest request,
+                                           ProgressListener listener) throws IOException {
+        BulkStatusProgress totals = new BulkStatusProgress();
+
+        if (request.getUserIds() != null && !request.getUserIds().isEmpty()) {
+            List<String> userIds = new ArrayList<>(new LinkedHashSet<>(request.getUserIds()));
+            for (int start = 0; start < userIds.size(); start += USERS_PER_STEP) {
+                List<String> step = userIds.subList(start, Math.min(start + USERS_PER_STEP, userIds.size()));
+                Set<String> members = memberPager.findMemberUserIds(adminOrgId, step);
+                List<String> notMembers = step.stream()
+                        .filter(userId -> !members.contains(userId))
+                        .collect(Collectors.toList());
+                List<String> toUpdate = step.stream().filter(members::contains).collect(Collectors.toList());
+                applyStep(toUpdate, notMembers, request.getStatus(), totals, listener);
+            }
+        } else {
+            OrganizationMemberPager.Filter filter = new OrganizationMemberPager.Filter(
+                    request.getRole(), request.getBranch(), OrganizationMemberPager.Sort.ID);
+            OrganizationMemberPager.Entry after = null;
+            OrganizationMemberPager.Slice slice;
+            do {
+                slice = memberPager.fetch(adminOrgId, filter, after, USERS_PER_STEP);
+                if (slice.entries().isEmpty()) {
+                    break;
+                }
+                after = slice.entries().get(slice.entries().size() - 1);
+                List<String> toUpdate = slice.entries().stream()
+                        .map(entry -> entry.membership().getUserId())
+                        .distinct()
+                        .collect(Collectors.toList());
+                applyStep(toUpdate, List.of(), request.getStatus(), totals, listener);
+            } while (!slice.exhausted());
+        }
+
+        directory.invalidate(adminOrgId);
+        totals.setNotMemberIds(null);
+        totals.setFailedIds(null);
+        totals.setDone(true);
+        log.info("Bulk status change to {} in organization {}: {} updated, {} not members, {} failed",
+                request.getStatus(), adminOrgId, totals.getUpdated(), totals.getNotMembers(), totals.getFailed());
+        listener.onProgress(totals);
+        return totals;
+    }
+
+    private void applyStep(List<String> userIds, List<String> notMembers, UserStatus status,
+                           BulkStatusProgress totals, ProgressListener listener) throws IOException {
+        List<String> failed = userIds.isEmpty() ? List.of() : write(userIds, status);
+        if (status != UserStatus.ACTIVE) {
+            revokeRefreshTokens(userIds, failed);
+        }
+        totals.setProcessed(totals.getProcessed() + userIds.size() + notMembers.size());
+        totals.setUpdated(totals.getUpdated() + userIds.size() - failed.size());
+        totals.setNotMembers(totals.getNotMembers() + notMembers.size());
+        totals.setFailed(totals.getFailed() + failed.size());
+        totals.setNotMemberIds(notMembers);
+        totals.setFailedIds(failed);
+        listener.onProgress(totals);
+    }
+
+    /**
+     * Writes the status of the users in one batch. If the batch fails, nothing was
+     * written and every user is retried in its own batch, so that one missing user
+     * document only fails that user.
+     *
+     * @return The IDs of the users whose update failed.
+     */
+    private List<String> write(List<String> userIds, UserStatus status) {
+        // The emails name the users' login projections. Users without a document fail here.
+        UserBatchReader.Result users = userBatchReader.findAllByIds(userIds);
+        Map<String, String> emails = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            Users user = users.found().get(userId);
+            if (user != null) {
+                emails.put(userId, user.getEmail());
+            }
+        }
+        List<String> failed = new ArrayList<>(users.missingIds());
+        if (emails.isEmpty()) {
+            return failed;
+        }
+        Throwable failure = failureOf(commit(emails, status));
+        if (failure == null) {
+            return failed;
+        }
+        log.warn("Status batch of {} users failed, retrying user by user: {}", emails.size(), failure.toString());
+
+        Map<String, CompletableFuture<?>> retries = new LinkedHashMap<>();
+        emails.forEach((userId, email) -> retries.put(userId, commit(Map.of(userId, email), status)));
+        retries.forEach((userId, commit) -> {
+            Throwable retryFailure = failureOf(commit);
+            if (retryFailure != null) {
+                if (!FirestoreFutures.hasStatus(retryFailure, StatusCode.Code.NOT_FOUND)) {
+                    log.warn("Failed to update the status of user {}", userId, retryFailure);
+                }
+                failed.add(userId);
+            }
+        });
+        return failed;
+    }
+
+    /**
+     * Revokes the refresh tokens of the users whose status was written, so deactivated
+     * users cannot mint new access tokens. A failure is logged, not reported per user:
+     * the status change itself succeeded.
+     */
+    private void revokeRefreshTokens(List<String> userIds, List<String> failed) {
+        List<String> updated = userIds.stream().filter(userId -> !failed.contains(userId)).collect(Collectors.toList());
+        try {
+            refreshTokens.revokeUsers(updated);
+        } catch (RuntimeException e) {
+            log.error("Failed to revoke the refresh tokens of {} deactivated users", updated.size(), e);
+        }
+    }
+
+    private CompletableFuture<?> commit(Map<String, String> emailsByUserId, UserStatus status) {
+        WriteBatch batch = firestore.batch();
+        Map<String, Object> projectionUpdate = Map.of(LoginProjectionStore.STATUS, status.name());
+        emailsByUserId.forEach((userId, email) -> {
+            // update() fails on a missing document instead of creating a partial user.
+            batch.update(firestore.collection("users").document(userId), "status", status.name());
+            if (email != null) {
+                loginProjections.updateInBatch(batch, email, projectionUpdate);
+            }
+        });
+        return FirestoreFutures.toCompletableFuture(batch.commit());
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (RuntimeException e) {
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.repository.ChangeStream;
+import com.cosmicdoc.common.model.UserStatus;
+import com.cosmicdoc.common.model.Users;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps this instance's caches in step with writes made by other instances.
+ * <p>
+ * Listens to the whole {@code organization_members} collection, whose documents are
+ * small, so a role change or removal anywhere evicts the membership from
+ * {@link MembershipCache} and updates a loaded {@link OrganizationUserDirectory}. The
+ * much larger {@code users} documents only matter to loaded directories, so they are
+ * listened to only for the organizations whose directory is loaded here
+ * ({@code organizations array-contains-any ...}). Firestore takes at most
+ * {@value ChangeStream#MAX_VALUES} values per filter, so those organizations are split
+ * into slots of that many, each with its own subscription. When the directory loads or
+ * drops an organization only its slot is resubscribed, so a resubscription reads the
+ * users of at most {@value ChangeStream#MAX_VALUES} organizations this instance already
+ * holds. The first snapshot of a subscription lists existing documents, not changes, so
+ * it is skipped.
+ * <p>
+ * User changes made between a directory's load and its slot's subscription rely on the
+ * directory's own expiry, as do changes made while a failed listener waits to be
+ * resubscribed with exponential backoff. The time from a change being visible in
+ * Firestore to its eviction here is recorded as {@code auth.cache.invalidation.lag}.
+ */
+@Slf4j
+@Component
+public class CacheInvalidationBus {
+
+    static final String USERS = "users";
+    static final String MEMBERSHIPS = "organization_members";
+
+    private final ChangeStream changeStream;
+    private final MembershipCache membershipCache;
+    private final OrganizationUserDirectory directory;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+
+    // Guarded by this.
+    private final List<Slot> slots = new ArrayList<>();
+    private Feed memberships;
+    private boolean stopped;
+    private ScheduledExecutorService reconnector;
+
+    public CacheInvalidationBus(ChangeStream changeStream,
+                                MembershipCache membershipCache,
+                                OrganizationUserDirectory directory,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.cache.invalidation.enabled:true}") boolean enabled,
+                                @Value("${app.cache.invalidation.initial-backoff:1s}") Duration initialBackoff,
+                                @Value("${app.cache.invalidation.max-backoff:60s}") Duration maxBackoff) {
+        this.changeStream = changeStream;
+        this.membershipCache = membershipCache;
+        this.directory = directory;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            log.info("Cache invalidation bus is disabled; caches rely on expiry alone.");
+            return;
+        }
+        reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-invalidation-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String collection : List.of(USERS, MEMBERSHIPS)) {
+            Gauge.builder("auth.cache.invalidation.connected", this, bus -> bus.connected(collection) ? 1 : 0)
+                    .description("1 while every change listener is delivering changes, 0 while some caches rely on expiry")
+                    .tag("collection", collection)
+                    .register(meterRegistry);
+        }
+        synchronized (this) {
+            memberships = new Feed(MEMBERSHIPS, null, null, null, this::onMembershipChange);
+            memberships.subscribe();
+        }
+        directory.onOrganizationsChanged(this::organizationsChanged);
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        stopped = true;
+        if (reconnector != null) {
+            reconnector.shutdownNow();
+        }
+        if (memberships != null) {
+            memberships.close();
+        }
+        slots.forEach(Slot::close);
+        slots.clear();
+    }
+
+    /**
+     * Moves the user slots to the organizations that now have a directory: organizations that
+     * were dropped leave their slot, new ones join the first slot with room, and only the
+     * slots that changed are resubscribed.
+     */
+    private synchronized void organizationsChanged(Set<String> organizations) {
+        if (stopped) {
+            return;
+        }
+        Set<String> added = new LinkedHashSet<>(organizations);
+        List<Slot> changed = new ArrayList<>();
+        for (Slot slot : slots) {
+            if (slot.organizations.retainAll(organizations)) {
+                changed.add(slot);
+            }
+            added.removeAll(slot.organizations);
+        }
+        for (String organizationId : added) {
+            Slot slot = slots.stream()
+                    .filter(candidate -> candidate.organizations.size() < ChangeStream.MAX_VALUES)
+                    .findFirst()
+                    .orElseGet(() -> {
+                        Slot created = new Slot();
+                        slots.add(created);
+                        return created;
+                    });
+            slot.organizations.add(organizationId);
+            if (!changed.contains(slot)) {
+                changed.add(slot);
+            }
+        }
+        for (Slot slot : changed) {
+            slot.resubscribe();
+        }
+        slots.removeIf(slot -> slot.organizations.isEmpty());
+    }
+
+    private synchronized boolean connected(String collection) {
+        if (MEMBERSHIPS.equals(collection)) {
+            return memberships != null && memberships.connected;
+        }
+        for (Slot slot : slots) {
+            if (slot.users != null && !slot.users.connected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onUserChange(ChangeStream.Change change) {
+        Map<String, Object> data = change.data();
+        if (change.type() == ChangeStream.ChangeType.REMOVED) {
+            // Deleted, or no longer in any organization of the slot.
+            for (String organizationId : organizationsOf(data)) {
+                directory.invalidate(organizationId);
+            }
+            return;
+        }
+        Users user = Users.builder()
+                .userId(change.documentId())
+                .email((String) data.get("email"))
+                .displayName((String) data.get("displayName"))
+                .mobileNumber((String) data.get("mobileNumber"))
+                .status(data.get("status") == null ? null : UserStatus.valueOf((String) data.get("status")))
+                .organizations(organizationsOf(data))
+                .build();
+        directory.userChanged(user);
+    }
+
+    private void onMembershipChange(ChangeStream.Change change) {
+        String userId = (String) change.data().get("userId");
+        String organizationId = (String) change.data().get("organizationId");
+        if (userId == null || organizationId == null) {
+            return;
+        }
+        membershipCache.invalidate(userId, organizationId);
+        directory.membershipChanged(organizationId, userId,
+                change.type() == ChangeStream.ChangeType.REMOVED ? null : (String) change.data().get("role"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> organizationsOf(Map<String, Object> data) {
+        Object organizations = data.get("organizations");
+        return organizations instanceof List<?> list ? (List<String>) list : List.of();
+    }
+
+    /**
+     * Up to {@value ChangeStream#MAX_VALUES} organizations and the subscription to their
+     * users. Guarded by the bus.
+     */
+    private final class Slot {
+
+        private final Set<String> organizations = new LinkedHashSet<>();
+        private Feed users;
+
+        void resubscribe() {
+            close();
+            if (organizations.isEmpty()) {
+                return;
+            }
+            users = new Feed(USERS, "organizations", ChangeStream.Operator.ARRAY_CONTAINS_ANY,
+                    List.copyOf(organizations), CacheInvalidationBus.this::onUserChange);
+            users.subscribe();
+        }
+
+        void close() {
+            if (users != null) {
+                users.close();
+                users = null;
+            }
+        }
+    }
+
+    /**
+     * The subscription to a collection, or to the documents whose field matches the
+     * values, resubscribed when it fails.
+     */
+    private final class Feed implements ChangeStream.Listener {
+
+        private final String collection;
+        private final String field;
+        private final ChangeStream.Operator operator;
+        // Null to listen to the whole collection.
+        private final List<String> values;
+        private final Consumer<ChangeStream.Change> handler;
+        private final Timer lag;
+        private final Counter reconnects;
+        private volatile boolean connected;
+        private volatile boolean closed;
+        private int failures;
+        private ChangeStream.Subscription subscription;
+
+        Feed(String collection, String field, ChangeStream.Operator operator, List<String> values,
+             Consumer<ChangeStream.Change> handler) {
+            this.collection = collection;
+            this.field = field;
+            this.operator = operator;
+            this.values = values;
+            this.handler = handler;
+            this.lag = Timer.builder("auth.cache.invalidation.lag")
+                    .description("Time from a change being committed in Firestore to the local caches being updated")
+                    .tag("collection", collection)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+            this.reconnects = Counter.builder("auth.cache.invalidation.reconnects")
+                    .description("Times a failed change listener was resubscribed")
+                    .tag("collection", collection)
+                    .register(meterRegistry);
+        }
+
+        synchronized void subscribe() {
+            if (!closed) {
+                subscription = values == null
+                        ? changeStream.subscribe(collection, this)
+                        : changeStream.subscribe(collection, field, operator, values, this);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            connected = false;
+            if (subscription != null) {
+                subscription.close();
+                subscription = null;
+            }
+        }
+
+        @Override
+        public void onChanges(ChangeStream.Batch batch) {
+            if (closed) {
+                return;
+            }
+            if (!connected) {
+                connected = true;
+                synchronized (this) {
+                    failures = 0;
+                }
+                log.debug("Listening to {} changes{} for cache invalidation.", collection,
+                        values == null ? "" : " of " + values.size() + " organizations");
+            }
+            if (batch.initial() || batch.changes().isEmpty()) {
+                return;
+            }
+            for (ChangeStream.Change change : batch.changes()) {
+                try {
+                    handler.accept(change);
+                } catch (RuntimeException e) {
+                    log.warn("Could not apply {} change of {}/{}", change.type(), collection, change.documentId(), e);
+                }
+                Counter.builder("auth.cache.invalidation.events")
+                        .description("Document changes received by the cache invalidation bus")
+                        .tag("collection", collection)
+                        .tag("type", change.type().name())
+                        .register(meterRegistry)
+                        .increment();
+            }
+            lag.record(Duration.between(batch.readTime(), Instant.now()));
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            connected = false;
+            long delayMillis;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (subscription != null) {
+                    subscription.close();
+                    subscription = null;
+                }
+                delayMillis = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(failures, 20));
+                failures++;
+            }
+            log.warn("Change listener on {} failed; caches rely on expiry until it resubscribes in {} ms.",
+                    collection, delayMillis, error);
+            try {
+                reconnector.schedule(() -> {
+                    reconnects.increment();
+                    try {
+                        subscribe();
+                    } catch (RuntimeException e) {
+                        onError(e);
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down.
+            }
+        }
+    }
+}
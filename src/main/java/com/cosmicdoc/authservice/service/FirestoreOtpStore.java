@@ -0,0 +1,351 @@
+package com.cosmicdoc.authservice.service;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link OtpStore} backed by the {@code otp_codes} Firestore collection, so an OTP
+ * issued by one instance can be validated on any other.
+ * <p>
+ * Each instance keeps a small read-through cache of the OTP documents it has written
+ * or read, together with their Firestore update time. A validation that hits the
+ * cache needs no read at all: the OTP is compared locally and consumed with a delete
+ * that carries an {@code updatedAt} precondition. If another instance resent or
+ * consumed the code in the meantime the precondition fails, the cached copy is
+ * dropped and the document is re-read, so the cache can never validate a stale code.
+ * <p>
+ * Only a SHA-256 digest of the code is stored. Expired documents are ignored on read;
+ * configure a Firestore TTL policy on {@code expiresAt} to have them deleted.
+ */
+@Component
+@ConditionalOnProperty(name = "app.otp.store", havingValue = "firestore")
+public class FirestoreOtpStore implements OtpStore {
+
+    static final String COLLECTION = "otp_codes";
+
+    private final Backend backend;
+    private final long ttlMillis;
+    private final int maxAttempts;
+    private final int maxCachedEntries;
+    private final Clock clock;
+    private final Map<String, Versioned> localCache = new ConcurrentHashMap<>();
+
+    private final Counter localHits;
+    private final Counter remoteHits;
+    private final Counter misses;
+
+    @Autowired
+    public FirestoreOtpStore(Firestore firestore,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.otp.ttl-seconds:300}") long ttlSeconds,
+                             @Value("${app.otp.max-attempts:5}") int maxAttempts,
+                             @Value("${app.otp.max-entries:100000}") int maxCachedEntries) {
+        this(new FirestoreBackend(firestore), meterRegistry, Duration.ofSeconds(ttlSeconds),
+                maxAttempts, maxCachedEntries, Clock.systemUTC());
+    }
+
+    FirestoreOtpStore(Backend backend, MeterRegistry meterRegistry, Duration ttl,
+                      int maxAttempts, int maxCachedEntries, Clock clock) {
+        this.backend = backend;
+        this.ttlMillis = ttl.toMillis();
+        this.maxAttempts = maxAttempts;
+        this.maxCachedEntries = maxCachedEntries;
+        this.clock = clock;
+        this.localHits = lookupCounter(meterRegistry, "local_hit");
+        this.remoteHits = lookupCounter(meterRegistry, "remote_hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+    }
+
+    private static Counter lookupCounter(MeterRegistry registry, String result) {
+        return Counter.builder("auth.otp.store.lookups")
+                .description("OTP validations by where the OTP was found: this instance's cache, "
+                        + "Firestore only (typically issued by another instance), or nowhere")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    @Override
+    public void put(String mobile, String otp, String purpose) {
+        OtpRecord record = new OtpRecord(digest(mobile, otp), purpose, clock.millis() + ttlMillis, 0);
+        Timestamp version = backend.write(mobile, record);
+        cache(mobile, new Versioned(record, version));
+    }
+
+    @Override
+    public boolean verifyAndConsume(String mobile, String otp, String purpose) {
+        if (otp == null) {
+            return false;
+        }
+        String codeHash = digest(mobile, otp);
+
+        Versioned current = localCache.get(mobile);
+        boolean fromCache = current != null;
+        if (fromCache) {
+            localHits.increment();
+        } else {
+            current = readThrough(mobile);
+            if (current == null) {
+                misses.increment();
+                return false;
+            }
+            remoteHits.increment();
+        }
+
+        // At most one retry: a cached copy that turns out to be stale is replaced by a fresh read.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            OtpRecord record = current.record();
+            boolean expired = record.expiresAtMillis() <= clock.millis();
+            boolean samePurpose = record.purpose().equals(purpose);
+            boolean matches = !expired && samePurpose && MessageDigest.isEqual(
+                    record.codeHash().getBytes(StandardCharsets.UTF_8), codeHash.getBytes(StandardCharsets.UTF_8));
+
+            if (matches && backend.deleteIfVersion(mobile, current.version())) {
+                localCache.remove(mobile, current);
+                return true;
+            }
+            if (!fromCache) {
+                // The stored record decides.
+                if (expired) {
+                    localCache.remove(mobile, current);
+                    backend.deleteIfVersion(mobile, current.version());
+                    return false;
+                }
+                if (!samePurpose) {
+                    return false;
+                }
+                if (!matches) {
+                    recordFailedAttempt(mobile, current);
+                    return false;
+                }
+            }
+
+            // Either the compare-and-delete lost a race, or a cached copy was expired, was for
+            // another purpose or did not match, and may have been superseded by a resend on
+            // another instance. Re-read and decide again.
+            localCache.remove(mobile, current);
+            current = readThrough(mobile);
+            if (current == null) {
+                return false;
+            }
+            fromCache = false;
+        }
+        return false;
+    }
+
+    private void recordFailedAttempt(String mobile, Versioned current) {
+        // Wrong guesses made at the same time all read the same version and only one wins the
+        // precondition; the others re-read and count again, so no guess goes uncounted. Each lost
+        // race means another guess was counted, so this ends at the limit at the latest.
+        OtpRecord guessed = current.record();
+        while (current != null && current.record().codeHash().equals(guessed.codeHash())
+                && current.record().expiresAtMillis() == guessed.expiresAtMillis()) {
+            Versioned counted = current;
+            localCache.remove(mobile, counted);
+            if (counted.record().attempts() + 1 >= maxAttempts) {
+                if (backend.deleteIfVersion(mobile, counted.version())) {
+                    return;
+                }
+            } else {
+                Optional<Timestamp> version = backend.incrementAttemptsIfVersion(mobile, counted.version());
+                if (version.isPresent()) {
+                    cache(mobile, new Versioned(counted.record().withAttempts(counted.record().attempts() + 1),
+                            version.get()));
+                    return;
+                }
+            }
+            // Gone or resent (nothing left to count against), or another guess was counted first.
+            current = readThrough(mobile);
+        }
+    }
+
+    private Versioned readThrough(String mobile) {
+        Optional<Versioned> stored = backend.read(mobile);
+        stored.ifPresent(versioned -> cache(mobile, versioned));
+        return stored.orElse(null);
+    }
+
+    private void cache(String mobile, Versioned versioned) {
+        if (localCache.size() >= maxCachedEntries) {
+            long now = clock.millis();
+            localCache.values().removeIf(cached -> cached.record().expiresAtMillis() <= now);
+            if (localCache.size() >= maxCachedEntries) {
+                return;
+            }
+        }
+        localCache.put(mobile, versioned);
+    }
+
+    private static String digest(String mobile, String otp) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(mobile.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) ':');
+            return HexFormat.of().formatHex(sha256.digest(otp.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The stored form of an OTP.
+     */
+    record OtpRecord(String codeHash, String purpose, long expiresAtMillis, long attempts) {
+
+        OtpRecord withAttempts(long newAttempts) {
+            return new OtpRecord(codeHash, purpose, expiresAtMillis, newAttempts);
+        }
+    }
+
+    /**
+     * An OTP record together with the update time of the document it was read from.
+     */
+    record Versioned(OtpRecord record, Timestamp version) {
+    }
+
+    /**
+     * The document operations the store needs. Every conditional operation must be
+     * atomic with respect to the version it is given.
+     */
+    interface Backend {
+
+        /** Writes (or overwrites) the record and returns the new document version. */
+        Timestamp write(String mobile, OtpRecord record);
+
+        Optional<Versioned> read(String mobile);
+
+        /** Deletes the record only if it is still at the given version. */
+        boolean deleteIfVersion(String mobile, Timestamp version);
+
+        /** Increments the attempt counter only if the record is still at the given version. */
+        Optional<Timestamp> incrementAttemptsIfVersion(String mobile, Timestamp version);
+    }
+
+    /**
+     * {@link Backend} over the Firestore {@code otp_codes} collection, using
+     * {@code updatedAt} preconditions for the conditional writes.
+     */
+    static class FirestoreBackend implements Backend {
+
+        private final Firestore firestore;
+
+        FirestoreBackend(Firestore firestore) {
+            this.firestore = firestore;
+        }
+
+        @Override
+        public Timestamp write(String mobile, OtpRecord record) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("codeHash", record.codeHash());
+            data.put("purpose", record.purpose());
+            data.put("expiresAt", Timestamp.ofTimeMicroseconds(record.expiresAtMillis() * 1000));
+            data.put("attempts", record.attempts());
+            try {
+                return document(mobile).set(data).get().getUpdateTime();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to store OTP.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while storing OTP.", e);
+            }
+        }
+
+        @Override
+        public Optional<Versioned> read(String mobile) {
+            try {
+                DocumentSnapshot snapshot = document(mobile).get().get();
+                if (!snapshot.exists()) {
+                    return Optional.empty();
+                }
+                Timestamp expiresAt = snapshot.getTimestamp("expiresAt");
+                Long attempts = snapshot.getLong("attempts");
+                OtpRecord record = new OtpRecord(
+                        snapshot.getString("codeHash"),
+                        snapshot.getString("purpose"),
+                        expiresAt == null ? 0 : expiresAt.toDate().getTime(),
+                        attempts == null ? 0 : attempts);
+                return Optional.of(new Versioned(record, snapshot.getUpdateTime()));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to read OTP.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading OTP.", e);
+            }
+        }
+
+        @Override
+        public boolean deleteIfVersion(String mobile, Timestamp version) {
+            try {
+                document(mobile).delete(Precondition.updatedAt(version)).get();
+                return true;
+            } catch (ExecutionException e) {
+                if (isLostRace(e)) {
+                    return false;
+                }
+                throw new IllegalStateException("Failed to consume OTP.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while consuming OTP.", e);
+            }
+        }
+
+        @Override
+        public Optional<Timestamp> incrementAttemptsIfVersion(String mobile, Timestamp version) {
+            try {
+                return Optional.of(document(mobile)
+                        .update(Precondition.updatedAt(version), "attempts", FieldValue.increment(1))
+                        .get()
+                        .getUpdateTime());
+            } catch (ExecutionException e) {
+                if (isLostRace(e)) {
+                    return Optional.empty();
+                }
+                throw new IllegalStateException("Failed to record OTP attempt.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while recording OTP attempt.", e);
+            }
+        }
+
+        private DocumentReference document(String mobile) {
+            return firestore.collection(COLLECTION).document(mobile);
+        }
+
+        /**
+         * A failed {@code updatedAt} precondition (or a document that is already gone)
+         * means another request changed the OTP first.
+         */
+        private static boolean isLostRace(ExecutionException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof ApiException apiException) {
+                    StatusCode.Code code = apiException.getStatusCode().getCode();
+                    return code == StatusCode.Code.FAILED_PRECONDITION || code == StatusCode.Code.NOT_FOUND;
+                }
+            }
+            return false;
+        }
+    }
+}
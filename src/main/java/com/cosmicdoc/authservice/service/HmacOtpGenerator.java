@@ -0,0 +1,197 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.exception.OtpResendTooSoonException;
+import com.cosmicdoc.authservice.util.RotatingBloomFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Derives OTPs instead of storing them (enabled with {@code app.otp.mode=stateless}).
+ * <p>
+ * The code for a mobile and purpose is an HMAC-SHA256 over (mobile, purpose, time
+ * window) with a server secret, truncated to six digits the same way as HOTP/TOTP
+ * (RFC 4226). Validation recomputes the code for the current and the previous window,
+ * so an OTP stays valid for between one and two windows and every instance that shares
+ * the secret can validate it without any storage read.
+ * <p>
+ * The only state is two fixed-size {@link RotatingBloomFilter}s that live for two
+ * windows: one remembers consumed codes, so each code can be used once, and one
+ * counts failed attempts per mobile and purpose. Both are local to the instance, so a
+ * second instance would accept a replayed code and grant its own attempt budget;
+ * startup therefore fails unless {@code app.otp.stateless.single-instance} declares
+ * that only one instance runs. Because the code is a function of the window, asking for
+ * a new OTP within the same window returns the same code; once that code has been used,
+ * the request is refused with an {@link OtpResendTooSoonException} until the next window.
+ * <p>
+ * Anyone who knows the secret can compute every user's OTP, so startup fails unless
+ * {@code app.otp.stateless.secret} is set to at least {@value #MIN_SECRET_BYTES} bytes
+ * and is not the placeholder this setting used to default to.
+ */
+@Component
+@ConditionalOnProperty(name = "app.otp.mode", havingValue = "stateless")
+public class HmacOtpGenerator {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    static final int MIN_SECRET_BYTES = 32;
+    private static final String PLACEHOLDER_SECRET = "YourSuperStrongAndLongSecretKeyForHmacShaAlgorithmsAtLeast256Bits";
+
+    private final SecretKeySpec key;
+    private final long windowMillis;
+    private final int maxAttempts;
+    private final Clock clock;
+    private final RotatingBloomFilter consumedCodes;
+    private final RotatingBloomFilter failedAttempts;
+    private final ThreadLocal<Mac> macs;
+
+    @Autowired
+    public HmacOtpGenerator(@Value("${app.otp.stateless.secret:}") String secret,
+                            @Value("${app.otp.stateless.window-seconds:150}") long windowSeconds,
+                            @Value("${app.otp.max-attempts:5}") int maxAttempts,
+                            @Value("${app.otp.stateless.expected-codes-per-window:100000}") int expectedCodesPerWindow,
+                            @Value("${app.otp.stateless.single-instance:false}") boolean singleInstance) {
+        this(secret, Duration.ofSeconds(windowSeconds), maxAttempts, expectedCodesPerWindow, singleInstance,
+                Clock.systemUTC());
+    }
+
+    HmacOtpGenerator(String secret, Duration window, int maxAttempts, int expectedCodesPerWindow,
+                     boolean singleInstance, Clock clock) {
+        if (!singleInstance) {
+            throw new IllegalStateException("app.otp.mode=stateless keeps used codes and failed attempts in memory, "
+                    + "so it is only safe on a single instance: set app.otp.stateless.single-instance=true "
+                    + "(and limit the service to one instance), or use app.otp.mode=stored.");
+        }
+        checkSecret(secret);
+        // Derive a dedicated key so the OTP secret can be shared with another application secret
+        // without the two uses ever producing related MACs.
+        this.key = new SecretKeySpec(hmac(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM),
+                "cosmicdoc-otp-v1".getBytes(StandardCharsets.UTF_8)), HMAC_ALGORITHM);
+        this.windowMillis = window.toMillis();
+        this.maxAttempts = maxAttempts;
+        this.clock = clock;
+        this.consumedCodes = new RotatingBloomFilter(expectedCodesPerWindow, 1e-6, window, clock);
+        this.failedAttempts = new RotatingBloomFilter(expectedCodesPerWindow * maxAttempts, 1e-4, window, clock);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * Returns the OTP for the current window.
+     *
+     * @param mobile  Mobile number
+     * @param purpose Purpose of OTP (login, signup, reset)
+     * @return 6-digit OTP
+     * @throws OtpResendTooSoonException if this window's code has already been used.
+     */
+    public String generate(String mobile, String purpose) {
+        long now = clock.millis();
+        long window = now / windowMillis;
+        if (consumedCodes.mightContain(mobile + '\n' + purpose + '\n' + window)) {
+            long retryAfterMillis = (window + 1) * windowMillis - now;
+            throw new OtpResendTooSoonException("A code was just used for this number. Please try again shortly.",
+                    Math.max(1, (retryAfterMillis + 999) / 1000));
+        }
+        return codeFor(mobile, purpose, window);
+    }
+
+    /**
+     * Validates an OTP against the current and previous window and consumes it on success.
+     *
+     * @param mobile  Mobile number
+     * @param otp     OTP supplied by the user
+     * @param purpose Purpose the OTP was issued for
+     * @return true if the OTP was valid and had not been used before
+     */
+    public boolean verifyAndConsume(String mobile, String otp, String purpose) {
+        if (otp == null || otp.length() != 6) {
+            return false;
+        }
+        long window = currentWindow();
+        String attemptsKey = mobile + '\n' + purpose + '\n';
+        if (failedAttempts.mightContain(attemptsKey + maxAttempts)) {
+            return false;
+        }
+
+        byte[] supplied = otp.getBytes(StandardCharsets.US_ASCII);
+        for (long candidate = window; candidate >= window - 1; candidate--) {
+            byte[] expected = codeFor(mobile, purpose, candidate).getBytes(StandardCharsets.US_ASCII);
+            if (MessageDigest.isEqual(expected, supplied)) {
+                return consumedCodes.add(mobile + '\n' + purpose + '\n' + candidate);
+            }
+        }
+
+        // Count the failure by adding the first unused ordinal for this mobile and purpose.
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (failedAttempts.add(attemptsKey + attempt)) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static void checkSecret(String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException(
+                    "No OTP secret configured: set app.otp.stateless.secret (OTP_STATELESS_SECRET).");
+        }
+        if (secret.equals(PLACEHOLDER_SECRET)) {
+            throw new IllegalStateException(
+                    "app.otp.stateless.secret is still the sample value; set a random secret of your own.");
+        }
+        if (secret.getBytes(StandardCharsets.UTF_8).length < MIN_SECRET_BYTES) {
+            throw new IllegalStateException(
+                    "app.otp.stateless.secret must be at least " + MIN_SECRET_BYTES + " bytes.");
+        }
+    }
+
+    private long currentWindow() {
+        return clock.millis() / windowMillis;
+    }
+
+    private String codeFor(String mobile, String purpose, long window) {
+        Mac mac = macs.get();
+        mac.update(mobile.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(purpose.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        byte[] hash = mac.doFinal(ByteBuffer.allocate(Long.BYTES).putLong(window).array());
+
+        // Dynamic truncation as in RFC 4226, section 5.3.
+        int offset = hash[hash.length - 1] & 0x0f;
+        int binary = ((hash[offset] & 0x7f) << 24)
+                | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8)
+                | (hash[offset + 3] & 0xff);
+        String code = Integer.toString(binary % 1_000_000);
+        return "000000".substring(code.length()) + code;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static byte[] hmac(SecretKeySpec key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.cosmicdoc.authservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent, bounded store for one-time passwords keyed by mobile number.
+ * <p>
+ * Entries live in a {@link ConcurrentHashMap}, so sends and validations for different
+ * mobiles never contend on a shared lock. Expiry is driven by a hashed timing wheel:
+ * every entry is dropped into the slot of the tick at which it expires, and a single
+ * sweeper thread clears one slot per tick. Expired OTPs are therefore reclaimed even
+ * if nobody ever tries to validate them, and the sweep cost is proportional to the
+ * number of entries expiring, not to the size of the store.
+ * <p>
+ * The store also enforces a hard cap on the number of live entries (evicting the
+ * entries closest to expiry first) and a per-entry limit on failed attempts.
+ * <p>
+ * OTPs only exist on the instance that issued them; use {@link FirestoreOtpStore}
+ * when several instances serve the same traffic.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.otp.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOtpStore implements OtpStore {
+
+    private static final long TICK_MILLIS = 1000;
+
+    private final ConcurrentHashMap<String, OtpEntry> entries = new ConcurrentHashMap<>();
+    private final Queue<OtpEntry>[] wheel;
+    private final int wheelMask;
+    private final long ttlMillis;
+    private final int maxAttempts;
+    private final int maxEntries;
+    private final Clock clock;
+
+    private final Counter expiredEvictions;
+    private final Counter capacityEvictions;
+    private final Counter attemptEvictions;
+
+    private ScheduledExecutorService sweeper;
+    // Next tick the sweeper has to process. Only ever written by the sweeper thread.
+    private volatile long nextTick;
+
+    @Autowired
+    public InMemoryOtpStore(MeterRegistry meterRegistry,
+                            @Value("${app.otp.ttl-seconds:300}") long ttlSeconds,
+                            @Value("${app.otp.max-attempts:5}") int maxAttempts,
+                            @Value("${app.otp.max-entries:100000}") int maxEntries) {
+        this(meterRegistry, Duration.ofSeconds(ttlSeconds), maxAttempts, maxEntries, Clock.systemUTC());
+    }
+
+    @SuppressWarnings("unchecked")
+    InMemoryOtpStore(MeterRegistry meterRegistry, Duration ttl, int maxAttempts, int maxEntries, Clock clock) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxAttempts = maxAttempts;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+
+        // Size the wheel so that one revolution always covers the TTL; every entry then
+        // expires within the current revolution and no "remaining rounds" bookkeeping is needed.
+        int slots = Integer.highestOneBit((int) (ttlMillis / TICK_MILLIS) + 2) << 1;
+        this.wheel = new Queue[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.wheelMask = slots - 1;
+        this.nextTick = clock.millis() / TICK_MILLIS;
+
+        meterRegistry.gaugeMapSize("auth.otp.store.size", Tags.empty(), entries);
+        this.expiredEvictions = evictionCounter(meterRegistry, "expired");
+        this.capacityEvictions = evictionCounter(meterRegistry, "capacity");
+        this.attemptEvictions = evictionCounter(meterRegistry, "attempts");
+    }
+
+    private static Counter evictionCounter(MeterRegistry registry, String reason) {
+        return Counter.builder("auth.otp.store.evictions")
+                .description("OTP entries removed from the store before being consumed")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    @PostConstruct
+    void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "otp-store-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleAtFixedRate(this::sweepExpired, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    @Override
+    public void put(String mobile, String otp, String purpose) {
+        long expiresAt = clock.millis() + ttlMillis;
+        OtpEntry entry = new OtpEntry(mobile, otp, purpose, expiresAt);
+
+        entries.put(mobile, entry);
+        wheel[slotFor(expiresAt)].add(entry);
+
+        while (entries.size() > maxEntries && evictSoonestExpiring()) {
+            // Keep evicting until we are back under the cap.
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A wrong code counts as a failed attempt; once the attempt limit is reached the
+     * OTP is discarded and a new one has to be requested.
+     */
+    @Override
+    public boolean verifyAndConsume(String mobile, String otp, String purpose) {
+        if (otp == null) {
+            return false;
+        }
+        long now = clock.millis();
+        boolean[] valid = {false};
+
+        // computeIfPresent runs atomically per key, so two concurrent validations of the
+        // same code can never both succeed, and a resend can never be consumed by a
+        // validation of the code it replaced.
+        entries.computeIfPresent(mobile, (key, entry) -> {
+            if (entry.expiresAtMillis <= now) {
+                expiredEvictions.increment();
+                return null;
+            }
+            if (!entry.purpose.equals(purpose)) {
+                return entry;
+            }
+            if (MessageDigest.isEqual(entry.otp.getBytes(StandardCharsets.UTF_8), otp.getBytes(StandardCharsets.UTF_8))) {
+                valid[0] = true;
+                return null;
+            }
+            if (++entry.failedAttempts >= maxAttempts) {
+                attemptEvictions.increment();
+                return null;
+            }
+            return entry;
+        });
+        return valid[0];
+    }
+
+    /**
+     * @return the number of OTPs currently held by the store
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Advances the timing wheel up to the current time, removing every entry whose
+     * expiry falls into one of the slots passed over.
+     */
+    void sweepExpired() {
+        try {
+            long now = clock.millis();
+            long currentTick = now / TICK_MILLIS;
+            long tick = nextTick;
+            for (; tick <= currentTick; tick++) {
+                Queue<OtpEntry> slot = wheel[(int) (tick & wheelMask)];
+                int pending = slot.size();
+                for (int i = 0; i < pending; i++) {
+                    OtpEntry entry = slot.poll();
+                    if (entry == null) {
+                        break;
+                    }
+                    if (entry.expiresAtMillis > now) {
+                        // Scheduled for a later tick that shares this slot; put it back.
+                        slot.add(entry);
+                    } else if (entries.remove(entry.mobile, entry)) {
+                        expiredEvictions.increment();
+                    }
+                }
+            }
+            nextTick = tick;
+        } catch (RuntimeException e) {
+            // Never let an exception kill the scheduled sweep.
+            log.warn("OTP expiry sweep failed", e);
+        }
+    }
+
+    /**
+     * Evicts the live entry closest to expiry by walking the wheel from the current tick.
+     *
+     * @return true if an entry was evicted, false if the wheel holds no live entries
+     */
+    private boolean evictSoonestExpiring() {
+        long tick = nextTick;
+        for (int i = 0; i <= wheelMask; i++) {
+            Queue<OtpEntry> slot = wheel[(int) ((tick + i) & wheelMask)];
+            OtpEntry entry;
+            while ((entry = slot.poll()) != null) {
+                if (entries.remove(entry.mobile, entry)) {
+                    capacityEvictions.increment();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int slotFor(long expiresAtMillis) {
+        long tick = (expiresAtMillis + TICK_MILLIS - 1) / TICK_MILLIS;
+        return (int) (tick & wheelMask);
+    }
+
+    /**
+     * A single issued OTP. {@code failedAttempts} is only mutated inside
+     * {@link ConcurrentHashMap#computeIfPresent}, which serializes access per key.
+     */
+    private static final class OtpEntry {
+        private final String mobile;
+        private final String otp;
+        private final String purpose;
+        private final long expiresAtMillis;
+        private int failedAttempts;
+
+        private OtpEntry(String mobile, String otp, String purpose, long expiresAtMillis) {
+            this.mobile = mobile;
+            this.otp = otp;
+            this.purpose = purpose;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
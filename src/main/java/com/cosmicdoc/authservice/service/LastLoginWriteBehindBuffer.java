@@ -0,0 +1,187 @@
+package com.cosmicdoc.authservice.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Write-behind buffer for users' last-login timestamps.
+ * <p>
+ * Sign-in only records the timestamp in memory. Repeated logins by the same user
+ * before the next flush overwrite each other, so a burst of logins costs a single
+ * Firestore write. Pending timestamps are written in {@link WriteBatch}es of at most
+ * {@value #MAX_BATCH_SIZE} updates (Firestore's limit) every {@code flush-interval-ms},
+ * or as soon as {@code flush-threshold} users are pending, and once more on shutdown.
+ * <p>
+ * Last-login is informational, so a batch that fails to commit is logged and dropped
+ * rather than retried; the next login of those users records a fresh timestamp.
+ */
+@Slf4j
+@Component
+public class LastLoginWriteBehindBuffer {
+
+    static final int MAX_BATCH_SIZE = 500;
+
+    private final Firestore firestore;
+    private final String lastLoginField;
+    private final long flushIntervalMillis;
+    private final int flushThreshold;
+
+    private final ConcurrentHashMap<String, Timestamp> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final Counter recorded;
+    private final Counter coalesced;
+    private final Counter written;
+    private final Counter failed;
+
+    private ScheduledExecutorService flusher;
+
+    /**
+     * @param lastLoginField Name of the timestamp field in {@code users/{userId}}; must match
+     *                       the field {@code UsersRepository.updateLastLogin} writes.
+     */
+    public LastLoginWriteBehindBuffer(Firestore firestore,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${app.users.last-login.field:lastLoginAt}") String lastLoginField,
+                                      @Value("${app.users.last-login.flush-interval-ms:5000}") long flushIntervalMillis,
+                                      @Value("${app.users.last-login.flush-threshold:500}") int flushThreshold) {
+        this.firestore = firestore;
+        this.lastLoginField = lastLoginField;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushThreshold = flushThreshold;
+
+        meterRegistry.gaugeMapSize("auth.lastlogin.pending", Tags.empty(), pending);
+        this.recorded = Counter.builder("auth.lastlogin.recorded")
+                .description("Sign-ins whose last-login timestamp was handed to the write-behind buffer")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("auth.lastlogin.coalesced")
+                .description("Last-login writes saved because a newer login of the same user replaced a pending one")
+                .register(meterRegistry);
+        this.written = Counter.builder("auth.lastlogin.written")
+                .description("Last-login timestamps written to Firestore")
+                .register(meterRegistry);
+        this.failed = Counter.builder("auth.lastlogin.failed")
+                .description("Last-login timestamps dropped because their batch failed to commit")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "last-login-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flushes whatever is still pending. Runs before the Firestore client is closed,
+     * since this bean depends on it.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        flush();
+    }
+
+    /**
+     * Records that the user has just signed in. The timestamp reaches Firestore with
+     * the next flush.
+     *
+     * @param userId The ID of the user who signed in.
+     */
+    public void record(String userId) {
+        recorded.increment();
+        if (pending.put(userId, Timestamp.now()) != null) {
+            coalesced.increment();
+        }
+        if (pending.size() >= flushThreshold && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; stop() flushes what is left.
+            }
+        }
+    }
+
+    /**
+     * Writes all pending timestamps in batches of at most {@value #MAX_BATCH_SIZE}.
+     */
+    synchronized void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        CollectionReference users = firestore.collection("users");
+        WriteBatch batch = firestore.batch();
+        List<String> batchUserIds = new ArrayList<>(MAX_BATCH_SIZE);
+
+        for (String userId : pending.keySet()) {
+            // Removing before writing means a login arriving meanwhile is kept for the next flush.
+            Timestamp lastLogin = pending.remove(userId);
+            if (lastLogin == null) {
+                continue;
+            }
+            batch.update(users.document(userId), Map.of(lastLoginField, lastLogin));
+            batchUserIds.add(userId);
+
+            if (batchUserIds.size() == MAX_BATCH_SIZE) {
+                commit(batch, batchUserIds);
+                batch = firestore.batch();
+                batchUserIds.clear();
+            }
+        }
+        if (!batchUserIds.isEmpty()) {
+            commit(batch, batchUserIds);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic flush; log it and try again next time.
+            log.error("Unexpected error while flushing last-login timestamps", e);
+        }
+    }
+
+    private void commit(WriteBatch batch, List<String> userIds) {
+        try {
+            batch.commit().get();
+            written.increment(userIds.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.increment(userIds.size());
+        } catch (ExecutionException e) {
+            // One missing user document fails the whole batch; losing these timestamps is acceptable.
+            failed.increment(userIds.size());
+            log.warn("Could not write last-login timestamps for {} users", userIds.size(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.repository.OrganizationMemberRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Read-through cache of {@link OrganizationMemberRepository#findByUserIdAndOrgId}, which
+ * runs on every sign-in and admin action on a user.
+ * <p>
+ * Entries expire {@code app.users.membership-cache.ttl} after they were loaded, and at
+ * most {@code app.users.membership-cache.max-size} are kept. Only existing memberships
+ * are cached, so a membership created elsewhere is found immediately. Code that writes
+ * a membership must call {@link #put} (or {@link #invalidate}) afterwards. A
+ * {@code put} waits for a load of the same key that is in flight and then replaces its
+ * result, so a role read before an update is never served after it. Hit and miss
+ * counts are published as the {@code cache.gets} metrics with {@code cache=auth.membership}.
+ */
+@Component
+public class MembershipCache {
+
+    /**
+     * A membership is identified by its user and organization.
+     */
+    private record Key(String userId, String organizationId) {
+    }
+
+    private final OrganizationMemberRepository memberRepository;
+    private final Cache<Key, OrganizationMember> cache;
+
+    public MembershipCache(OrganizationMemberRepository memberRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.users.membership-cache.ttl:5m}") Duration ttl,
+                           @Value("${app.users.membership-cache.max-size:100000}") long maxSize) {
+        this.memberRepository = memberRepository;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "auth.membership");
+    }
+
+    /**
+     * Finds a user's membership in an organization, from the cache if possible.
+     *
+     * @param userId         The user.
+     * @param organizationId The organization.
+     * @return The membership, if the user is a member.
+     */
+    public Optional<OrganizationMember> find(String userId, String organizationId) {
+        if (userId == null || organizationId == null) {
+            return Optional.empty();
+        }
+        // A null result is not cached.
+        return Optional.ofNullable(cache.get(new Key(userId, organizationId),
+                key -> memberRepository.findByUserIdAndOrgId(key.userId(), key.organizationId()).orElse(null)));
+    }
+
+    /**
+     * Stores a membership that was just written.
+     *
+     * @param membership The membership as saved.
+     */
+    public void put(OrganizationMember membership) {
+        cache.put(new Key(membership.getUserId(), membership.getOrganizationId()), membership);
+    }
+
+    /**
+     * Drops a membership, e.g. after it was deleted or changed in a way this instance
+     * cannot reproduce.
+     *
+     * @param userId         The user.
+     * @param organizationId The organization.
+     */
+    public void invalidate(String userId, String organizationId) {
+        cache.invalidate(new Key(userId, organizationId));
+    }
+}
@@ -0,0 +1,474 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.repository.UserBatchReader;
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.Users;
+import com.cosmicdoc.common.repository.OrganizationMemberRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory directory of each organization's users for prefix search by name or email.
+ * <p>
+ * An organization's directory is an immutable {@link Directory}: its users plus a sorted
+ * array of normalized search keys, searched by binary search. It is loaded on the first
+ * search, updated by the writes of this instance ({@link #upsert}, {@link #invalidate}),
+ * and reloaded after {@code app.admin.users.directory.max-age} so that changes made by
+ * other instances show up too. At most {@code app.admin.users.directory.max-organizations}
+ * directories are kept; the least recently searched one is dropped first. Which
+ * organizations are loaded is reported to {@link #onOrganizationsChanged}, so that
+ * {@link CacheInvalidationBus} only listens to changes of those.
+ */
+@Component
+public class OrganizationUserDirectory {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final OrganizationMemberRepository memberRepository;
+    private final UserBatchReader userBatchReader;
+    private final int maxOrganizations;
+    private final long maxAgeNanos;
+    private final Timer loadTimer;
+    private final Timer searchTimer;
+
+    // Access-ordered, so iteration starts at the least recently used organization.
+    private final Map<String, Holder> directories;
+    // Guarded by the lock on directories.
+    private Consumer<Set<String>> organizationsListener = organizations -> { };
+
+    /**
+     * A directory, or its load in progress.
+     */
+    private record Holder(CompletableFuture<Directory> directory, long loadedAtNanos) {
+    }
+
+    public OrganizationUserDirectory(OrganizationMemberRepository memberRepository,
+                                     UserBatchReader userBatchReader,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${app.admin.users.directory.max-organizations:200}") int maxOrganizations,
+                                     @Value("${app.admin.users.directory.max-age:10m}") Duration maxAge) {
+        this.memberRepository = memberRepository;
+        this.userBatchReader = userBatchReader;
+        this.maxOrganizations = maxOrganizations;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.directories = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Holder> eldest) {
+                return size() > OrganizationUserDirectory.this.maxOrganizations;
+            }
+        };
+        this.loadTimer = Timer.builder("auth.directory.load")
+                .description("Time to load an organization's user directory")
+                .register(meterRegistry);
+        this.searchTimer = Timer.builder("auth.directory.search")
+                .description("Time to search a loaded user directory")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        meterRegistry.gauge("auth.directory.organizations", directories, map -> {
+            synchronized (map) {
+                return map.size();
+            }
+        });
+    }
+
+    /**
+     * Registers the listener told which organizations have a directory (loaded or loading)
+     * whenever that set changes. It is called at once with the current set, and always
+     * while this directory is locked, so calls arrive in order; it must not block or call
+     * back into the directory.
+     *
+     * @param listener Receives the organization IDs.
+     */
+    public void onOrganizationsChanged(Consumer<Set<String>> listener) {
+        synchronized (directories) {
+            organizationsListener = listener;
+            listener.accept(Set.copyOf(directories.keySet()));
+        }
+    }
+
+    // Must hold the lock on directories.
+    private void organizationsChanged() {
+        organizationsListener.accept(Set.copyOf(directories.keySet()));
+    }
+
+    /**
+     * Finds the users of an organization whose display name, any word of it onwards, or
+     * email starts with the query. Case and accents are ignored.
+     *
+     * @param organizationId The organization.
+     * @param query          The text typed so far.
+     * @param limit          Maximum number of users returned.
+     * @return The matching users, ordered by the key they matched.
+     */
+    public List<UserDetailResponse> search(String organizationId, String query, int limit) {
+        Directory directory = directory(organizationId);
+        long start = System.nanoTime();
+        List<UserDetailResponse> matches = directory.search(query, limit);
+        searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return matches;
+    }
+
+    /**
+     * Adds or replaces a user in the organization's directory, if it is loaded. Call
+     * this after writing a user or membership.
+     *
+     * @param organizationId The organization.
+     * @param user           The user as it now is in that organization.
+     */
+    public void upsert(String organizationId, UserDetailResponse user) {
+        synchronized (directories) {
+            Holder holder = directories.get(organizationId);
+            if (holder == null) {
+                return;
+            }
+            Directory current = holder.directory().isCompletedExceptionally() ? null : holder.directory().getNow(null);
+            if (current == null) {
+                // A load is in progress and may have read the user before the write (or has failed).
+                directories.remove(organizationId);
+                organizationsChanged();
+                return;
+            }
+            directories.put(organizationId, new Holder(
+                    CompletableFuture.completedFuture(current.with(user)), holder.loadedAtNanos()));
+        }
+    }
+
+    /**
+     * Applies a change of a user document made anywhere, e.g. reported by
+     * {@link CacheInvalidationBus}, to the loaded directories of the user's organizations.
+     * Changes that do not affect what the directory holds (e.g. a new last-login time)
+     * leave it untouched.
+     *
+     * @param user The user as it now is.
+     */
+    public void userChanged(Users user) {
+        if (user.getOrganizations() == null) {
+            return;
+        }
+        for (String organizationId : user.getOrganizations()) {
+            synchronized (directories) {
+                Directory current = loaded(organizationId);
+                UserDetailResponse existing = current == null ? null : current.get(user.getUserId());
+                if (existing == null) {
+                    // Not a member yet; the membership change adds the user.
+                    continue;
+                }
+                UserDetailResponse updated = UserDetailResponse.builder()
+                        .userId(user.getUserId())
+                        .email(user.getEmail())
+                        .displayName(user.getDisplayName())
+                        .status(user.getStatus())
+                        .mobileNumber(user.getMobileNumber())
+                        .role(existing.getRole())
+                        .build();
+                if (!updated.equals(existing)) {
+                    upsert(organizationId, updated);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a change of a membership made anywhere to the organization's directory,
+     * if it is loaded: a new role is applied in place, anything else drops the directory.
+     *
+     * @param organizationId The organization.
+     * @param userId         The member.
+     * @param role           The new role, or null if the membership was removed.
+     */
+    public void membershipChanged(String organizationId, String userId, String role) {
+        synchronized (directories) {
+            Directory current = loaded(organizationId);
+            if (current == null) {
+                return;
+            }
+            UserDetailResponse existing = current.get(userId);
+            if (existing == null || role == null) {
+                invalidate(organizationId);
+            } else if (!role.equals(existing.getRole())) {
+                UserDetailResponse updated = UserDetailResponse.builder()
+                        .userId(existing.getUserId())
+                        .email(existing.getEmail())
+                        .displayName(existing.getDisplayName())
+                        .status(existing.getStatus())
+                        .mobileNumber(existing.getMobileNumber())
+                        .role(role)
+                        .build();
+                upsert(organizationId, updated);
+            }
+        }
+    }
+
+    // Must hold the lock on directories.
+    private Directory loaded(String organizationId) {
+        Holder holder = directories.get(organizationId);
+        if (holder == null || holder.directory().isCompletedExceptionally()) {
+            return null;
+        }
+        return holder.directory().getNow(null);
+    }
+
+    /**
+     * Drops the organization's directory, so the next search reloads it. Cheaper than
+     * {@link #upsert} after writes that touch many users.
+     *
+     * @param organizationId The organization.
+     */
+    public void invalidate(String organizationId) {
+        synchronized (directories) {
+            if (directories.remove(organizationId) != null) {
+                organizationsChanged();
+            }
+        }
+    }
+
+    private Directory directory(String organizationId) {
+        Holder holder;
+        boolean load = false;
+        synchronized (directories) {
+            holder = directories.get(organizationId);
+            if (holder == null || System.nanoTime() - holder.loadedAtNanos() > maxAgeNanos
+                    || holder.directory().isCompletedExceptionally()) {
+                boolean added = holder == null;
+                holder = new Holder(new CompletableFuture<>(), System.nanoTime());
+                directories.put(organizationId, holder);
+                load = true;
+                if (added) {
+                    // The put may also have dropped the least recently used organization.
+                    organizationsChanged();
+                }
+            }
+        }
+        if (load) {
+            // Concurrent searches of the same organization wait for this load instead of starting their own.
+            try {
+                holder.directory().complete(loadTimer.record(() -> load(organizationId)));
+            } catch (RuntimeException e) {
+                holder.directory().completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return holder.directory().join();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private Directory load(String organizationId) {
+        List<OrganizationMember> memberships = memberRepository.findAllByOrganizationId(organizationId);
+        Map<String, Users> users = userBatchReader.findAllByIds(memberships.stream()
+                .map(OrganizationMember::getUserId)
+                .collect(Collectors.toList())).found();
+        List<UserDetailResponse> entries = new ArrayList<>(memberships.size());
+        for (OrganizationMember membership : memberships) {
+            Users user = users.get(membership.getUserId());
+            if (user != null) {
+                entries.add(UserDetailResponse.from(user, membership));
+            }
+        }
+        return Directory.of(entries);
+    }
+
+    /**
+     * Normalizes text for matching: accents removed, lower-cased, whitespace collapsed.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String stripped = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return WHITESPACE.matcher(stripped.toLowerCase(Locale.ROOT).trim()).replaceAll(" ");
+    }
+
+    /**
+     * An immutable, searchable snapshot of one organization's users.
+     */
+    public static final class Directory {
+
+        private final UserDetailResponse[] users;
+        // Sorted search keys; userOfKey[i] is the index in users of the user keys[i] belongs to.
+        private final String[] keys;
+        private final int[] userOfKey;
+
+        private Directory(UserDetailResponse[] users, String[] keys, int[] userOfKey) {
+            this.users = users;
+            this.keys = keys;
+            this.userOfKey = userOfKey;
+        }
+
+        /**
+         * Builds the directory of the given users.
+         */
+        public static Directory of(Collection<UserDetailResponse> users) {
+            UserDetailResponse[] entries = users.toArray(new UserDetailResponse[0]);
+            List<KeyRef> refs = new ArrayList<>(entries.length * 3);
+            for (int i = 0; i < entries.length; i++) {
+                for (String key : keysOf(entries[i])) {
+                    refs.add(new KeyRef(key, i));
+                }
+            }
+            refs.sort(null);
+            String[] keys = new String[refs.size()];
+            int[] userOfKey = new int[refs.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = refs.get(i).key();
+                userOfKey[i] = refs.get(i).user();
+            }
+            return new Directory(entries, keys, userOfKey);
+        }
+
+        private record KeyRef(String key, int user) implements Comparable<KeyRef> {
+
+            @Override
+            public int compareTo(KeyRef other) {
+                return key.compareTo(other.key);
+            }
+        }
+
+        /**
+         * The display name, the display name from each later word on (so a surname
+         * matches), and the email.
+         */
+        private static List<String> keysOf(UserDetailResponse user) {
+            List<String> keys = new ArrayList<>(3);
+            String name = normalize(user.getDisplayName());
+            if (!name.isEmpty()) {
+                keys.add(name);
+                for (int space = name.indexOf(' '); space >= 0; space = name.indexOf(' ', space + 1)) {
+                    keys.add(name.substring(space + 1));
+                }
+            }
+            String email = normalize(user.getEmail());
+            if (!email.isEmpty()) {
+                keys.add(email);
+            }
+            return keys;
+        }
+
+        /**
+         * @return A copy of this directory with the user added, or replaced if one with the
+         * same ID exists. Linear in the size of the directory: the existing keys are merged
+         * with the user's new keys instead of being sorted again.
+         */
+        public Directory with(UserDetailResponse user) {
+            int replaced = -1;
+            for (int i = 0; i < users.length && replaced < 0; i++) {
+                if (users[i].getUserId().equals(user.getUserId())) {
+                    replaced = i;
+                }
+            }
+            UserDetailResponse[] newUsers = Arrays.copyOf(users, replaced < 0 ? users.length + 1 : users.length);
+            int index = replaced < 0 ? users.length : replaced;
+            newUsers[index] = user;
+
+            List<String> added = keysOf(user);
+            added.sort(null);
+            int removed = 0;
+            for (int owner : userOfKey) {
+                if (owner == replaced) {
+                    removed++;
+                }
+            }
+            String[] newKeys = new String[keys.length - removed + added.size()];
+            int[] newUserOfKey = new int[newKeys.length];
+            int out = 0;
+            int next = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (userOfKey[i] == replaced) {
+                    continue;
+                }
+                while (next < added.size() && added.get(next).compareTo(keys[i]) < 0) {
+                    newKeys[out] = added.get(next++);
+                    newUserOfKey[out++] = index;
+                }
+                newKeys[out] = keys[i];
+                newUserOfKey[out++] = userOfKey[i];
+            }
+            while (next < added.size()) {
+                newKeys[out] = added.get(next++);
+                newUserOfKey[out++] = index;
+            }
+            return new Directory(newUsers, newKeys, newUserOfKey);
+        }
+
+        /**
+         * @return The user with the given ID, or null.
+         */
+        public UserDetailResponse get(String userId) {
+            for (UserDetailResponse user : users) {
+                if (user.getUserId().equals(userId)) {
+                    return user;
+                }
+            }
+            return null;
+        }
+
+        public int size() {
+            return users.length;
+        }
+
+        /**
+         * @return Up to {@code limit} users with a key starting with the normalized query.
+         */
+        public List<UserDetailResponse> search(String query, int limit) {
+            String prefix = normalize(query);
+            if (prefix.isEmpty() || limit <= 0) {
+                return List.of();
+            }
+            int[] found = new int[limit];
+            int count = 0;
+            for (int i = lowerBound(prefix); i < keys.length && count < limit && keys[i].startsWith(prefix); i++) {
+                int user = userOfKey[i];
+                boolean seen = false;
+                for (int j = 0; j < count && !seen; j++) {
+                    seen = found[j] == user;
+                }
+                if (!seen) {
+                    found[count++] = user;
+                }
+            }
+            List<UserDetailResponse> matches = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                matches.add(users[found[i]]);
+            }
+            return matches;
+        }
+
+        // Index of the first key that is not less than the prefix.
+        private int lowerBound(String prefix) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.dto.response.UserPageResponse;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes an organization's users as NDJSON (one JSON object per line), page by page.
+ * <p>
+ * Only one page is held in memory at a time and the output is flushed after every
+ * page, so the client receives the first users while later pages are still being
+ * read, and memory use does not grow with the size of the organization.
+ */
+@Component
+public class OrganizationUserExporter {
+
+    /**
+     * Supplies the export one page at a time.
+     */
+    @FunctionalInterface
+    public interface PageSource {
+
+        /**
+         * @param cursor The {@code nextCursor} of the previous page; null for the first page.
+         * @return The page; a null {@code nextCursor} ends the export.
+         */
+        UserPageResponse fetch(String cursor);
+    }
+
+    private final ObjectWriter userWriter;
+
+    public OrganizationUserExporter(ObjectMapper objectMapper) {
+        // Flushing is done once per page, not after every user.
+        this.userWriter = objectMapper.writerFor(UserDetailResponse.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Streams every page of the source to {@code out} and closes it.
+     *
+     * @param source Supplies the pages.
+     * @param out    Where the NDJSON is written.
+     * @param gzip   Whether to gzip the output.
+     * @return The number of users written.
+     */
+    public long export(PageSource source, OutputStream out, boolean gzip) throws IOException {
+        // syncFlush: flushing pushes the compressed bytes out instead of holding them back.
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192, true) : out;
+        long written = 0;
+
+        try (JsonGenerator generator = userWriter.getFactory().createGenerator(target)) {
+            // Lines are separated by '\n' below; no extra separator between root values.
+            generator.setRootValueSeparator(null);
+            String cursor = null;
+            do {
+                UserPageResponse page = source.fetch(cursor);
+                for (UserDetailResponse user : page.getUsers()) {
+                    userWriter.writeValue(generator, user);
+                    generator.writeRaw('\n');
+                    written++;
+                }
+                generator.flush();
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        }
+        return written;
+    }
+}
@@ -4,29 +4,59 @@ import com.cosmicdoc.authservice.dto.request.CreateUserRequest;
 import com.cosmicdoc.authservice.dto.request.UpdateUserRequest;
 import com.cosmicdoc.authservice.dto.request.UpdateUserStatusRequest;
 import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.dto.response.UserPageResponse;
 import com.cosmicdoc.authservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.authservice.repository.FirestoreFutures;
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.cosmicdoc.authservice.repository.OrganizationMemberPager;
+import com.cosmicdoc.authservice.repository.UserBatchReader;
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
+import com.cosmicdoc.authservice.security.UnusablePassword;
 import com.cosmicdoc.common.model.OrganizationMember;
 import com.cosmicdoc.common.model.UserStatus;
 import com.cosmicdoc.common.model.Users;
 import com.cosmicdoc.common.repository.OrganizationMemberRepository;
 import com.cosmicdoc.common.repository.UsersRepository;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class OrganizationUserService {
 
+    // With a status filter, a page scans at most this many membership slices of at most this size.
+    private static final int MAX_SLICES_PER_PAGE = 10;
+    private static final int MAX_SLICE_SIZE = 500;
+    private static final String CURSOR_SEPARATOR = "\n";
+
     private final UsersRepository userRepository;
     private final OrganizationMemberRepository memberRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final UserLookupIndex userLookupIndex;
+    private final Firestore firestore;
+    private final UserBatchReader userBatchReader;
+    private final OrganizationMemberPager memberPager;
+    private final OrganizationUserDirectory directory;
+    private final MembershipCache membershipCache;
+    private final LoginProjectionStore loginProjections;
+    private final RefreshTokenService refreshTokens;
 
     /**
      * Creates a new user within a specific organization.
@@ -38,9 +68,10 @@ public class OrganizationUserService {
      */
     public void createUserInOrg(String adminOrgId, CreateUserRequest request) {
         // Find if a user with this email already exists globally.
-        Optional<Users> existingUserOpt = userRepository.findByEmail(request.getEmail());
+        Optional<Users> existingUserOpt = userLookupIndex.findByEmail(request.getEmail());
 
         Users userToProcess;
+        WriteBatch batch = firestore.batch();
         if (existingUserOpt.isPresent()) {
             // User already exists, we will just add them to the new organization.
             userToProcess = existingUserOpt.get();
@@ -52,7 +83,15 @@ public class OrganizationUserService {
 
             // Add the new organization to the user's list and update them.
             userToProcess.getOrganizations().add(adminOrgId);
-            userRepository.save(userToProcess); // Assuming save handles updates if ID exists.
+            userRepository.saveInTransaction(batch, userToProcess); // Assuming save handles updates if ID exists.
+            Map<String, Object> projectionUpdates = new HashMap<>();
+            projectionUpdates.put(LoginProjectionStore.ORGANIZATIONS, userToProcess.getOrganizations());
+            if (userToProcess.getOrganizations().get(0).equals(adminOrgId)) {
+                // The new organization is the user's only one, so it becomes their default.
+                projectionUpdates.put(LoginProjectionStore.DEFAULT_ORGANIZATION_ID, adminOrgId);
+                projectionUpdates.put(LoginProjectionStore.ROLE, request.getRole());
+            }
+            loginProjections.updateInBatch(batch, userToProcess.getEmail(), projectionUpdates);
 
         } else {
             // User does not exist, create a new user record.
@@ -62,19 +101,37 @@ public class OrganizationUserService {
                     .email(request.getEmail())
                     .displayName(request.getDisplayName())
                     .status(UserStatus.PENDING_VERIFICATION) // User must verify and set a password.
-                    .hashedPassword(passwordEncoder.encode(UUID.randomUUID().toString())) // Secure temp password
+                    .hashedPassword(UnusablePassword.MARKER) // No password until the user verifies the account.
                     .organizations(Collections.singletonList(adminOrgId))
                     .build();
-            userRepository.save(userToProcess);
+
+            // Write the user together with its email index entry and login projection.
+            userRepository.saveInTransaction(batch, userToProcess);
+            userLookupIndex.indexInBatch(batch, userToProcess);
+            loginProjections.putInBatch(batch, userToProcess, request.getRole());
         }
 
-        // Create the membership link between the user and the organization.
+        // Create the membership link between the user and the organization, in the same batch.
         OrganizationMember membership = OrganizationMember.builder()
                 .userId(userToProcess.getUserId())
                 .organizationId(adminOrgId)
                 .role(request.getRole())
                 .build();
-        memberRepository.save(membership);
+        memberRepository.saveInTransaction(batch, membership);
+        try {
+            batch.commit().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while creating user.", e);
+        } catch (ExecutionException e) {
+            if (FirestoreFutures.hasStatus(e, StatusCode.Code.ALREADY_EXISTS)) {
+                // Another request created a user with this email in the meantime.
+                throw new IllegalStateException("A user with this email already exists.");
+            }
+            throw new RuntimeException("Failed to create user.", e.getCause());
+        }
+        membershipCache.put(membership);
+        directory.upsert(adminOrgId, UserDetailResponse.from(userToProcess, membership));
 
         // TODO: Send an invitation/welcome email to the new user.
     }
@@ -87,42 +144,105 @@ public class OrganizationUserService {
      */
     public void updateUserStatus(String adminOrgId, String userIdToUpdate, UpdateUserStatusRequest request) throws ResourceNotFoundException {
         // 1. Verify the user to be updated is actually a member of the admin's organization.
-        memberRepository.findByUserIdAndOrgId(userIdToUpdate, adminOrgId)
+        OrganizationMember membership = membershipCache.find(userIdToUpdate, adminOrgId)
                 .orElseThrow(() -> new SecurityException("Target user is not a member of this organization."));
 
         // 2. Fetch the user's global profile.
         Users user = userRepository.findById(userIdToUpdate)
                 .orElseThrow(() -> new ResourceNotFoundException("User with ID " + userIdToUpdate + " not found."));
 
-        // 3. Update the status and save.
+        // 3. Update the status and save it together with the login projection.
         user.setStatus(request.getStatus());
-        userRepository.save(user); // save() method should handle updates.
+        WriteBatch batch = firestore.batch();
+        userRepository.saveInTransaction(batch, user);
+        loginProjections.updateInBatch(batch, user.getEmail(),
+                Map.of(LoginProjectionStore.STATUS, request.getStatus().name()));
+        commit(batch, "update user status");
+        if (request.getStatus() != UserStatus.ACTIVE) {
+            // A deactivated user must not keep minting access tokens.
+            refreshTokens.revokeUsers(List.of(userIdToUpdate));
+        }
+        directory.upsert(adminOrgId, UserDetailResponse.from(user, membership));
     }
 
     /**
-     * Fetches a list of all users belonging to a specific organization.
+     * Fetches one page of the users in the admin's organization.
+     * <p>
+     * Role and branch filters are applied by the membership query. The status lives on
+     * the user document, so with a status filter memberships are read in larger slices
+     * and filtered after their users are fetched; a page may then hold fewer users than
+     * requested (never more), and the scan stops after a bounded number of slices.
      *
      * @param adminOrgId The organization ID of the admin making the request.
-     * @return A list of detailed user profiles.
+     * @param filter     Role/branch filters and sort order for the memberships.
+     * @param status     Only return users with this status; null for all.
+     * @param cursor     The {@code nextCursor} of the previous page; null for the first page.
+     * @param pageSize   Maximum number of users on the page.
+     * @return The page and the cursor of the next one.
+     * @throws IllegalArgumentException if the cursor is malformed or was issued for another sort order.
      */
-    public List<UserDetailResponse> getUsersInOrganization(String adminOrgId) {
-        // 1. Find all memberships for the given organization.
-        List<OrganizationMember> memberships = memberRepository.findAllByOrganizationId(adminOrgId);
-
-        // 2. For each membership, fetch the corresponding user's global profile.
-        //    This approach can be simplified if the repository supports fetching multiple users by ID.
-        return memberships.stream()
-                .map(membership -> {
-                    Users user = userRepository.findById(membership.getUserId())
-                            .orElse(null); // Or handle more gracefully if user doc is missing
-                    if (user != null) {
-                        return UserDetailResponse.from(user, membership);
-                    }
-                    return null;
-                })
-                .filter(response -> response != null)
-                .collect(Collectors.toList());
-        // TODO: For production, add filtering by role/branch and pagination.
+    public UserPageResponse listUsers(String adminOrgId, OrganizationMemberPager.Filter filter, UserStatus status,
+                                      String cursor, int pageSize) {
+        OrganizationMemberPager.Entry lastExamined = decodeCursor(cursor, filter.sort());
+        List<UserDetailResponse> page = new ArrayList<>(pageSize);
+        boolean exhausted = false;
+
+        for (int slice = 0; slice < MAX_SLICES_PER_PAGE && page.size() < pageSize && !exhausted; slice++) {
+            int sliceSize = status == null ? pageSize - page.size() : Math.min(pageSize * 2, MAX_SLICE_SIZE);
+            OrganizationMemberPager.Slice memberships = memberPager.fetch(adminOrgId, filter, lastExamined, sliceSize);
+            exhausted = memberships.exhausted();
+
+            // Only the users of this slice are read.
+            UserBatchReader.Result users = userBatchReader.findAllByIds(memberships.entries().stream()
+                    .map(entry -> entry.membership().getUserId())
+                    .collect(Collectors.toList()));
+
+            for (OrganizationMemberPager.Entry entry : memberships.entries()) {
+                if (page.size() == pageSize) {
+                    // The rest of this slice belongs to the next page.
+                    exhausted = false;
+                    break;
+                }
+                lastExamined = entry;
+                Users user = users.found().get(entry.membership().getUserId());
+                if (user == null || (status != null && user.getStatus() != status)) {
+                    continue;
+                }
+                page.add(UserDetailResponse.from(user, entry.membership()));
+            }
+        }
+
+        return UserPageResponse.builder()
+                .users(page)
+                .nextCursor(exhausted ? null : encodeCursor(lastExamined, filter.sort()))
+                .build();
+    }
+
+    private static String encodeCursor(OrganizationMemberPager.Entry entry, OrganizationMemberPager.Sort sort) {
+        // A null role is written as a missing third part, so it is not confused with an empty role.
+        String role = entry.membership().getRole();
+        String raw = sort.name() + CURSOR_SEPARATOR + entry.documentId()
+                + (role == null ? "" : CURSOR_SEPARATOR + role);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static OrganizationMemberPager.Entry decodeCursor(String cursor, OrganizationMemberPager.Sort sort) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(CURSOR_SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page cursor.");
+        }
+        if (parts.length < 2 || parts.length > 3 || !parts[0].equals(sort.name()) || parts[1].isEmpty()) {
+            throw new IllegalArgumentException("Invalid page cursor.");
+        }
+        OrganizationMember position = new OrganizationMember();
+        position.setRole(parts.length == 3 ? parts[2] : null);
+        return new OrganizationMemberPager.Entry(parts[1], position);
     }
 
     /**
@@ -134,7 +254,7 @@ public class OrganizationUserService {
      */
     public UserDetailResponse getUserInOrganization(String adminOrgId, String userIdToFetch) throws ResourceNotFoundException {
         // 1. First, verify the user is a member of the admin's organization to ensure authorization.
-        OrganizationMember membership = memberRepository.findByUserIdAndOrgId(userIdToFetch, adminOrgId)
+        OrganizationMember membership = membershipCache.find(userIdToFetch, adminOrgId)
                 .orElseThrow(() -> new SecurityException("Target user is not a member of this organization."));
 
         // 2. If they are a member, fetch their global user profile.
@@ -153,7 +273,8 @@ public class OrganizationUserService {
      * @param request The request DTO with the new details.
      */
     public void updateUserInOrganization(String adminOrgId, String userIdToUpdate, UpdateUserRequest request) throws ResourceNotFoundException {
-        // 1. Verify the user is a member of the organization.
+        // 1. Verify the user is a member of the organization. The membership is read from
+        //    Firestore, not the cache: it is modified below, and cached objects are shared.
         OrganizationMember membership = memberRepository.findByUserIdAndOrgId(userIdToUpdate, adminOrgId)
                 .orElseThrow(() -> new SecurityException("Target user is not a member of this organization."));
 
@@ -162,13 +283,40 @@ public class OrganizationUserService {
                 .orElseThrow(() -> new ResourceNotFoundException("User with ID " + userIdToUpdate + " not found."));
 
         // 3. Update the fields on the domain objects.
+        boolean roleChanged = !Objects.equals(membership.getRole(), request.getRole());
         user.setDisplayName(request.getDisplayName());
         membership.setRole(request.getRole());
 
-        // 4. Save the updated objects back to the database.
-        //    This should ideally be a transactional operation if you had a SQL DB.
-        //    With Firestore, these are two separate writes.
-        userRepository.save(user);
-        memberRepository.save(membership);
+        // 4. Save the updated objects and the login projection in one batch.
+        WriteBatch batch = firestore.batch();
+        userRepository.saveInTransaction(batch, user);
+        memberRepository.saveInTransaction(batch, membership);
+        Map<String, Object> projectionUpdates = new HashMap<>();
+        projectionUpdates.put(LoginProjectionStore.DISPLAY_NAME, request.getDisplayName());
+        if (user.getOrganizations() != null && !user.getOrganizations().isEmpty()
+                && user.getOrganizations().get(0).equals(adminOrgId)) {
+            projectionUpdates.put(LoginProjectionStore.DEFAULT_ORGANIZATION_ID, adminOrgId);
+            projectionUpdates.put(LoginProjectionStore.ROLE, request.getRole());
+        }
+        loginProjections.updateInBatch(batch, user.getEmail(), projectionUpdates);
+        commit(batch, "update user");
+        if (roleChanged) {
+            // Refresh tokens carry the role they were issued with.
+            refreshTokens.revokeUsers(List.of(userIdToUpdate));
+        }
+        // Replace the cached membership so the old role is not served for the rest of its TTL.
+        membershipCache.put(membership);
+        directory.upsert(adminOrgId, UserDetailResponse.from(user, membership));
+    }
+
+    private static void commit(WriteBatch batch, String action) {
+        try {
+            batch.commit().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while trying to " + action + ".", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to " + action + ".", e.getCause());
+        }
     }
 }
@@ -1,14 +1,11 @@
 package com.cosmicdoc.authservice.service;
 
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
 import com.cosmicdoc.common.model.Users;
-import com.cosmicdoc.common.repository.UsersRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.security.SecureRandom;
-import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
@@ -16,18 +13,21 @@ import java.util.logging.Logger;
 @Service
 public class OtpService {
     
-    private final UsersRepository usersRepository;
+    private final UserLookupIndex userLookupIndex;
     private final NotificationService notificationService;
+    private final OtpStore otpStore;
+    // Present only in stateless mode (app.otp.mode=stateless), where codes are derived instead of stored
+    private final Optional<HmacOtpGenerator> statelessOtp;
     private static final Logger logger = Logger.getLogger(OtpService.class.getName());
-    
-    // In-memory OTP store (for development purposes)
-    // In production, this should be replaced with Redis or another distributed cache
-    private final Map<String, OtpData> otpStorage = new HashMap<>();
+    private static final SecureRandom RANDOM = new SecureRandom();
     
     @Autowired
-    public OtpService(UsersRepository usersRepository, NotificationService notificationService) {
-        this.usersRepository = usersRepository;
+    public OtpService(UserLookupIndex userLookupIndex, NotificationService notificationService, OtpStore otpStore,
+                      Optional<HmacOtpGenerator> statelessOtp) {
+        this.userLookupIndex = userLookupIndex;
         this.notificationService = notificationService;
+        this.otpStore = otpStore;
+        this.statelessOtp = statelessOtp;
     }
     
     /**
@@ -37,21 +37,27 @@ public class OtpService {
      * @param purpose Purpose of OTP (login, signup, reset)
      * @throws ExecutionException if user not found for reset/login
      * @throws InterruptedException if database operation is interrupted
+     * @throws com.cosmicdoc.authservice.exception.OtpResendTooSoonException in stateless mode, if the
+     *         current code has already been used
      */
     public void sendOtp(String mobile, String purpose) throws ExecutionException, InterruptedException {
         // For reset and login, verify user exists
         if ("reset".equals(purpose) || "login".equals(purpose)) {
-            Optional<Users> userOptional = usersRepository.findByPhone(mobile);
+            Optional<Users> userOptional = userLookupIndex.findByPhone(mobile);
             if (userOptional.isEmpty()) {
                 throw new IllegalArgumentException("No account found with this mobile number");
             }
         }
         
-        // Generate a 6-digit OTP
-        String otp = generateOtp();
-        
-        // Store the OTP with expiration time (5 minutes)
-        otpStorage.put(mobile, new OtpData(otp, LocalDateTime.now().plusMinutes(5), purpose));
+        String otp;
+        if (statelessOtp.isPresent()) {
+            // Derive the OTP; nothing needs to be stored
+            otp = statelessOtp.get().generate(mobile, purpose);
+        } else {
+            // Generate a 6-digit OTP and store it; the store takes care of expiry (5 minutes by default)
+            otp = generateOtp();
+            otpStore.put(mobile, otp, purpose);
+        }
         
         // In a real application, send the OTP via SMS
         logger.info("Sending OTP: " + otp + " to mobile: " + mobile + " for purpose: " + purpose);
@@ -74,32 +80,11 @@ public class OtpService {
      * @return true if valid, false otherwise
      */
     public boolean validateOtp(String mobile, String otp, String purpose) {
-        OtpData otpData = otpStorage.get(mobile);
-        
-        if (otpData == null) {
-            return false;
-        }
-        
-        // Check if OTP is expired
-        if (otpData.getExpiryTime().isBefore(LocalDateTime.now())) {
-            otpStorage.remove(mobile);
-            return false;
+        if (statelessOtp.isPresent()) {
+            return statelessOtp.get().verifyAndConsume(mobile, otp, purpose);
         }
-        
-        // Check if purpose matches
-        if (!otpData.getPurpose().equals(purpose)) {
-            return false;
-        }
-        
-        // Check if OTP matches
-        boolean isValid = otpData.getOtp().equals(otp);
-        
-        // Remove OTP after successful validation to prevent reuse
-        if (isValid) {
-            otpStorage.remove(mobile);
-        }
-        
-        return isValid;
+        // Expiry, purpose, attempt limits and single use are all enforced atomically by the store
+        return otpStore.verifyAndConsume(mobile, otp, purpose);
     }
     
     /**
@@ -108,35 +93,7 @@ public class OtpService {
      * @return 6-digit OTP
      */
     private String generateOtp() {
-        SecureRandom random = new SecureRandom();
-        int num = 100000 + random.nextInt(900000); // 6-digit number between 100000 and 999999
+        int num = 100000 + RANDOM.nextInt(900000); // 6-digit number between 100000 and 999999
         return String.valueOf(num);
     }
-    
-    /**
-     * OTP data class to store OTP, expiry time, and purpose
-     */
-    private static class OtpData {
-        private final String otp;
-        private final LocalDateTime expiryTime;
-        private final String purpose;
-        
-        public OtpData(String otp, LocalDateTime expiryTime, String purpose) {
-            this.otp = otp;
-            this.expiryTime = expiryTime;
-            this.purpose = purpose;
-        }
-        
-        public String getOtp() {
-            return otp;
-        }
-        
-        public LocalDateTime getExpiryTime() {
-            return expiryTime;
-        }
-        
-        public String getPurpose() {
-            return purpose;
-        }
-    }
 }
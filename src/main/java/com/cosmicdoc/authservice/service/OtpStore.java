@@ -0,0 +1,32 @@
+package com.cosmicdoc.authservice.service;
+
+/**
+ * Storage backend for issued one-time passwords.
+ * <p>
+ * Implementations must make {@link #verifyAndConsume} atomic: a code can be consumed
+ * at most once, and a code that has been replaced by a newer one must never validate.
+ * The active implementation is selected with {@code app.otp.store}
+ * ({@code memory} by default, or {@code firestore} when the service runs on more than
+ * one instance).
+ */
+public interface OtpStore {
+
+    /**
+     * Stores an OTP for the given mobile, replacing any OTP previously issued to it.
+     *
+     * @param mobile  Mobile number the OTP was sent to
+     * @param otp     The generated OTP
+     * @param purpose Purpose of the OTP (login, signup, reset)
+     */
+    void put(String mobile, String otp, String purpose);
+
+    /**
+     * Validates an OTP and consumes it on success.
+     *
+     * @param mobile  Mobile number
+     * @param otp     OTP supplied by the user
+     * @param purpose Purpose the OTP was issued for
+     * @return true if the OTP was valid and has now been consumed, false otherwise
+     */
+    boolean verifyAndConsume(String mobile, String otp, String purpose);
+}
@@ -0,0 +1,80 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+/**
+ * Upgrades stored password hashes whose BCrypt cost is lower than the current one.
+ * <p>
+ * The only moment we hold a user's plaintext password is during sign-in, so that is
+ * when a stale hash can be replaced. The upgrade runs asynchronously so the login
+ * itself never pays for the extra hash.
+ */
+@Slf4j
+@Service
+public class PasswordRehashService {
+
+    private final Firestore firestore;
+    private final PasswordEncoder passwordEncoder;
+    private final LoginProjectionStore loginProjections;
+    private final Counter upgraded;
+
+    public PasswordRehashService(Firestore firestore, PasswordEncoder passwordEncoder,
+                                 LoginProjectionStore loginProjections, MeterRegistry meterRegistry) {
+        this.firestore = firestore;
+        this.passwordEncoder = passwordEncoder;
+        this.loginProjections = loginProjections;
+        this.upgraded = Counter.builder("auth.password.rehash.upgraded")
+                .description("Stored password hashes upgraded to the current BCrypt cost on sign-in")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Re-hashes the password with the current cost and stores the result, unless the
+     * stored hash has changed since sign-in (for example by a concurrent password reset).
+     *
+     * @param userId      The ID of the user who just signed in.
+     * @param currentHash The hash the password was verified against.
+     * @param rawPassword The password the user signed in with.
+     */
+    @Async
+    public void upgradeHash(String userId, String currentHash, String rawPassword) {
+        try {
+            String newHash = passwordEncoder.encode(rawPassword);
+            DocumentReference userRef = firestore.collection("users").document(userId);
+
+            boolean written = firestore.runTransaction(transaction -> {
+                DocumentSnapshot snapshot = transaction.get(userRef).get();
+                if (!currentHash.equals(snapshot.getString("hashedPassword"))) {
+                    return false;
+                }
+                transaction.update(userRef, "hashedPassword", newHash);
+                String email = snapshot.getString("email");
+                if (email != null) {
+                    loginProjections.updateInTransaction(transaction, email,
+                            Map.of(LoginProjectionStore.HASHED_PASSWORD, newHash));
+                }
+                return true;
+            }).get();
+
+            if (written) {
+                upgraded.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Best effort: the old hash keeps working and we will try again on the next sign-in.
+            log.warn("Could not upgrade password hash for user {}", userId, e);
+        }
+    }
+}
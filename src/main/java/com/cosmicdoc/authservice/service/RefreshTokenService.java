@@ -0,0 +1,505 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.exception.AuthenticationException;
+import com.cosmicdoc.authservice.repository.FirestoreFutures;
+import com.cosmicdoc.authservice.security.JwtService;
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.Users;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Issues and rotates refresh tokens, so a client can get a new access token without
+ * signing in again.
+ * <p>
+ * A refresh token is 256 random bits, returned once to the client. Firestore only
+ * holds its SHA-256, as the ID of a {@code refresh_tokens} document that also holds
+ * the claims of the access tokens it may mint, so a refresh reads no user or
+ * membership and hashes no password. Every refresh consumes the token and issues its
+ * successor in the same family; the consumed document is kept until it expires.
+ * <p>
+ * Revocation is a per-user generation in {@code refresh_token_revocations/{userId}}.
+ * Every token records the generation it was issued under, and is only rotated while
+ * that is still the user's generation. The check is a no-op update of the revocation
+ * document with an {@code updatedAt} precondition, committed in the same batch that
+ * marks the token consumed (also under a precondition) and creates its successor. A
+ * revocation increments the generation, so a rotation either commits before it, and
+ * its successor is dead on arrival, or fails its precondition; no chain can outlive
+ * a revocation. Users are revoked when they are deactivated, change role or reset
+ * their password, since the stored claims would otherwise outlive the change, and
+ * when one of their consumed tokens is presented again, which means it leaked.
+ * <p>
+ * Each instance caches the token and revocation documents it has written or read,
+ * with their update times. A refresh that hits both caches reads nothing and commits
+ * one batch. If either document changed in the meantime a precondition fails and
+ * both are re-read, so the cache can never rotate a token twice or past a revocation.
+ * <p>
+ * A token is valid for {@code app.jwt.refresh.ttl} after it was issued. Configure a
+ * Firestore TTL policy on {@code expiresAt} to have expired documents deleted.
+ */
+@Slf4j
+@Service
+public class RefreshTokenService {
+
+    static final String COLLECTION = "refresh_tokens";
+    static final String REVOCATIONS = "refresh_token_revocations";
+
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final Backend backend;
+    private final JwtService jwtService;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final SecureRandom random = new SecureRandom();
+    private final Cache<String, Versioned> localCache;
+    private final Cache<String, Revocation> revocations;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * The outcome of a refresh.
+     *
+     * @param accessToken  A new access token.
+     * @param refreshToken The refresh token to use next time.
+     */
+    public record Refreshed(String accessToken, String refreshToken) {
+    }
+
+    @Autowired
+    public RefreshTokenService(Firestore firestore,
+                               JwtService jwtService,
+                               MeterRegistry meterRegistry,
+                               @Value("${app.jwt.refresh.ttl:14d}") Duration ttl,
+                               @Value("${app.jwt.refresh.max-cached:100000}") long maxCached) {
+        this(new FirestoreBackend(firestore), jwtService, meterRegistry, ttl, maxCached, Clock.systemUTC());
+    }
+
+    RefreshTokenService(Backend backend, JwtService jwtService, MeterRegistry meterRegistry,
+                        Duration ttl, long maxCached, Clock clock) {
+        this.backend = backend;
+        this.jwtService = jwtService;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.meterRegistry = meterRegistry;
+        this.localCache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxCached)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "auth.refresh_token");
+        this.revocations = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxCached)
+                .build();
+    }
+
+    /**
+     * Starts a new family, at sign-in.
+     *
+     * @param user       The user signing in.
+     * @param membership The organization and role their access tokens are issued for.
+     * @return The refresh token.
+     */
+    public String issue(Users user, OrganizationMember membership) {
+        // A revocation that lands between this read and the create only makes the new token dead on arrival.
+        long generation = revocationOf(user.getUserId()).generation();
+        RefreshRecord record = new RefreshRecord(user.getUserId(), user.getEmail(), membership.getOrganizationId(),
+                membership.getRole(), UUID.randomUUID().toString(), generation, clock.millis() + ttlMillis, 0);
+        String token = newToken();
+        String hash = digest(token);
+        localCache.put(hash, new Versioned(record, backend.create(hash, record)));
+        count("issued");
+        return token;
+    }
+
+    /**
+     * Exchanges a refresh token for a new access token and a new refresh token.
+     *
+     * @param refreshToken The refresh token from the last sign-in or refresh.
+     * @return The new tokens.
+     * @throws AuthenticationException if the token is unknown, expired, revoked or was
+     *                                 already used; in the last case all of the user's
+     *                                 tokens are revoked.
+     */
+    public Refreshed refresh(String refreshToken) {
+        String hash = digest(refreshToken);
+        Versioned current = localCache.getIfPresent(hash);
+        if (current == null) {
+            current = readThrough(hash);
+        }
+
+        // At most one retry: cached copies that turn out to be stale are replaced by fresh reads.
+        for (int attempt = 0; attempt < 2 && current != null; attempt++) {
+            RefreshRecord record = current.record();
+            long now = clock.millis();
+            if (record.consumedAtMillis() > 0) {
+                localCache.invalidate(hash);
+                revokeUsers(List.of(record.userId()));
+                count("reused");
+                log.warn("Refresh token of user {} was used twice; revoked all of the user's refresh tokens.",
+                        record.userId());
+                throw new AuthenticationException("Invalid refresh token.");
+            }
+            if (record.expiresAtMillis() <= now) {
+                localCache.invalidate(hash);
+                count("expired");
+                throw new AuthenticationException("Refresh token has expired. Please sign in again.");
+            }
+            Revocation revocation = revocationOf(record.userId());
+            if (revocation.generation() != record.generation()) {
+                localCache.invalidate(hash);
+                count("revoked");
+                throw new AuthenticationException("Refresh token has been revoked. Please sign in again.");
+            }
+
+            RefreshRecord successor = record.successor(now + ttlMillis);
+            String nextToken = newToken();
+            String nextHash = digest(nextToken);
+            Optional<Rotated> rotated = backend.rotate(hash, current.version(), now, nextHash, successor, revocation);
+            localCache.invalidate(hash);
+            if (rotated.isPresent()) {
+                localCache.put(nextHash, new Versioned(successor, rotated.get().successorVersion()));
+                revocations.put(record.userId(), new Revocation(revocation.generation(), rotated.get().revocationVersion()));
+                count("rotated");
+                return new Refreshed(jwtService.generateToken(successor.toUser(), successor.toMembership()), nextToken);
+            }
+            // The token was consumed or deleted, or the user revoked, since it was read: re-read and decide again.
+            revocations.invalidate(record.userId());
+            current = readThrough(hash);
+        }
+        count("invalid");
+        throw new AuthenticationException("Invalid refresh token.");
+    }
+
+    /**
+     * Revokes a refresh token, e.g. at logout. Unknown tokens are ignored.
+     * <p>
+     * Only the presented token is deleted: it is the only unconsumed token of its
+     * family, so the family ends with it.
+     *
+     * @param refreshToken The refresh token.
+     */
+    public void revoke(String refreshToken) {
+        String hash = digest(refreshToken);
+        localCache.invalidate(hash);
+        backend.delete(hash);
+    }
+
+    /**
+     * Revokes every refresh token of the given users, including any being rotated
+     * concurrently.
+     *
+     * @param userIds The users.
+     * @throws IllegalStateException if the revocation could not be written.
+     */
+    public void revokeUsers(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        backend.revokeUsers(new ArrayList<>(userIds));
+        revocations.invalidateAll(userIds);
+        log.info("Revoked the refresh tokens of {} users.", userIds.size());
+    }
+
+    private Versioned readThrough(String hash) {
+        Optional<Versioned> stored = backend.read(hash);
+        stored.ifPresent(versioned -> localCache.put(hash, versioned));
+        return stored.orElse(null);
+    }
+
+    private Revocation revocationOf(String userId) {
+        return revocations.get(userId, backend::readRevocation);
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return BASE64URL.encodeToString(bytes);
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void count(String result) {
+        Counter.builder("auth.refresh_tokens")
+                .description("Refresh tokens issued, and refreshes by result")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * The stored form of a refresh token: the claims of the access tokens it mints, its
+     * family, the revocation generation it was issued under, and when it expires and
+     * was consumed (0 if not yet).
+     */
+    record RefreshRecord(String userId, String email, String organizationId, String role,
+                         String familyId, long generation, long expiresAtMillis, long consumedAtMillis) {
+
+        RefreshRecord successor(long newExpiresAtMillis) {
+            return new RefreshRecord(userId, email, organizationId, role, familyId, generation, newExpiresAtMillis, 0);
+        }
+
+        RefreshRecord consumedAt(long millis) {
+            return new RefreshRecord(userId, email, organizationId, role, familyId, generation, expiresAtMillis, millis);
+        }
+
+        Users toUser() {
+            return Users.builder().userId(userId).email(email).build();
+        }
+
+        OrganizationMember toMembership() {
+            return OrganizationMember.builder().userId(userId).organizationId(organizationId).role(role).build();
+        }
+    }
+
+    /**
+     * A refresh record together with the update time of the document it was read from.
+     */
+    record Versioned(RefreshRecord record, Timestamp version) {
+    }
+
+    /**
+     * A user's revocation generation, with the update time of its document, or null
+     * when the user was never revoked and the document does not exist yet.
+     */
+    record Revocation(long generation, Timestamp version) {
+    }
+
+    /**
+     * The update times after a rotation.
+     */
+    record Rotated(Timestamp successorVersion, Timestamp revocationVersion) {
+    }
+
+    /**
+     * The document operations the service needs. {@link #rotate} must be atomic with
+     * respect to the versions it is given, and {@link #revokeUsers} must change the
+     * version of each revocation document.
+     */
+    interface Backend {
+
+        /** Creates the record and returns its document version. */
+        Timestamp create(String hash, RefreshRecord record);
+
+        Optional<Versioned> read(String hash);
+
+        Revocation readRevocation(String userId);
+
+        /**
+         * Marks the record consumed and creates its successor, only if the record is
+         * still at the given version and the user's revocation document is unchanged.
+         *
+         * @return The new versions, or empty if either document changed.
+         */
+        Optional<Rotated> rotate(String hash, Timestamp version, long consumedAtMillis,
+                                 String successorHash, RefreshRecord successor, Revocation revocation);
+
+        /** Increments the revocation generation of each user. */
+        void revokeUsers(List<String> userIds);
+
+        void delete(String hash);
+    }
+
+    /**
+     * {@link Backend} over the Firestore {@code refresh_tokens} and
+     * {@code refresh_token_revocations} collections, using {@code updatedAt}
+     * preconditions for the rotation.
+     */
+    static class FirestoreBackend implements Backend {
+
+        // Firestore takes at most 500 writes per batch.
+        private static final int REVOCATIONS_PER_BATCH = 500;
+        private static final String GENERATION = "generation";
+
+        private final Firestore firestore;
+
+        FirestoreBackend(Firestore firestore) {
+            this.firestore = firestore;
+        }
+
+        @Override
+        public Timestamp create(String hash, RefreshRecord record) {
+            try {
+                return document(hash).create(fieldsOf(record)).get().getUpdateTime();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to store refresh token.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while storing refresh token.", e);
+            }
+        }
+
+        @Override
+        public Optional<Versioned> read(String hash) {
+            try {
+                DocumentSnapshot snapshot = document(hash).get().get();
+                if (!snapshot.exists()) {
+                    return Optional.empty();
+                }
+                Timestamp expiresAt = snapshot.getTimestamp("expiresAt");
+                Timestamp consumedAt = snapshot.getTimestamp("consumedAt");
+                Long generation = snapshot.getLong(GENERATION);
+                RefreshRecord record = new RefreshRecord(
+                        snapshot.getString("userId"),
+                        snapshot.getString("email"),
+                        snapshot.getString("organizationId"),
+                        snapshot.getString("role"),
+                        snapshot.getString("familyId"),
+                        generation == null ? 0 : generation,
+                        expiresAt == null ? 0 : expiresAt.toDate().getTime(),
+                        consumedAt == null ? 0 : consumedAt.toDate().getTime());
+                return Optional.of(new Versioned(record, snapshot.getUpdateTime()));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to read refresh token.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading refresh token.", e);
+            }
+        }
+
+        @Override
+        public Revocation readRevocation(String userId) {
+            try {
+                DocumentSnapshot snapshot = revocation(userId).get().get();
+                if (!snapshot.exists()) {
+                    return new Revocation(0, null);
+                }
+                Long generation = snapshot.getLong(GENERATION);
+                return new Revocation(generation == null ? 0 : generation, snapshot.getUpdateTime());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to read refresh token revocation.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading refresh token revocation.", e);
+            }
+        }
+
+        @Override
+        public Optional<Rotated> rotate(String hash, Timestamp version, long consumedAtMillis,
+                                        String successorHash, RefreshRecord successor, Revocation revocation) {
+            WriteBatch batch = firestore.batch();
+            // Rewriting the unchanged generation keeps the document's update time, so this only
+            // asserts that no revocation happened; concurrent rotations of the user do not conflict.
+            if (revocation.version() == null) {
+                batch.create(revocation(successor.userId()), Map.of(GENERATION, revocation.generation()));
+            } else {
+                batch.update(revocation(successor.userId()), Precondition.updatedAt(revocation.version()),
+                        GENERATION, revocation.generation());
+            }
+            batch.update(document(hash), Precondition.updatedAt(version),
+                    "consumedAt", timestamp(consumedAtMillis));
+            batch.create(document(successorHash), fieldsOf(successor));
+            try {
+                List<WriteResult> results = batch.commit().get();
+                return Optional.of(new Rotated(results.get(2).getUpdateTime(), results.get(0).getUpdateTime()));
+            } catch (ExecutionException e) {
+                // A failed precondition, a document that is already gone, or a revocation document
+                // created meanwhile means another request consumed or revoked the token first.
+                if (FirestoreFutures.hasStatus(e, StatusCode.Code.FAILED_PRECONDITION)
+                        || FirestoreFutures.hasStatus(e, StatusCode.Code.NOT_FOUND)
+                        || FirestoreFutures.hasStatus(e, StatusCode.Code.ALREADY_EXISTS)) {
+                    return Optional.empty();
+                }
+                throw new IllegalStateException("Failed to rotate refresh token.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while rotating refresh token.", e);
+            }
+        }
+
+        @Override
+        public void revokeUsers(List<String> userIds) {
+            try {
+                for (int start = 0; start < userIds.size(); start += REVOCATIONS_PER_BATCH) {
+                    WriteBatch batch = firestore.batch();
+                    userIds.subList(start, Math.min(start + REVOCATIONS_PER_BATCH, userIds.size()))
+                            .forEach(userId -> batch.set(revocation(userId),
+                                    Map.of(GENERATION, FieldValue.increment(1)), SetOptions.merge()));
+                    batch.commit().get();
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to revoke refresh tokens.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while revoking refresh tokens.", e);
+            }
+        }
+
+        @Override
+        public void delete(String hash) {
+            try {
+                document(hash).delete().get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to revoke refresh token.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while revoking refresh token.", e);
+            }
+        }
+
+        private DocumentReference document(String hash) {
+            return firestore.collection(COLLECTION).document(hash);
+        }
+
+        private DocumentReference revocation(String userId) {
+            return firestore.collection(REVOCATIONS).document(userId);
+        }
+
+        private static Map<String, Object> fieldsOf(RefreshRecord record) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("userId", record.userId());
+            data.put("email", record.email());
+            data.put("organizationId", record.organizationId());
+            data.put("role", record.role());
+            data.put("familyId", record.familyId());
+            data.put(GENERATION, record.generation());
+            data.put("expiresAt", timestamp(record.expiresAtMillis()));
+            data.put("consumedAt", null);
+            return data;
+        }
+
+        private static Timestamp timestamp(long millis) {
+            return Timestamp.ofTimeMicroseconds(millis * 1000);
+        }
+    }
+}
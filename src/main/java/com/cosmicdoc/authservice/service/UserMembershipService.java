@@ -2,7 +2,6 @@ package com.cosmicdoc.authservice.service;
 
 import com.cosmicdoc.common.model.OrganizationMember;
 import com.cosmicdoc.common.model.Users;
-import com.cosmicdoc.common.repository.OrganizationMemberRepository;
 import com.cosmicdoc.common.repository.UsersRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
@@ -15,7 +14,7 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class UserMembershipService {
 
-    private final OrganizationMemberRepository memberRepository;
+    private final MembershipCache membershipCache;
     private final UsersRepository userRepository;
 
     /**
@@ -35,6 +34,6 @@ public class UserMembershipService {
         String primaryOrgId = userOptional.get().getOrganizations().get(0);
         
         // Now query for the specific membership
-        return memberRepository.findByUserIdAndOrgId(userId, primaryOrgId);
+        return membershipCache.find(userId, primaryOrgId);
     }
 }
@@ -3,21 +3,31 @@ package com.cosmicdoc.authservice.service;
 import com.cosmicdoc.authservice.dto.request.*;
 import com.cosmicdoc.authservice.dto.response.SignInResponse;
 import com.cosmicdoc.authservice.exception.AuthenticationException;
+import com.cosmicdoc.authservice.exception.ResourceAlreadyExistsException;
 import com.cosmicdoc.authservice.exception.ResourceNotFoundException;
+import com.cosmicdoc.authservice.exception.ServiceOverloadedException;
+import com.cosmicdoc.authservice.repository.AsyncOnboardingRepository;
+import com.cosmicdoc.authservice.repository.FirestoreFutures;
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
+import com.cosmicdoc.authservice.security.AuthEventLogger;
+import com.cosmicdoc.authservice.security.BoundedPasswordEncoder;
 import com.cosmicdoc.authservice.security.JwtService;
+import com.cosmicdoc.authservice.security.UnusablePassword;
 import com.cosmicdoc.common.model.*;
 import com.cosmicdoc.common.repository.*;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.WriteBatch;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 //import org.springframework.transaction.annotation.Transactional;
 import com.google.cloud.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import com.google.cloud.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -40,33 +50,66 @@ public class UserOnboardingService {
     private final VerificationTokenRepository verificationTokenRepository;
     private final PasswordResetTokenRepository passwordResetTokenRepository;
     private final UserMembershipService userMembershipService;
+    private final MembershipCache membershipCache;
     private final NotificationService notificationService;
-    private final PasswordEncoder passwordEncoder;
+    private final BoundedPasswordEncoder passwordEncoder;
     private final TokenService tokenService;
     private final Firestore firestore;
     private final OtpService otpService;
     private final JwtService jwtService;
+    private final RefreshTokenService refreshTokens;
+    private final PasswordRehashService passwordRehashService;
+    private final AuthEventLogger authEvents;
+    private final AuthPhaseTimers phaseTimers;
+    private final LastLoginWriteBehindBuffer lastLoginBuffer;
+    private final UserLookupIndex userLookupIndex;
+    private final LoginProjectionStore loginProjections;
+    private final AsyncOnboardingRepository onboardingRepository;
 
     // TODO: You would also inject a VerificationTokenRepository for verify/reset flows.
 
     /**
      * Handles the complete signup process for a new Super Admin and their organization.
-     * This is a transactional operation that creates multiple documents in Firestore.
+     * All documents are created in a single atomic Firestore batch.
+     * <p>
+     * The email and organization-name checks and the hashing of the placeholder password
+     * run concurrently, and the whole flow is composed on futures, so no request thread
+     * waits for Firestore. The checks only let signup fail fast: uniqueness is enforced by
+     * the email and organization-name reservation documents created in the batch.
      *
      * @param request The signup request containing organization and user details.
-     * @throws IllegalStateException if the email or organization name already exists.
-     * @throws ExecutionException | InterruptedException if the Firestore operation fails.
+     * @return A future that completes once the documents are committed. It fails with an
+     *         {@link ResourceAlreadyExistsException} if the email or organization name already exists,
+     *         and with a {@link ServiceOverloadedException} if password hashing is saturated.
      */
-   // @Transactional // Ensures all database writes within this method are atomic
-    public void signupSuperAdmin(SuperAdminSignupRequest request) throws ExecutionException, InterruptedException {
-        // 1. Pre-condition validation: Ensure email and organization are unique.
-        if (userRepository.findByEmail(request.getEmail()).isPresent()) {
-            throw new IllegalStateException("An account with this email already exists.");
-        }
-        if (organizationRepository.findByOrganizationName(request.getOrganizationName()).isPresent()) {
-            throw new IllegalStateException("An organization with this name already exists.");
-        }
+    public CompletableFuture<Void> signupSuperAdmin(SuperAdminSignupRequest request) {
+        long startNanos = System.nanoTime();
+
+        // 1. Pre-condition validation: Ensure email and organization are unique (both checks in flight at once).
+        CompletableFuture<Void> uniquenessChecked = onboardingRepository.emailTaken(request.getEmail())
+                .thenCombine(onboardingRepository.organizationNameTaken(request.getOrganizationName()),
+                        (emailTaken, organizationNameTaken) -> {
+                            phaseTimers.record(AuthPhaseTimers.Phase.SIGNUP_CHECK_UNIQUENESS, startNanos);
+                            if (emailTaken) {
+                                throw new ResourceAlreadyExistsException("An account with this email already exists.");
+                            }
+                            if (organizationNameTaken) {
+                                throw new ResourceAlreadyExistsException("An organization with this name already exists.");
+                            }
+                            return null;
+                        });
+
+        // User will set their password upon verification. Store a secure, non-loginable hash for now.
+        CompletableFuture<String> unusableHash = passwordEncoder.encodeAsync(UUID.randomUUID().toString())
+                .whenComplete((hash, failure) -> phaseTimers.record(AuthPhaseTimers.Phase.SIGNUP_HASH_PASSWORD, startNanos));
+
+        return uniquenessChecked
+                .thenCombine(unusableHash, (checked, hash) -> hash)
+                .thenCompose(hash -> createSignupDocuments(request, hash))
+                .whenComplete((done, failure) -> phaseTimers.record(AuthPhaseTimers.Phase.SIGNUP_TOTAL, startNanos));
+    }
 
+    private CompletableFuture<Void> createSignupDocuments(SuperAdminSignupRequest request, String unusableHash) {
         // 2. Generate unique, readable IDs for the new documents.
         String orgId = "org_" + UUID.randomUUID().toString();
         String userId = "user_" + UUID.randomUUID().toString();
@@ -76,8 +119,7 @@ public class UserOnboardingService {
         Users newUser = Users.builder()
                 .userId(userId)
                 .email(request.getEmail())
-                // User will set their password upon verification. Store a secure, non-loginable hash for now.
-                .hashedPassword(passwordEncoder.encode(UUID.randomUUID().toString()))
+                .hashedPassword(unusableHash)
                 .status(UserStatus.PENDING_VERIFICATION)
                 .displayName(request.getEmail().split("@")[0]) // A sensible default display name
                 .mobileNumber(request.getMobileNumber())
@@ -87,7 +129,7 @@ public class UserOnboardingService {
         Organization newOrg = Organization.builder()
                 .orgId(orgId)
                 .name(request.getOrganizationName())
-                .normalizedName(request.getOrganizationName().toLowerCase().trim())
+                .normalizedName(AsyncOnboardingRepository.normalizeOrganizationName(request.getOrganizationName()))
                 .status("ACTIVE") // The org is active immediately
                 .hasMultipleBranches(request.isHasMultipleBranches())
                 .build();
@@ -115,21 +157,39 @@ public class UserOnboardingService {
                 .build();
 
         // 4. Use a Firestore WriteBatch to perform an atomic multi-document transaction.
+        //    The email and organization-name reservations are created, not set, so a concurrent
+        //    signup with the same email or name makes this batch fail as a whole.
         WriteBatch batch = firestore.batch();
 
         userRepository.saveInTransaction(batch, newUser);
+        userLookupIndex.indexInBatch(batch, newUser);
         organizationRepository.saveInTransaction(batch, newOrg);
+        onboardingRepository.reserveOrganizationName(batch, request.getOrganizationName(), orgId);
         branchRepository.saveInTransaction(batch, orgId, initialBranch);
         memberRepository.saveInTransaction(batch, membership);
+        loginProjections.putInBatch(batch, newUser, membership.getRole());
         verificationTokenRepository.saveInTransaction(batch,verificationToken);
 
-        batch.commit().get();
-
-        // 6. Post-transaction action: Send a verification email.
-        // TODO: In a real app, you would generate a secure verification token,
-        //       save it to a 'verification_tokens' collection with a TTL,
-        //       and call a NotificationService to send the email with the token.
-        notificationService.sendVerificationEmail(request.getEmail(), tokenString);
+        long commitStart = System.nanoTime();
+        return onboardingRepository.commit(batch)
+                .handle((committed, failure) -> {
+                    long phaseStart = phaseTimers.record(AuthPhaseTimers.Phase.SIGNUP_COMMIT_BATCH, commitStart);
+                    if (failure != null) {
+                        if (FirestoreFutures.hasStatus(failure, StatusCode.Code.ALREADY_EXISTS)) {
+                            throw new ResourceAlreadyExistsException("An account with this email or an organization with this name already exists.");
+                        }
+                        throw failure instanceof CompletionException completionException
+                                ? completionException
+                                : new CompletionException(failure);
+                    }
+
+                    membershipCache.put(membership);
+
+                    // 6. Post-transaction action: Send a verification email (asynchronously).
+                    notificationService.sendVerificationEmail(request.getEmail(), tokenString);
+                    phaseTimers.record(AuthPhaseTimers.Phase.SIGNUP_SEND_VERIFICATION, phaseStart);
+                    return null;
+                });
     }
 
     /**
@@ -140,59 +200,46 @@ public class UserOnboardingService {
      * @throws AuthenticationException if credentials are invalid or user is not active.
      */
     public SignInResponse signIn(SignInRequest request) throws AuthenticationException {
+        long startNanos = System.nanoTime();
+        long phaseStart = startNanos;
         try {
-            System.out.println("DEBUG: Starting authentication for email: " + request.getEmail());
-            
             // 1. Find the user by email. Throw a generic error to prevent email enumeration attacks.
-            Users user = userRepository.findByEmail(request.getEmail())
-                    .orElseThrow(() -> new AuthenticationException("Invalid email or password."));
-            
-            System.out.println("DEBUG: User found: " + user.getUserId());
+            //    The login projection holds the user and their default role in one document; users
+            //    without a complete one are looked up the old way and their projection is repaired.
+            LoginProjectionStore.LoginProjection projection = loginProjections.find(request.getEmail()).orElse(null);
+            Users user = projection != null
+                    ? projection.toUser()
+                    : userLookupIndex.findByEmail(request.getEmail()).orElse(null);
+            phaseStart = phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_LOOKUP_USER, phaseStart);
+            if (user == null) {
+                authEvents.signInFailed(AuthEventLogger.SignInFailure.UNKNOWN_EMAIL, null);
+                throw new AuthenticationException("Invalid email or password.");
+            }
 
             // 2. Verify the user's account status.
             if (user.getStatus() != UserStatus.ACTIVE) {
-                System.out.println("DEBUG: User status check failed. Status: " + user.getStatus());
+                authEvents.signInFailed(AuthEventLogger.SignInFailure.ACCOUNT_NOT_ACTIVE, user.getUserId());
                 throw new AuthenticationException("User account is not active. Please verify your email or contact support.");
             }
-            
-            System.out.println("DEBUG: User status is active");
 
             // 3. Securely compare the provided password with the stored hash.
-            System.out.println("DEBUG: Retrieved hashed password: " + 
-                (user.getHashedPassword() == null ? "NULL" : 
-                 (user.getHashedPassword().isEmpty() ? "EMPTY" : 
-                  "LENGTH=" + user.getHashedPassword().length())));
-            System.out.println("DEBUG: Input password: " + 
-                (request.getPassword() == null ? "NULL" : 
-                 (request.getPassword().isEmpty() ? "EMPTY" : 
-                  "LENGTH=" + request.getPassword().length())));
-                  
-            // Check explicitly for null or empty password hash
-            if (user.getHashedPassword() == null || user.getHashedPassword().isEmpty()) {
-                System.out.println("DEBUG: Password verification failed - stored hash is null or empty");
-                throw new AuthenticationException("Invalid email or password - missing password hash.");
+            if (UnusablePassword.isUnusable(user.getHashedPassword())) {
+                authEvents.signInFailed(AuthEventLogger.SignInFailure.MISSING_PASSWORD_HASH, user.getUserId());
+                throw new AuthenticationException("Invalid email or password.");
             }
-            
-            System.out.println("DEBUG: Comparing password hash using BCrypt");
-            
-            try {
-                System.out.println("DEBUG: About to compare passwords");
-                System.out.println("DEBUG: Input password: '" + request.getPassword() + "'");
-                System.out.println("DEBUG: Stored hash: '" + user.getHashedPassword() + "'");
-                
-                boolean matches = passwordEncoder.matches(request.getPassword(), user.getHashedPassword());
-                System.out.println("DEBUG: Password match result: " + matches);
-                
-                if (!matches) {
-                    System.out.println("DEBUG: Password verification failed - BCrypt mismatch");
-                    throw new AuthenticationException("Invalid email or password.");
-                }
-                
-                System.out.println("DEBUG: Password verification passed");
-            } catch (Exception e) {
-                System.out.println("DEBUG: Exception during password comparison: " + e.getMessage());
-                e.printStackTrace();
-                throw new AuthenticationException("Error during password verification: " + e.getMessage());
+
+            // Every password change writes the projection in the same batch, so a mismatch is a wrong
+            // password; it is not retried against the user document.
+            boolean passwordMatches = passwordEncoder.matches(request.getPassword(), user.getHashedPassword());
+            phaseStart = phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_VERIFY_PASSWORD, phaseStart);
+            if (!passwordMatches) {
+                authEvents.signInFailed(AuthEventLogger.SignInFailure.BAD_PASSWORD, user.getUserId());
+                throw new AuthenticationException("Invalid email or password.");
+            }
+
+            // Hashes created with a lower BCrypt cost than the current one are upgraded in the background.
+            if (passwordEncoder.upgradeEncoding(user.getHashedPassword())) {
+                passwordRehashService.upgradeHash(user.getUserId(), user.getHashedPassword(), request.getPassword());
             }
 
             // 4. A user can belong to multiple orgs. For a simple sign-in, we log them into their first org.
@@ -200,18 +247,28 @@ public class UserOnboardingService {
             //    If the user has no organizations, we'll create a basic JWT without org-specific claims
             String defaultOrgId = null;
             OrganizationMember membership = null;
-            
+            String projectedRole = projection == null ? null : projection.defaultRole();
+
             if (user.getOrganizations() != null && !user.getOrganizations().isEmpty()) {
                 defaultOrgId = user.getOrganizations().stream().findFirst().get();
-                System.out.println("DEBUG: Found default organization: " + defaultOrgId);
 
-                membership = memberRepository.findByUserIdAndOrgId(user.getUserId(), defaultOrgId)
-                        .orElse(null);
-                        
-                if (membership != null) {
-                    System.out.println("DEBUG: Found membership for user in organization");
+                if (projectedRole != null) {
+                    membership = OrganizationMember.builder()
+                            .userId(user.getUserId())
+                            .organizationId(defaultOrgId)
+                            .role(projectedRole)
+                            .build();
                 } else {
-                    System.out.println("DEBUG: No membership found for user in organization: " + defaultOrgId);
+                    membership = membershipCache.find(user.getUserId(), defaultOrgId)
+                            .orElse(null);
+                    phaseStart = phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_LOOKUP_MEMBERSHIP, phaseStart);
+                    if (membership != null || projection == null) {
+                        loginProjections.repair(user.getUserId());
+                    }
+                }
+
+                if (membership == null) {
+                    authEvents.debug("membership_missing", user.getUserId(), defaultOrgId);
                     // Create a default membership for authentication purposes
                     membership = new OrganizationMember();
                     membership.setUserId(user.getUserId());
@@ -219,50 +276,56 @@ public class UserOnboardingService {
                     membership.setRole("USER"); // Default role
                 }
             } else {
-                System.out.println("DEBUG: User has no organizations, proceeding with basic authentication");
+                authEvents.debug("no_organizations", user.getUserId(), null);
                 // Create a temporary membership object for the JWT generation
                 membership = new OrganizationMember();
                 membership.setUserId(user.getUserId());
                 membership.setOrganizationId("NO_ORG"); // Special marker
                 membership.setRole("USER"); // Default role
+                if (projection == null) {
+                    loginProjections.repair(user.getUserId());
+                }
             }
 
             // 5. Generate the JWT with user and tenant context.
             String token = jwtService.generateToken(user, membership);
-            System.out.println("DEBUG: JWT token generated successfully");
+            phaseStart = phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_SIGN_TOKEN, phaseStart);
+            String refreshToken = refreshTokens.issue(user, membership);
+            phaseStart = phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_ISSUE_REFRESH_TOKEN, phaseStart);
 
-            // 6. Update the last login timestamp (fire-and-forget is acceptable here).
-            userRepository.updateLastLogin(user.getUserId());
-            System.out.println("DEBUG: Last login timestamp updated");
+            // 6. Record the last login timestamp; it is written to Firestore in batches by the write-behind buffer.
+            lastLoginBuffer.record(user.getUserId());
+            phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_UPDATE_LAST_LOGIN, phaseStart);
 
             // 7. Build the rich SignInResponse object with safety checks
             SignInResponse.SignInResponseBuilder responseBuilder = SignInResponse.builder()
                     .token(token)
+                    .refreshToken(refreshToken)
                     .userId(user.getUserId())
                     .displayName(user.getDisplayName());
-                    
+
             // Add organization information if available
             if (membership != null && membership.getRole() != null) {
                 responseBuilder.role(membership.getRole());
             } else {
                 responseBuilder.role("USER"); // Default role if none available
             }
-            
+
             // Add organizations if available, otherwise empty list
             if (user.getOrganizations() != null) {
                 responseBuilder.organizations(user.getOrganizations());
             }
-            
-            SignInResponse response = responseBuilder.build();
-                    
-            System.out.println("DEBUG: Sign-in response built successfully");
-            return response;
+
+            authEvents.signInSucceeded(user.getUserId(), membership.getOrganizationId(), membership.getRole());
+            return responseBuilder.build();
+        } catch (AuthenticationException | ServiceOverloadedException e) {
+            throw e;
         } catch (Exception e) {
-            System.out.println("DEBUG: Exception during sign-in: " + e.getMessage());
-            e.printStackTrace();
+            authEvents.signInError(e);
             throw new AuthenticationException("An internal error occurred during sign-in.");
+        } finally {
+            phaseTimers.record(AuthPhaseTimers.Phase.SIGN_IN_TOTAL, startNanos);
         }
-
     }
 
     /**
@@ -317,6 +380,9 @@ public class UserOnboardingService {
 
             var userDocRef = firestore.collection("users").document(userId);
             batch.update(userDocRef, userUpdates); // Update the user document
+            loginProjections.updateInBatch(batch, user.getEmail(), Map.of(
+                    LoginProjectionStore.HASHED_PASSWORD, newHashedPassword,
+                    LoginProjectionStore.STATUS, UserStatus.ACTIVE.name()));
 
             // Use the repository method to delete the token within the same transaction
             verificationTokenRepository.deleteInTransaction(batch, token.getToken());
@@ -341,7 +407,7 @@ public class UserOnboardingService {
      */
     public void forgotPassword(ForgotPasswordRequest request) {
         // 1. Look up the user by email.
-        Optional<Users> userOptional = userRepository.findByEmail(request.getEmail());
+        Optional<Users> userOptional = userLookupIndex.findByEmail(request.getEmail());
 
         // 2. Security Check: If no user is found, we immediately exit.
         //    We DO NOT throw an error. This prevents attackers from using this endpoint
@@ -410,6 +476,8 @@ public class UserOnboardingService {
 
         var userDocRef = firestore.collection("users").document(token.getUserId());
         batch.update(userDocRef, userUpdates); // Operation 1: Update the user's password
+        loginProjections.updateInBatch(batch, token.getEmail(),
+                Map.of(LoginProjectionStore.HASHED_PASSWORD, newHashedPassword));
 
         var tokenDocRef = firestore.collection("password_reset_tokens").document(token.getToken());
         batch.delete(tokenDocRef); // Operation 2: Delete the token so it cannot be reused
@@ -421,6 +489,8 @@ public class UserOnboardingService {
             // If the transaction fails, wrap it in a standard runtime exception.
             throw new RuntimeException("Failed to process password reset.", e);
         }
+        // Sessions started with the old password must not be able to refresh.
+        refreshTokens.revokeUsers(List.of(token.getUserId()));
     }
     
     /**
@@ -441,7 +511,7 @@ public class UserOnboardingService {
         }
         
         // 2. Find the user by mobile number
-        Optional<Users> userOptional = userRepository.findByPhone(request.getMobile());
+        Optional<Users> userOptional = userLookupIndex.findByPhone(request.getMobile());
         if (userOptional.isEmpty()) {
             throw new ResourceNotFoundException("No user found with this mobile number.");
         }
@@ -454,13 +524,19 @@ public class UserOnboardingService {
         // 4. Update the user's password
         user.setHashedPassword(newHashedPassword);
         
-        // 5. Save the updated user
+        // 5. Save the updated user and its login projection together
         try {
-            userRepository.save(user);
+            WriteBatch batch = firestore.batch();
+            userRepository.saveInTransaction(batch, user);
+            loginProjections.updateInBatch(batch, user.getEmail(),
+                    Map.of(LoginProjectionStore.HASHED_PASSWORD, newHashedPassword));
+            batch.commit().get();
             System.out.println("Password reset successful for user: " + user.getUserId());
         } catch (Exception e) {
             throw new RuntimeException("Failed to reset password: " + e.getMessage(), e);
         }
+        // Sessions started with the old password must not be able to refresh.
+        refreshTokens.revokeUsers(List.of(user.getUserId()));
     }
 
   }
@@ -0,0 +1,70 @@
+package com.cosmicdoc.authservice.test;
+
+import com.cosmicdoc.authservice.security.BCryptCostCalibrator;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Measures BCrypt hash and verify latency for a range of strengths on the current
+ * machine, and shows which strength the startup calibration would pick.
+ * <p>
+ * Unlike BCryptTest, which checks a single stored hash, this measures the cost side of
+ * the trade-off so the configured strength is based on numbers rather than guesses.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.test.BCryptCostBenchmark [minStrength] [maxStrength] [targetMs]
+ */
+public class BCryptCostBenchmark {
+
+    public static void main(String[] args) {
+        int minStrength = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int maxStrength = args.length > 1 ? Integer.parseInt(args[1]) : 13;
+        long targetMs = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+        String password = "SecurePass123!";
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("BCrypt cost benchmark (" + cores + " cores)");
+        System.out.println("==============================");
+        System.out.println("strength   encode p50   encode max   matches p50   max logins/s (all cores)");
+
+        for (int strength = minStrength; strength <= maxStrength; strength++) {
+            BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+            // Fewer samples at high cost so the whole run stays within a few minutes.
+            int samples = Math.max(3, Math.min(50, 1 << Math.max(0, 14 - strength)));
+
+            // Warm-up
+            String hash = encoder.encode(password);
+            encoder.matches(password, hash);
+
+            long[] encodeNanos = new long[samples];
+            long[] matchesNanos = new long[samples];
+            for (int i = 0; i < samples; i++) {
+                long start = System.nanoTime();
+                hash = encoder.encode(password);
+                encodeNanos[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                if (!encoder.matches(password, hash)) {
+                    throw new IllegalStateException("Hash did not verify at strength " + strength);
+                }
+                matchesNanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(encodeNanos);
+            Arrays.sort(matchesNanos);
+
+            double matchesP50Ms = matchesNanos[samples / 2] / 1_000_000.0;
+            System.out.printf("%8d   %8.1f ms  %8.1f ms   %8.1f ms   %12.0f%n",
+                    strength,
+                    encodeNanos[samples / 2] / 1_000_000.0,
+                    encodeNanos[samples - 1] / 1_000_000.0,
+                    matchesP50Ms,
+                    cores * 1000.0 / matchesP50Ms);
+        }
+
+        System.out.println();
+        int calibrated = BCryptCostCalibrator.calibrate(Duration.ofMillis(targetMs), minStrength, maxStrength);
+        System.out.println("Calibrated strength for a " + targetMs + " ms target: " + calibrated);
+    }
+}
@@ -0,0 +1,162 @@
+package com.cosmicdoc.authservice.test;
+
+import com.cosmicdoc.authservice.security.JwtKeyRing;
+import com.cosmicdoc.authservice.security.JwtService;
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.Users;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shows that signing and verifying tokens is as fast while the key ring is being
+ * rotated as when it is not.
+ * <p>
+ * Worker threads sign a token and verify it, back to back, for two phases of equal
+ * length: first with a fixed ring, then while another thread installs a new ring (new
+ * active key, the previous two kept for verification) every few milliseconds, far more
+ * often than any real rotation. Each phase reports throughput, latency percentiles and
+ * verification failures, which must be zero.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.test.JwtKeyRingBenchmark [threads] [seconds per phase] [rotation interval ms]
+ */
+public class JwtKeyRingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long rotationMillis = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+        Path file = Files.createTempFile("jwt-key-ring", ".json");
+        Deque<ECKey> keys = new ArrayDeque<>();
+        keys.addFirst(JwtKeyRing.newKey());
+        write(file, keys);
+
+        JwtKeyRing keyRing = new JwtKeyRing("", "file:" + file, false, Duration.ofHours(1), null, new SimpleMeterRegistry());
+        JwtService jwtService = new JwtService(keyRing, 3_600_000);
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(keyRing.keySelector());
+        JwtDecoder decoder = new NimbusJwtDecoder(processor);
+
+        Users user = Users.builder().userId("user_1").email("asha@hospital.example").build();
+        OrganizationMember membership = OrganizationMember.builder()
+                .userId("user_1").organizationId("org_1").role("ROLE_DOCTOR").build();
+
+        System.out.printf("%d threads, %d s per phase, rotation every %d ms%n", threads, seconds, rotationMillis);
+        run("warm-up", threads, 2, jwtService, decoder, user, membership, null);
+        run("steady", threads, seconds, jwtService, decoder, user, membership, null);
+        AtomicLong rotations = new AtomicLong();
+        run("rotating", threads, seconds, jwtService, decoder, user, membership, () -> {
+            keys.addFirst(JwtKeyRing.newKey());
+            while (keys.size() > 3) {
+                keys.removeLast();
+            }
+            write(file, keys);
+            keyRing.reload();
+            rotations.incrementAndGet();
+            Thread.sleep(rotationMillis);
+        });
+        System.out.printf("%d rotations%n", rotations.get());
+        Files.deleteIfExists(file);
+    }
+
+    private interface Rotation {
+        void rotate() throws Exception;
+    }
+
+    private static void run(String phase, int threads, int seconds, JwtService jwtService, JwtDecoder decoder,
+                            Users user, OrganizationMember membership, Rotation rotation) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong failures = new AtomicLong();
+        long[][] latencies = new long[threads][];
+        int[] counts = new int[threads];
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers[t] = new Thread(() -> {
+                long[] samples = new long[1 << 20];
+                int count = 0;
+                while (running.get()) {
+                    long start = System.nanoTime();
+                    try {
+                        decoder.decode(jwtService.generateToken(user, membership));
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                    if (count == samples.length) {
+                        samples = Arrays.copyOf(samples, count * 2);
+                    }
+                    samples[count++] = System.nanoTime() - start;
+                }
+                latencies[index] = samples;
+                counts[index] = count;
+            });
+        }
+        Thread rotator = rotation == null ? null : new Thread(() -> {
+            try {
+                while (running.get()) {
+                    rotation.rotate();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        long startNanos = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        if (rotator != null) {
+            rotator.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (rotator != null) {
+            rotator.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int offset = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, all, offset, counts[t]);
+            offset += counts[t];
+        }
+        Arrays.sort(all);
+        System.out.printf("%-9s %,10.0f sign+verify/s   p50 %6.1f us   p99 %6.1f us   p99.9 %7.1f us   failures %d%n",
+                phase, total / elapsedSeconds,
+                all[(int) (total * 0.50)] / 1e3, all[(int) (total * 0.99)] / 1e3, all[(int) (total * 0.999)] / 1e3,
+                failures.get());
+    }
+
+    private static void write(Path file, Deque<ECKey> keys) throws Exception {
+        String jwks = new JWKSet(List.copyOf(keys).stream().map(key -> (com.nimbusds.jose.jwk.JWK) key).toList())
+                .toString(false);
+        String ring = "{\"" + JwtKeyRing.ACTIVE_KID + "\":\"" + keys.getFirst().getKeyID() + "\","
+                + jwks.substring(1);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, ring, StandardCharsets.UTF_8);
+        Files.move(temp, file, java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,109 @@
+package com.cosmicdoc.authservice.test;
+
+import com.cosmicdoc.authservice.service.HmacOtpGenerator;
+import com.cosmicdoc.authservice.service.InMemoryOtpStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the stored OTP mode (InMemoryOtpStore) with the stateless HMAC mode
+ * (HmacOtpGenerator) for a full issue-and-validate cycle.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.test.OtpModeBenchmark [threads] [mobiles]
+ */
+public class OtpModeBenchmark {
+
+    private static final String SECRET = "benchmark-secret-benchmark-secret-benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int mobiles = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        System.out.println("OTP mode benchmark: " + threads + " threads, " + mobiles + " mobiles per round");
+        System.out.println("=====================================================");
+
+        for (int round = 1; round <= 3; round++) {
+            System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+
+            InMemoryOtpStore store = new InMemoryOtpStore(new SimpleMeterRegistry(), 300, 5, mobiles * 2);
+            long storedNanos = run(threads, mobiles, mobile -> {
+                store.put(mobile, "123456", "login");
+                if (!store.verifyAndConsume(mobile, "123456", "login")) {
+                    throw new IllegalStateException("stored OTP did not validate");
+                }
+            });
+            report("stored   ", mobiles, storedNanos);
+
+            HmacOtpGenerator generator = new HmacOtpGenerator(SECRET, 150, 5, mobiles, true);
+            long statelessNanos = run(threads, mobiles, mobile -> {
+                String otp = generator.generate(mobile, "login");
+                if (!generator.verifyAndConsume(mobile, otp, "login")) {
+                    throw new IllegalStateException("stateless OTP did not validate");
+                }
+            });
+            report("stateless", mobiles, statelessNanos);
+        }
+
+        // Memory held while OTPs are outstanding: the stored mode grows with every issued
+        // code, the stateless mode only keeps its fixed-size replay and attempt filters.
+        InMemoryOtpStore store = new InMemoryOtpStore(new SimpleMeterRegistry(), 300, 5, mobiles * 2);
+        long heapBefore = usedHeap();
+        for (int i = 0; i < mobiles; i++) {
+            store.put("9" + String.format("%09d", i), "123456", "login");
+        }
+        long storedHeap = usedHeap() - heapBefore;
+        System.out.printf("%nHeap with %,d outstanding OTPs: stored %,d KB%n", mobiles, storedHeap / 1024);
+
+        heapBefore = usedHeap();
+        HmacOtpGenerator generator = new HmacOtpGenerator(SECRET, 150, 5, mobiles, true);
+        for (int i = 0; i < mobiles; i++) {
+            generator.generate("9" + String.format("%09d", i), "login");
+        }
+        System.out.printf("Heap with %,d outstanding OTPs: stateless %,d KB%n",
+                mobiles, (usedHeap() - heapBefore) / 1024);
+        // Keep both alive until after the last measurement.
+        System.out.println("(" + store.size() + " stored entries, generator " + generator.generate("9000000000", "login") + ")");
+    }
+
+    private static long run(int threads, int mobiles, OtpCycle cycle) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = thread; i < mobiles; i += threads) {
+                    cycle.run("9" + String.format("%09d", i));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        return elapsed;
+    }
+
+    private static void report(String mode, int mobiles, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        System.out.printf("  %s  %,12.0f cycles/s  %8.2f us/cycle%n", mode, mobiles / seconds, nanos / 1000.0 / mobiles);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @FunctionalInterface
+    private interface OtpCycle {
+        void run(String mobile);
+    }
+}
@@ -1,9 +1,13 @@
 package com.cosmicdoc.authservice.test;
 
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.firebase.cloud.FirestoreClient;
@@ -75,8 +79,12 @@ public class PasswordResetUtility {
             Map<String, Object> updates = new HashMap<>();
             updates.put("hashedPassword", hashedPassword);
             
-            // Apply the update
-            userRef.update(updates).get();
+            // Apply the update to the user and its login projection
+            WriteBatch batch = firestore.batch();
+            batch.update(userRef, updates);
+            batch.set(firestore.collection(LoginProjectionStore.COLLECTION).document(UserLookupIndex.normalizeEmail(email)),
+                    updates, SetOptions.merge());
+            batch.commit().get();
             
             System.out.println("Password successfully reset for user: " + email);
             System.out.println("New password hash: " + hashedPassword);
@@ -0,0 +1,97 @@
+package com.cosmicdoc.authservice.test;
+
+import com.cosmicdoc.authservice.repository.UserBatchReader;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.WriteBatch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows how listing an organization's users scales with the organization size: one
+ * get per member (the old N+1 path) against {@link UserBatchReader}'s parallel,
+ * chunked multi-gets.
+ * <p>
+ * Runs against the Firestore emulator only, since it seeds its own users: start it
+ * with {@code gcloud emulators firestore start --host-port=localhost:8085} and set
+ * FIRESTORE_EMULATOR_HOST=localhost:8085. The emulator has almost no round-trip
+ * latency, so the gap is much wider against real Firestore, where every sequential
+ * get pays a network round trip.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.test.UserBatchReadBenchmark [runs]
+ */
+public class UserBatchReadBenchmark {
+
+    private static final int[] ORGANIZATION_SIZES = {10, 50, 100, 400, 1000};
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("FIRESTORE_EMULATOR_HOST") == null) {
+            System.out.println("Set FIRESTORE_EMULATOR_HOST to run this benchmark against the Firestore emulator.");
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        Firestore firestore = FirestoreOptions.getDefaultInstance().toBuilder()
+                .setProjectId("benchmark")
+                .build()
+                .getService();
+        UserBatchReader reader = new UserBatchReader(firestore, new SimpleMeterRegistry());
+
+        int maxSize = Arrays.stream(ORGANIZATION_SIZES).max().getAsInt();
+        List<String> allIds = new ArrayList<>();
+        for (int start = 0; start < maxSize; start += 500) {
+            WriteBatch batch = firestore.batch();
+            for (int i = start; i < Math.min(start + 500, maxSize); i++) {
+                String userId = "batch_user_" + i;
+                allIds.add(userId);
+                batch.set(firestore.collection("users").document(userId),
+                        Map.of("userId", userId, "email", userId + "@example.com", "status", "ACTIVE"));
+            }
+            batch.commit().get();
+        }
+
+        System.out.println("Listing users of an organization (" + runs + " runs per size, median)");
+        System.out.println("=============================================================");
+        System.out.println("   members   one get per member   UserBatchReader   speed-up");
+
+        for (int size : ORGANIZATION_SIZES) {
+            List<String> ids = allIds.subList(0, size);
+            long[] sequential = new long[runs];
+            long[] batched = new long[runs];
+
+            // Warm-up
+            readSequentially(firestore, ids);
+            reader.findAllByIds(ids);
+
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                readSequentially(firestore, ids);
+                sequential[run] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                UserBatchReader.Result result = reader.findAllByIds(ids);
+                batched[run] = System.nanoTime() - start;
+                if (result.found().size() != size) {
+                    throw new IllegalStateException("Expected " + size + " users, got " + result.found().size());
+                }
+            }
+            Arrays.sort(sequential);
+            Arrays.sort(batched);
+            double sequentialMs = sequential[runs / 2] / 1e6;
+            double batchedMs = batched[runs / 2] / 1e6;
+            System.out.printf("%10d   %15.1f ms   %12.1f ms   %7.1fx%n", size, sequentialMs, batchedMs,
+                    sequentialMs / batchedMs);
+        }
+        firestore.close();
+    }
+
+    private static void readSequentially(Firestore firestore, List<String> ids) throws Exception {
+        for (String id : ids) {
+            firestore.collection("users").document(id).get().get();
+        }
+    }
+}
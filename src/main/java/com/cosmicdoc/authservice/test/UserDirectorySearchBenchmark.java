@@ -0,0 +1,81 @@
+package com.cosmicdoc.authservice.test;
+
+import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.service.OrganizationUserDirectory;
+import com.cosmicdoc.common.model.UserStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures building and searching an organization's in-memory user directory with
+ * synthetic users. Needs no Firestore.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.test.UserDirectorySearchBenchmark [users] [searches]
+ */
+public class UserDirectorySearchBenchmark {
+
+    private static final String[] FIRST_NAMES = {"Aarav", "Ananya", "Rohan", "Priya", "Jos\u00e9", "Zo\u00eb", "Mei", "Omar", "Fatima", "Lukas"};
+    private static final String[] LAST_NAMES = {"Sharma", "Iyer", "G\u00f3mez", "Chen", "M\u00fcller", "Okafor", "Nair", "Khan", "Smith", "Rossi"};
+
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int searches = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        List<UserDetailResponse> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            String first = FIRST_NAMES[i % FIRST_NAMES.length];
+            String last = LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+            users.add(UserDetailResponse.builder()
+                    .userId("user_" + i)
+                    .displayName(first + " " + last + " " + i)
+                    .email(first.toLowerCase() + "." + i + "@hospital.example")
+                    .status(UserStatus.ACTIVE)
+                    .role("ROLE_DOCTOR")
+                    .build());
+        }
+
+        // The first rounds include JIT warm-up; the last one is representative.
+        OrganizationUserDirectory.Directory directory = null;
+        long buildNanos = 0;
+        long upsertNanos = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            directory = OrganizationUserDirectory.Directory.of(users);
+            buildNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                directory = directory.with(UserDetailResponse.builder()
+                        .userId("user_" + i)
+                        .displayName("Renamed User " + i)
+                        .email("renamed" + i + "@hospital.example")
+                        .build());
+            }
+            upsertNanos = (System.nanoTime() - start) / 100;
+        }
+        System.out.printf("Directory of %d users: build %.1f ms, upsert of one user %.2f ms%n",
+                directory.size(), buildNanos / 1e6, upsertNanos / 1e6);
+
+        String[] queries = {"a", "ro", "gom", "zoe", "mull", "priya.1", "smith 12", "chen 19999", "x"};
+        // Warm-up
+        for (int i = 0; i < searches; i++) {
+            directory.search(queries[i % queries.length], 10);
+        }
+
+        long[] nanos = new long[searches];
+        int found = 0;
+        for (int i = 0; i < searches; i++) {
+            String query = queries[ThreadLocalRandom.current().nextInt(queries.length)];
+            long start = System.nanoTime();
+            found += directory.search(query, 10).size();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("Search (top 10), %d searches: p50 %.1f us   p99 %.1f us   p99.9 %.1f us   (%d matches)%n",
+                searches, nanos[searches / 2] / 1e3, nanos[(int) (searches * 0.99)] / 1e3,
+                nanos[(int) (searches * 0.999)] / 1e3, found);
+    }
+}
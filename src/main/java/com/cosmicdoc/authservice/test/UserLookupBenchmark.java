@@ -0,0 +1,108 @@
+package com.cosmicdoc.authservice.test;
+
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares finding a user by email with a field query on {@code users} against a
+ * direct get of the {@code email_index} document followed by a get of the user.
+ * <p>
+ * Runs against the Firestore emulator only, since it seeds its own users: start it
+ * with {@code gcloud emulators firestore start --host-port=localhost:8085} and set
+ * FIRESTORE_EMULATOR_HOST=localhost:8085. The emulator has no network hop and no
+ * real index fan-out, so absolute numbers are lower than in production; the point is
+ * the relative cost and the tail.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.test.UserLookupBenchmark [users] [lookups]
+ */
+public class UserLookupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("FIRESTORE_EMULATOR_HOST") == null) {
+            System.out.println("Set FIRESTORE_EMULATOR_HOST to run this benchmark against the Firestore emulator.");
+            return;
+        }
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Firestore firestore = FirestoreOptions.getDefaultInstance().toBuilder()
+                .setProjectId("benchmark")
+                .build()
+                .getService();
+
+        System.out.println("Seeding " + userCount + " users...");
+        for (int start = 0; start < userCount; start += 250) {
+            WriteBatch batch = firestore.batch();
+            for (int i = start; i < Math.min(start + 250, userCount); i++) {
+                String userId = "user_" + i;
+                String email = "user" + i + "@example.com";
+                batch.set(firestore.collection("users").document(userId),
+                        Map.of("userId", userId, "email", email, "status", "ACTIVE"));
+                batch.set(firestore.collection(UserLookupIndex.EMAIL_INDEX).document(email),
+                        Map.of(UserLookupIndex.USER_ID_FIELD, userId));
+            }
+            batch.commit().get();
+        }
+
+        // Warm-up
+        for (int i = 0; i < 200; i++) {
+            queryLookup(firestore, randomEmail(userCount));
+            indexLookup(firestore, randomEmail(userCount));
+        }
+
+        long[] queryNanos = new long[lookups];
+        long[] indexNanos = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            String email = randomEmail(userCount);
+            long start = System.nanoTime();
+            queryLookup(firestore, email);
+            queryNanos[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            indexLookup(firestore, email);
+            indexNanos[i] = System.nanoTime() - start;
+        }
+
+        System.out.println();
+        System.out.println("Lookup by email, " + userCount + " users, " + lookups + " lookups");
+        System.out.println("==============================================");
+        print("where(email ==) query", queryNanos);
+        print("index get + user get", indexNanos);
+        firestore.close();
+    }
+
+    private static String randomEmail(int userCount) {
+        return "user" + ThreadLocalRandom.current().nextInt(userCount) + "@example.com";
+    }
+
+    private static void queryLookup(Firestore firestore, String email) throws Exception {
+        QuerySnapshot snapshot = firestore.collection("users").whereEqualTo("email", email).limit(1).get().get();
+        if (snapshot.isEmpty()) {
+            throw new IllegalStateException("Query did not find " + email);
+        }
+    }
+
+    private static void indexLookup(Firestore firestore, String email) throws Exception {
+        DocumentSnapshot entry = firestore.collection(UserLookupIndex.EMAIL_INDEX).document(email).get().get();
+        String userId = entry.getString(UserLookupIndex.USER_ID_FIELD);
+        if (!firestore.collection("users").document(userId).get().get().exists()) {
+            throw new IllegalStateException("Index points to a missing user for " + email);
+        }
+    }
+
+    private static void print(String label, long[] nanos) {
+        Arrays.sort(nanos);
+        System.out.printf("%-24s p50 %6.2f ms   p99 %6.2f ms   p99.9 %6.2f ms%n", label,
+                nanos[nanos.length / 2] / 1e6,
+                nanos[(int) (nanos.length * 0.99)] / 1e6,
+                nanos[Math.min(nanos.length - 1, (int) (nanos.length * 0.999))] / 1e6);
+    }
+}
@@ -1,9 +1,13 @@
 package com.cosmicdoc.authservice.util;
 
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
@@ -62,7 +66,12 @@ public class FirestorePasswordUpdater {
             Map<String, Object> updates = new HashMap<>();
             updates.put("hashedPassword", hashedPassword);
             
-            firestore.collection("users").document(userId).update(updates).get();
+            // Update the user and its login projection together
+            WriteBatch batch = firestore.batch();
+            batch.update(firestore.collection("users").document(userId), updates);
+            batch.set(firestore.collection(LoginProjectionStore.COLLECTION).document(UserLookupIndex.normalizeEmail(email)),
+                    updates, SetOptions.merge());
+            batch.commit().get();
             System.out.println("Password successfully updated for user: " + email);
             
         } catch (IOException | InterruptedException | ExecutionException e) {
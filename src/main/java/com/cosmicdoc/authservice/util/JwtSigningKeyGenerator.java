@@ -0,0 +1,31 @@
+package com.cosmicdoc.authservice.util;
+
+import com.cosmicdoc.authservice.security.JwtKeyRing;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWKSet;
+
+/**
+ * Standalone utility that prints a new private P-256 signing key, for
+ * {@code JWT_SIGNING_JWK}, or with {@code --ring} a key ring holding it as the active
+ * key, for a {@code JWT_KEYS_LOCATION} file or Firestore document.
+ * <p>
+ * Usage, storing the key in Secret Manager for the deploy scripts:
+ * <pre>
+ * java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.util.JwtSigningKeyGenerator \
+ *     | gcloud secrets create auth-service-jwt-signing-jwk --data-file=-
+ * </pre>
+ * The output is a private key: pipe it straight into the secret store rather than
+ * saving it to disk.
+ */
+public class JwtSigningKeyGenerator {
+
+    public static void main(String[] args) {
+        ECKey key = JwtKeyRing.newKey();
+        if (args.length > 0 && args[0].equals("--ring")) {
+            String jwks = new JWKSet(key).toString(false);
+            System.out.println("{\"" + JwtKeyRing.ACTIVE_KID + "\":\"" + key.getKeyID() + "\"," + jwks.substring(1));
+        } else {
+            System.out.println(key.toJSONString());
+        }
+    }
+}
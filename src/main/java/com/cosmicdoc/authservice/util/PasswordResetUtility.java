@@ -1,8 +1,10 @@
 package com.cosmicdoc.authservice.util;
 
+import com.cosmicdoc.authservice.repository.LoginProjectionStore;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Profile;
@@ -23,11 +25,13 @@ public class PasswordResetUtility implements CommandLineRunner {
 
     private final Firestore firestore;
     private final PasswordEncoder passwordEncoder;
+    private final LoginProjectionStore loginProjections;
 
     @Autowired
-    public PasswordResetUtility(Firestore firestore, PasswordEncoder passwordEncoder) {
+    public PasswordResetUtility(Firestore firestore, PasswordEncoder passwordEncoder, LoginProjectionStore loginProjections) {
         this.firestore = firestore;
         this.passwordEncoder = passwordEncoder;
+        this.loginProjections = loginProjections;
     }
 
     @Override
@@ -67,8 +71,12 @@ public class PasswordResetUtility implements CommandLineRunner {
             Map<String, Object> updates = new HashMap<>();
             updates.put("hashedPassword", hashedPassword);
             
-            // Apply the update
-            firestore.collection("users").document(userId).update(updates).get();
+            // Apply the update to the user and its login projection
+            WriteBatch batch = firestore.batch();
+            batch.update(firestore.collection("users").document(userId), updates);
+            loginProjections.updateInBatch(batch, userDoc.getString("email"),
+                    Map.of(LoginProjectionStore.HASHED_PASSWORD, hashedPassword));
+            batch.commit().get();
             
             System.out.println("Password successfully reset for user: " + email);
             return true;
@@ -0,0 +1,153 @@
+package com.cosmicdoc.authservice.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, thread-safe Bloom filter that forgets its contents over time.
+ * <p>
+ * Time is divided into periods of equal length (aligned to the epoch). Keys are added
+ * to the generation of the current period, and lookups consult the current and the
+ * previous generation, so a key is remembered for at least one full period and at
+ * most two. Memory use is constant: two bit arrays sized for the expected number of
+ * insertions per period.
+ * <p>
+ * Like any Bloom filter it can report a key that was never added (at roughly the
+ * configured false-positive rate), but never misses a key that was added within the
+ * retention window.
+ */
+public class RotatingBloomFilter {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final int bitCount;
+    private final int hashFunctions;
+    private final long periodMillis;
+    private final Clock clock;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private volatile Generations generations;
+
+    /**
+     * @param expectedInsertionsPerPeriod number of keys expected to be added per period
+     * @param falsePositiveRate           acceptable probability of reporting an absent key as present
+     * @param period                      length of one generation
+     * @param clock                       time source, also defines period boundaries
+     */
+    public RotatingBloomFilter(int expectedInsertionsPerPeriod, double falsePositiveRate, Duration period, Clock clock) {
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedInsertionsPerPeriod * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bitCount = (int) Math.max(64, Math.min(bits, Integer.MAX_VALUE - 63));
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / expectedInsertionsPerPeriod * ln2));
+        this.periodMillis = period.toMillis();
+        this.clock = clock;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        long currentPeriod = clock.millis() / periodMillis;
+        this.generations = new Generations(currentPeriod, newBitArray(), newBitArray());
+    }
+
+    /**
+     * @return true if the key may have been added during the retention window,
+     *         false if it definitely was not
+     */
+    public boolean mightContain(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        Generations current = currentGenerations();
+        return contains(current.current, hash1, hash2) || contains(current.previous, hash1, hash2);
+    }
+
+    /**
+     * Adds the key unless it is (probably) already present. Concurrent calls for the
+     * same key are serialized, so exactly one of them returns true.
+     *
+     * @return true if the key was added, false if it was already present
+     */
+    public boolean add(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        synchronized (locks[(int) (hash1 & (LOCK_STRIPES - 1))]) {
+            Generations current = currentGenerations();
+            if (contains(current.current, hash1, hash2) || contains(current.previous, hash1, hash2)) {
+                return false;
+            }
+            for (int i = 0; i < hashFunctions; i++) {
+                int bit = bitIndex(hash1, hash2, i);
+                long mask = 1L << (bit & 63);
+                AtomicLongArray words = current.current;
+                int word = bit >>> 6;
+                long value;
+                do {
+                    value = words.get(word);
+                } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the memory held by both generations, in bytes
+     */
+    public long sizeInBytes() {
+        return 2L * ((bitCount + 63) / 64) * Long.BYTES;
+    }
+
+    private boolean contains(AtomicLongArray words, long hash1, long hash2) {
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = bitIndex(hash1, hash2, i);
+            if ((words.get(bit >>> 6) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bitIndex(long hash1, long hash2, int i) {
+        // Kirsch-Mitzenmacher double hashing: k indexes from two base hashes.
+        return (int) Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+    }
+
+    private Generations currentGenerations() {
+        long period = clock.millis() / periodMillis;
+        Generations current = generations;
+        if (current.period == period) {
+            return current;
+        }
+        synchronized (this) {
+            current = generations;
+            if (current.period != period) {
+                AtomicLongArray previous = period == current.period + 1 ? current.current : newBitArray();
+                current = new Generations(period, newBitArray(), previous);
+                generations = current;
+            }
+            return current;
+        }
+    }
+
+    private AtomicLongArray newBitArray() {
+        return new AtomicLongArray((bitCount + 63) / 64);
+    }
+
+    private static long hash(String key) {
+        // FNV-1a over the UTF-8 bytes, finished with a 64-bit mixer for better bit dispersion.
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private record Generations(long period, AtomicLongArray current, AtomicLongArray previous) {
+    }
+}
@@ -0,0 +1,86 @@
+package com.cosmicdoc.authservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key into one.
+ * <p>
+ * The first caller for a key starts the load; callers that arrive while it is in flight
+ * get the same future instead of starting their own, and are counted as
+ * {@code auth.singleflight.deduplicated}. Once the load completes the key is forgotten,
+ * so a caller arriving afterwards starts a fresh load: this deduplicates concurrent work
+ * and never serves a cached result.
+ * <p>
+ * In-flight loads live in a {@link ConcurrentHashMap}, which locks per hash bin and
+ * only while the key is added or removed, so callers for distinct keys do not contend.
+ * The load itself is started outside any lock. Results are shared between callers and
+ * must therefore be immutable.
+ *
+ * @param <K> The key type.
+ * @param <V> The result type.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter deduplicated;
+
+    /**
+     * @param lookup        Names the loads, as the {@code lookup} tag of the counter.
+     * @param meterRegistry Registry for the deduplication counter.
+     */
+    public SingleFlight(String lookup, MeterRegistry meterRegistry) {
+        this.deduplicated = Counter.builder("auth.singleflight.deduplicated")
+                .description("Lookups that joined an identical lookup already in flight instead of issuing their own")
+                .tag("lookup", lookup)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the load of {@code key} already in flight, or starts one.
+     *
+     * @param key    The key.
+     * @param loader Starts the load; only called if no load of the key is in flight.
+     * @return A future of the load's result. Completing or cancelling it has no
+     *         effect on the other callers.
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> shared = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing.copy();
+        }
+
+        CompletableFuture<V> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            inFlight.remove(key, shared);
+            shared.completeExceptionally(e);
+            return shared.copy();
+        }
+        load.whenComplete((result, failure) -> {
+            // Forget the key first, so no caller can join a load that has already completed.
+            inFlight.remove(key, shared);
+            if (failure != null) {
+                shared.completeExceptionally(failure);
+            } else {
+                shared.complete(result);
+            }
+        });
+        return shared.copy();
+    }
+
+    /**
+     * @return The number of keys with a load in flight.
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,119 @@
+package com.cosmicdoc.authservice.util;
+
+import com.cosmicdoc.authservice.repository.UserLookupIndex;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Standalone utility that creates the {@code email_index} and {@code phone_index}
+ * documents for users written before the lookup index existed.
+ * <p>
+ * Walks the {@code users} collection in document-ID order, one page at a time, and
+ * only writes index documents that are missing. An index document that points to a
+ * different user (two users sharing an email or phone number) is reported and left
+ * alone. Safe to re-run.
+ * <p>
+ * Usage: java -cp target/classes:target/dependency/* com.cosmicdoc.authservice.util.UserLookupIndexBackfill [serviceAccountPath] [defaultCountryCode]
+ * <br>
+ * When FIRESTORE_EMULATOR_HOST is set the emulator is used and no service account is needed.
+ */
+public class UserLookupIndexBackfill {
+
+    private static final int PAGE_SIZE = 250;
+    private static final int MAX_BATCH_SIZE = 500;
+
+    public static void main(String[] args) throws Exception {
+        String serviceAccountPath = args.length > 0 ? args[0] : "src/main/resources/service-account.json";
+        String defaultCountryCode = args.length > 1 ? args[1] : "91";
+
+        FirestoreOptions.Builder options = FirestoreOptions.getDefaultInstance().toBuilder();
+        if (System.getenv("FIRESTORE_EMULATOR_HOST") == null) {
+            options.setCredentials(GoogleCredentials.fromStream(new FileInputStream(serviceAccountPath)));
+        }
+
+        try (Firestore firestore = options.build().getService()) {
+            int users = 0;
+            int written = 0;
+            int conflicts = 0;
+            DocumentSnapshot lastUser = null;
+
+            while (true) {
+                Query page = firestore.collection("users").orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+                if (lastUser != null) {
+                    page = page.startAfter(lastUser);
+                }
+                QuerySnapshot snapshot = page.get().get();
+                if (snapshot.isEmpty()) {
+                    break;
+                }
+
+                // Collect the index entries this page should have.
+                Map<DocumentReference, String> wanted = new HashMap<>();
+                for (QueryDocumentSnapshot user : snapshot.getDocuments()) {
+                    users++;
+                    String email = UserLookupIndex.normalizeEmail(user.getString("email"));
+                    if (email != null) {
+                        wanted.put(firestore.collection(UserLookupIndex.EMAIL_INDEX).document(email), user.getId());
+                    }
+                    String phone = UserLookupIndex.normalizePhone(user.getString("mobileNumber"), defaultCountryCode);
+                    if (phone != null) {
+                        wanted.put(firestore.collection(UserLookupIndex.PHONE_INDEX).document(phone), user.getId());
+                    }
+                }
+
+                // Read the existing entries in one round trip and write only the missing ones.
+                List<DocumentReference> refs = new ArrayList<>(wanted.keySet());
+                List<DocumentSnapshot> existing = refs.isEmpty()
+                        ? List.of()
+                        : firestore.getAll(refs.toArray(new DocumentReference[0])).get();
+
+                WriteBatch batch = firestore.batch();
+                int batchSize = 0;
+                for (DocumentSnapshot entry : existing) {
+                    String userId = wanted.get(entry.getReference());
+                    if (entry.exists()) {
+                        String indexedUserId = entry.getString(UserLookupIndex.USER_ID_FIELD);
+                        if (!userId.equals(indexedUserId)) {
+                            conflicts++;
+                            System.out.println("Conflict: " + entry.getReference().getPath()
+                                    + " points to " + indexedUserId + ", not " + userId);
+                        }
+                        continue;
+                    }
+                    batch.create(entry.getReference(), Map.of(UserLookupIndex.USER_ID_FIELD, userId));
+                    batchSize++;
+                    if (batchSize == MAX_BATCH_SIZE) {
+                        batch.commit().get();
+                        written += batchSize;
+                        batch = firestore.batch();
+                        batchSize = 0;
+                    }
+                }
+                if (batchSize > 0) {
+                    batch.commit().get();
+                    written += batchSize;
+                }
+
+                lastUser = snapshot.getDocuments().get(snapshot.size() - 1);
+                System.out.println("Processed " + users + " users, wrote " + written + " index entries");
+            }
+
+            System.out.println("Done. Users: " + users + ", index entries written: " + written
+                    + ", conflicts: " + conflicts);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.cosmicdoc.authservice.repository;
+
+import com.cosmicdoc.authservice.repository.LoginProjectionStore.LoginProjection;
+import com.cosmicdoc.common.model.UserStatus;
+import com.cosmicdoc.common.model.Users;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoginProjectionStoreTest {
+
+    @Test
+    void aProjectionIsCompleteWithAnIdAPasswordHashAndAStatus() {
+        assertTrue(projection("u1", "$2a$hash", UserStatus.ACTIVE, List.of(), null, null).isComplete());
+        assertFalse(projection(null, "$2a$hash", UserStatus.ACTIVE, List.of(), null, null).isComplete());
+        assertFalse(projection("u1", null, UserStatus.ACTIVE, List.of(), null, null).isComplete());
+        assertFalse(projection("u1", "$2a$hash", null, List.of(), null, null).isComplete());
+    }
+
+    @Test
+    void theDefaultRoleIsUsedWhileItsOrganizationIsStillTheFirst() {
+        assertEquals("ADMIN",
+                projection(List.of("org1", "org2"), "org1", "ADMIN").defaultRole());
+        // The first organization changed without the role being rewritten.
+        assertNull(projection(List.of("org2", "org1"), "org1", "ADMIN").defaultRole());
+        assertNull(projection(List.of("org1"), null, "ADMIN").defaultRole());
+        assertNull(projection(List.of(), "org1", "ADMIN").defaultRole());
+        assertNull(projection(null, "org1", "ADMIN").defaultRole());
+    }
+
+    @Test
+    void theRoleIsOnlyWrittenForAUserWithAnOrganization() {
+        Users member = Users.builder().userId("u1").organizations(List.of("org1", "org2")).build();
+        Map<String, Object> fields = LoginProjectionStore.fieldsOf(member, "ADMIN");
+        assertEquals("org1", fields.get(LoginProjectionStore.DEFAULT_ORGANIZATION_ID));
+        assertEquals("ADMIN", fields.get(LoginProjectionStore.ROLE));
+
+        Users loner = Users.builder().userId("u2").build();
+        Map<String, Object> lonerFields = LoginProjectionStore.fieldsOf(loner, "ADMIN");
+        assertEquals(List.of(), lonerFields.get(LoginProjectionStore.ORGANIZATIONS));
+        assertNull(lonerFields.get(LoginProjectionStore.DEFAULT_ORGANIZATION_ID));
+        assertNull(lonerFields.get(LoginProjectionStore.ROLE));
+    }
+
+    private static LoginProjection projection(List<String> organizations, String defaultOrganizationId, String role) {
+        return projection("u1", "$2a$hash", UserStatus.ACTIVE, organizations, defaultOrganizationId, role);
+    }
+
+    private static LoginProjection projection(String userId, String hashedPassword, UserStatus status,
+                                              List<String> organizations, String defaultOrganizationId, String role) {
+        return new LoginProjection(userId, "a@example.com", hashedPassword, status, "A",
+                organizations, defaultOrganizationId, role);
+    }
+}
@@ -0,0 +1,110 @@
+package com.cosmicdoc.authservice.security;
+
+import com.cosmicdoc.authservice.exception.GlobalExceptionHandler;
+import com.cosmicdoc.authservice.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedPasswordEncoderTest {
+
+    private final BlockingEncoder delegate = new BlockingEncoder();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private BoundedPasswordEncoder encoder;
+
+    @AfterEach
+    void shutDown() {
+        delegate.release.countDown();
+        if (encoder != null) {
+            encoder.destroy();
+        }
+    }
+
+    @Test
+    void hashingRunsOnTheDelegate() {
+        delegate.release.countDown();
+        encoder = new BoundedPasswordEncoder(delegate, 1, 1, Duration.ofSeconds(5), registry);
+
+        assertEquals("hashed:secret", encoder.encode("secret"));
+        assertTrue(encoder.matches("secret", "hashed:secret"));
+        assertEquals("hashed:async", encoder.encodeAsync("async").join());
+    }
+
+    @Test
+    void aFullQueueIsRejectedImmediately() throws Exception {
+        encoder = new BoundedPasswordEncoder(delegate, 1, 1, Duration.ofSeconds(5), registry);
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> encoder.encode("first"));
+        assertTrue(delegate.started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = encoder.encodeAsync("second");
+
+        assertThrows(ServiceOverloadedException.class, () -> encoder.encode("third"));
+        CompletionException asyncRejection = assertThrows(CompletionException.class,
+                () -> encoder.encodeAsync("fourth").join());
+        assertInstanceOf(ServiceOverloadedException.class, asyncRejection.getCause());
+        assertEquals(2.0, registry.get("auth.password.hash.rejected").counter().count());
+
+        delegate.release.countDown();
+        assertEquals("hashed:first", running.get(5, TimeUnit.SECONDS));
+        assertEquals("hashed:second", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aCallerWaitingTooLongIsRejected() throws Exception {
+        encoder = new BoundedPasswordEncoder(delegate, 1, 1, Duration.ofMillis(50), registry);
+
+        assertThrows(ServiceOverloadedException.class, () -> encoder.encode("slow"));
+        CompletionException asyncTimeout = assertThrows(CompletionException.class,
+                () -> encoder.encodeAsync("queued").join());
+        assertInstanceOf(ServiceOverloadedException.class, asyncTimeout.getCause());
+        assertEquals(2.0, registry.get("auth.password.hash.rejected").counter().count());
+    }
+
+    @Test
+    void aRejectionIsAnsweredWith503AndRetryAfter() {
+        ResponseEntity<Map<String, String>> response = new GlobalExceptionHandler()
+                .handleServiceOverloaded(new ServiceOverloadedException("busy"));
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals("busy", response.getBody().get("error"));
+    }
+
+    // Hashes by prefixing, after waiting for release.
+    private static final class BlockingEncoder implements PasswordEncoder {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String encode(CharSequence rawPassword) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "hashed:" + rawPassword;
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            return encode(rawPassword).equals(encodedPassword);
+        }
+    }
+}
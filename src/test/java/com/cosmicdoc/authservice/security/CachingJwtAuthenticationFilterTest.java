@@ -0,0 +1,188 @@
+package com.cosmicdoc.authservice.security;
+
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.Users;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingJwtAuthenticationFilterTest {
+
+    private final AtomicInteger decodes = new AtomicInteger();
+    private final MutableClock clock = new MutableClock(Instant.now());
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void aTokenIsVerifiedOnceAndReadIntoTheAuthContext() throws Exception {
+        JwtKeyRing keyRing = new JwtKeyRing("", "", true, null, null, new SimpleMeterRegistry());
+        CachingJwtAuthenticationFilter filter = filter(keyRing);
+        String token = token(keyRing, 3_600_000);
+
+        for (int i = 0; i < 3; i++) {
+            MockFilterChain chain = new MockFilterChain();
+            filter.doFilter(request(token), new MockHttpServletResponse(), chain);
+
+            AuthPrincipal principal = (AuthPrincipal) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+            assertEquals(new AuthPrincipal("user_1", "asha@hospital.example", "org_1", "ROLE_ADMIN"), principal);
+            assertEquals("user_1", SecurityUtils.getUserId());
+            assertEquals("org_1", SecurityUtils.getOrganizationId());
+            assertEquals("ROLE_ADMIN", SecurityUtils.getRole());
+            assertEquals("ROLE_ADMIN", SecurityContextHolder.getContext().getAuthentication()
+                    .getAuthorities().iterator().next().getAuthority());
+            assertTrue(chain.getRequest() != null);
+            SecurityContextHolder.clearContext();
+        }
+        assertEquals(1, decodes.get());
+    }
+
+    @Test
+    void anInvalidTokenIsRejected() throws Exception {
+        JwtKeyRing keyRing = new JwtKeyRing("", "", true, null, null, new SimpleMeterRegistry());
+        String token = token(keyRing, 3_600_000);
+        String tampered = token.substring(0, token.length() - 4) + (token.endsWith("AAAA") ? "BBBB" : "AAAA");
+
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter(keyRing).doFilter(request(tampered), response, chain);
+
+        assertEquals(401, response.getStatus());
+        assertTrue(response.getHeader("WWW-Authenticate").contains("invalid_token"));
+        assertNull(chain.getRequest());
+    }
+
+    @Test
+    void aRequestWithoutATokenPassesThroughUnauthenticated() throws Exception {
+        JwtKeyRing keyRing = new JwtKeyRing("", "", true, null, null, new SimpleMeterRegistry());
+        MockFilterChain chain = new MockFilterChain();
+        filter(keyRing).doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), chain);
+
+        assertTrue(chain.getRequest() != null);
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+        assertEquals(0, decodes.get());
+    }
+
+    @Test
+    void aCachedTokenIsNotServedPastItsExpiry() throws Exception {
+        JwtKeyRing keyRing = new JwtKeyRing("", "", true, null, null, new SimpleMeterRegistry());
+        CachingJwtAuthenticationFilter filter = filter(keyRing);
+        String token = token(keyRing, 120_000);
+
+        filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+        clock.advance(Duration.ofMinutes(1));
+        filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+        assertEquals(1, decodes.get());
+
+        clock.advance(Duration.ofMinutes(2));
+        filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+        assertEquals(2, decodes.get());
+    }
+
+    @Test
+    void aCachedTokenIsRejectedOnceItsKeyIsRetired() throws Exception {
+        Path file = Files.createTempFile("jwt-key-ring", ".json");
+        try {
+            ECKey oldKey = JwtKeyRing.newKey();
+            ECKey newKey = JwtKeyRing.newKey();
+            Files.writeString(file, ring(oldKey, oldKey));
+            JwtKeyRing keyRing = new JwtKeyRing("", "file:" + file, false, Duration.ofHours(1), null, new SimpleMeterRegistry());
+            CachingJwtAuthenticationFilter filter = filter(keyRing);
+            String token = token(keyRing, 3_600_000);
+            filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+
+            Files.writeString(file, ring(newKey, newKey));
+            keyRing.reload();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request(token), response, new MockFilterChain());
+
+            assertEquals(401, response.getStatus());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private CachingJwtAuthenticationFilter filter(JwtKeyRing keyRing) {
+        DefaultJWTProcessor<SecurityContext> processor = new DefaultJWTProcessor<>();
+        processor.setJWSKeySelector(keyRing.keySelector());
+        NimbusJwtDecoder nimbus = new NimbusJwtDecoder(processor);
+        JwtDecoder counting = token -> {
+            decodes.incrementAndGet();
+            return nimbus.decode(token);
+        };
+        return new CachingJwtAuthenticationFilter(counting, keyRing, 100, new SimpleMeterRegistry(), clock);
+    }
+
+    private String token(JwtKeyRing keyRing, long expirationMs) {
+        JwtService jwtService = new JwtService(keyRing, expirationMs, clock);
+        return jwtService.generateToken(
+                Users.builder().userId("user_1").email("asha@hospital.example").build(),
+                OrganizationMember.builder().organizationId("org_1").role("ROLE_ADMIN").build());
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/organizations/users");
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private static String ring(ECKey active, ECKey... keys) {
+        String jwks = new JWKSet(List.<JWK>of(keys)).toString(false);
+        return "{\"" + JwtKeyRing.ACTIVE_KID + "\":\"" + active.getKeyID() + "\"," + jwks.substring(1);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.cosmicdoc.authservice.security;
+
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtKeyRingTest {
+
+    private final ECKey oldKey = JwtKeyRing.newKey();
+    private final ECKey newKey = JwtKeyRing.newKey();
+    private Path file;
+
+    @AfterEach
+    void deleteFile() throws Exception {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void aRingSignsWithItsActiveKeyAndVerifiesWithAll() {
+        JwtKeyRing.Snapshot snapshot = JwtKeyRing.parse(ring(newKey.getKeyID(), oldKey.toPublicJWK(), newKey));
+
+        assertEquals(newKey.getKeyID(), snapshot.activeKeyId());
+        assertEquals(2, snapshot.verificationKeys().size());
+        assertTrue(snapshot.verificationKeys().containsKey(oldKey.getKeyID()));
+        assertFalse(snapshot.publicJwks().contains("\"d\""));
+    }
+
+    @Test
+    void theActiveKidMustBeInTheRing() {
+        assertThrows(IllegalStateException.class,
+                () -> JwtKeyRing.parse(ring("missing", oldKey, newKey)));
+    }
+
+    @Test
+    void theActiveKeyMustBePrivate() {
+        assertThrows(IllegalStateException.class,
+                () -> JwtKeyRing.parse(ring(newKey.getKeyID(), oldKey, newKey.toPublicJWK())));
+    }
+
+    @Test
+    void kidsMustBeUnique() {
+        ECKey sameKid = new ECKey.Builder(oldKey).keyID(newKey.getKeyID()).build();
+
+        assertThrows(IllegalStateException.class,
+                () -> JwtKeyRing.parse(ring(newKey.getKeyID(), sameKid, newKey)));
+    }
+
+    @Test
+    void keysMustBeP256() throws Exception {
+        ECKey p384 = new ECKeyGenerator(Curve.P_384).keyID("p384").generate();
+
+        assertThrows(IllegalStateException.class,
+                () -> JwtKeyRing.parse(ring(newKey.getKeyID(), p384, newKey)));
+    }
+
+    @Test
+    void startupFailsWithoutAConfiguredKey() {
+        assertThrows(IllegalStateException.class,
+                () -> new JwtKeyRing("", "", false, null, null, new SimpleMeterRegistry()));
+    }
+
+    @Test
+    void aFailedReloadKeepsTheCurrentRing() throws Exception {
+        JwtKeyRing keyRing = fromFile(ring(oldKey.getKeyID(), oldKey));
+        JwtKeyRing.Snapshot before = keyRing.current();
+
+        Files.writeString(file, ring(newKey.getKeyID(), newKey.toPublicJWK()));
+        assertThrows(IllegalStateException.class, keyRing::reload);
+        Files.writeString(file, "not json");
+        assertThrows(IllegalStateException.class, keyRing::reload);
+
+        assertSame(before, keyRing.current());
+    }
+
+    @Test
+    void anUnchangedReloadIsSkipped() throws Exception {
+        JwtKeyRing keyRing = fromFile(ring(oldKey.getKeyID(), oldKey));
+        JwtKeyRing.Snapshot before = keyRing.current();
+
+        assertFalse(keyRing.reload());
+        assertSame(before, keyRing.current());
+
+        Files.writeString(file, ring(newKey.getKeyID(), oldKey, newKey));
+        assertTrue(keyRing.reload());
+        assertEquals(newKey.getKeyID(), keyRing.current().activeKeyId());
+    }
+
+    private JwtKeyRing fromFile(String json) throws Exception {
+        file = Files.createTempFile("jwt-key-ring", ".json");
+        Files.writeString(file, json);
+        return new JwtKeyRing("", "file:" + file, false, Duration.ofHours(1), null, new SimpleMeterRegistry());
+    }
+
+    private static String ring(String activeKeyId, JWK... keys) {
+        String jwks = new JWKSet(List.of(keys)).toString(false);
+        return "{\"" + JwtKeyRing.ACTIVE_KID + "\":\"" + activeKeyId + "\"," + jwks.substring(1);
+    }
+}
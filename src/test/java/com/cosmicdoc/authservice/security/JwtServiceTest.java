@@ -0,0 +1,96 @@
+package com.cosmicdoc.authservice.security;
+
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.Users;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JwtServiceTest {
+
+    private static final long EXPIRATION_MS = 3_600_000;
+
+    private final JwtKeyRing keyRing = new JwtKeyRing("", "", true, null, null, new SimpleMeterRegistry());
+    private final Clock clock = Clock.fixed(Instant.parse("2026-03-01T08:15:30.750Z"), ZoneOffset.UTC);
+    private final JwtService jwtService = new JwtService(keyRing, EXPIRATION_MS, clock);
+
+    @Test
+    void headerAndPayloadMatchJjwt() {
+        assertSameAsJjwt("user_1", "asha@hospital.example", "org_1", "ROLE_DOCTOR");
+    }
+
+    @Test
+    void nullClaimsAreLeftOutLikeJjwt() {
+        assertSameAsJjwt("user_1", null, "NO_ORG", null);
+    }
+
+    @Test
+    void stringsAreEscapedLikeJackson() {
+        assertSameAsJjwt("user_1", "\"quoted\"\\back/slash\n\t\u0001@example.com", "org_\u00e9\u4e2d", "ROLE_\uD83D\uDE00");
+    }
+
+    @Test
+    void signatureVerifiesWithTheKeyRing() {
+        for (int i = 0; i < 200; i++) {
+            String token = jwtService.generateToken(user("user_" + i, "user" + i + "@example.com"),
+                    membership("org_1", "ROLE_ADMIN"));
+            assertEquals(86, token.substring(token.lastIndexOf('.') + 1).length());
+
+            Jws<Claims> parsed = Jwts.parserBuilder()
+                    .setSigningKey(keyRing.current().verificationKeys().get(keyRing.current().activeKeyId()))
+                    .setClock(() -> Date.from(clock.instant()))
+                    .build()
+                    .parseClaimsJws(token);
+            assertEquals("user_" + i, parsed.getBody().getSubject());
+        }
+    }
+
+    private void assertSameAsJjwt(String userId, String email, String organizationId, String role) {
+        String token = jwtService.generateToken(user(userId, email), membership(organizationId, role));
+
+        Date now = Date.from(clock.instant());
+        JwtBuilder reference = Jwts.builder()
+                .setHeaderParam("kid", keyRing.current().activeKeyId())
+                .setSubject(userId)
+                .claim("email", email)
+                .claim("organizationId", organizationId)
+                .claim("role", role)
+                .setIssuedAt(now)
+                .setExpiration(new Date(now.getTime() + EXPIRATION_MS))
+                .signWith(keyRing.current().signingKey(), SignatureAlgorithm.ES256);
+        String expected = reference.compact();
+
+        assertEquals(signingInput(expected), signingInput(token),
+                () -> decode(signingInput(expected)) + " vs " + decode(signingInput(token)));
+    }
+
+    private static String signingInput(String token) {
+        return token.substring(0, token.lastIndexOf('.'));
+    }
+
+    private static String decode(String signingInput) {
+        Base64.Decoder decoder = Base64.getUrlDecoder();
+        String[] parts = signingInput.split("\\.");
+        return new String(decoder.decode(parts[0])) + "." + new String(decoder.decode(parts[1]));
+    }
+
+    private static Users user(String userId, String email) {
+        return Users.builder().userId(userId).email(email).build();
+    }
+
+    private static OrganizationMember membership(String organizationId, String role) {
+        return OrganizationMember.builder().organizationId(organizationId).role(role).build();
+    }
+}
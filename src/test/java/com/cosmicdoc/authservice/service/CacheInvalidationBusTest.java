@@ -0,0 +1,247 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.repository.ChangeStream;
+import com.cosmicdoc.authservice.repository.UserBatchReader;
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.UserStatus;
+import com.cosmicdoc.common.model.Users;
+import com.cosmicdoc.common.repository.OrganizationMemberRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheInvalidationBusTest {
+
+    private final FakeChangeStream changeStream = new FakeChangeStream();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OrganizationMemberRepository memberRepository = mock(OrganizationMemberRepository.class);
+    private final UserBatchReader userBatchReader = mock(UserBatchReader.class);
+
+    private MembershipCache membershipCache;
+    private OrganizationUserDirectory directory;
+    private CacheInvalidationBus bus;
+
+    @BeforeEach
+    void setUp() {
+        OrganizationMember membership = OrganizationMember.builder()
+                .userId("user_1")
+                .organizationId("org_1")
+                .role("ROLE_DOCTOR")
+                .build();
+        when(memberRepository.findByUserIdAndOrgId("user_1", "org_1")).thenReturn(Optional.of(membership));
+        when(memberRepository.findAllByOrganizationId("org_1")).thenReturn(List.of(membership));
+        when(userBatchReader.findAllByIds(anyCollection())).thenReturn(new UserBatchReader.Result(
+                Map.of("user_1", user("Asha Rao", UserStatus.ACTIVE)), List.of()));
+
+        membershipCache = new MembershipCache(memberRepository, meterRegistry, Duration.ofMinutes(5), 100);
+        directory = new OrganizationUserDirectory(memberRepository, userBatchReader, meterRegistry, 40, Duration.ofMinutes(10));
+        bus = new CacheInvalidationBus(changeStream, membershipCache, directory, meterRegistry,
+                true, Duration.ofMillis(10), Duration.ofMillis(50));
+        bus.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        bus.stop();
+    }
+
+    @Test
+    void membershipChangeEvictsTheCachedMembershipAndRecordsLag() {
+        directory.search("org_1", "asha", 10);
+        membershipCache.find("user_1", "org_1");
+        membershipCache.find("user_1", "org_1");
+        verify(memberRepository, times(1)).findByUserIdAndOrgId("user_1", "org_1");
+
+        changeStream.emit(CacheInvalidationBus.MEMBERSHIPS, false, new ChangeStream.Change(
+                ChangeStream.ChangeType.MODIFIED, "member_1",
+                Map.of("userId", "user_1", "organizationId", "org_1", "role", "ROLE_ADMIN")));
+
+        membershipCache.find("user_1", "org_1");
+        verify(memberRepository, times(2)).findByUserIdAndOrgId("user_1", "org_1");
+        assertEquals(1, meterRegistry.get("auth.cache.invalidation.lag").tag("collection", "organization_members").timer().count());
+        // The loaded directory picked up the new role in place.
+        assertEquals("ROLE_ADMIN", directory.search("org_1", "asha", 10).get(0).getRole());
+    }
+
+    @Test
+    void userChangeUpdatesTheLoadedDirectory() {
+        assertEquals(1, directory.search("org_1", "asha", 10).size());
+
+        changeStream.emit(CacheInvalidationBus.USERS, false, new ChangeStream.Change(
+                ChangeStream.ChangeType.MODIFIED, "user_1", Map.of(
+                        "email", "asha@hospital.example",
+                        "displayName", "Asha Menon",
+                        "status", "SUSPENDED",
+                        "organizations", List.of("org_1"))));
+
+        assertEquals(1, directory.search("org_1", "menon", 10).size());
+        assertEquals(UserStatus.SUSPENDED, directory.search("org_1", "menon", 10).get(0).getStatus());
+        assertEquals(0, directory.search("org_1", "rao", 10).size());
+    }
+
+    @Test
+    void membershipChangeWithoutALoadedDirectoryEvictsTheCachedMembership() {
+        membershipCache.find("user_1", "org_1");
+        membershipCache.find("user_1", "org_1");
+        verify(memberRepository, times(1)).findByUserIdAndOrgId("user_1", "org_1");
+
+        changeStream.emit(CacheInvalidationBus.MEMBERSHIPS, false, new ChangeStream.Change(
+                ChangeStream.ChangeType.MODIFIED, "member_1",
+                Map.of("userId", "user_1", "organizationId", "org_1", "role", "ROLE_ADMIN")));
+
+        membershipCache.find("user_1", "org_1");
+        verify(memberRepository, times(2)).findByUserIdAndOrgId("user_1", "org_1");
+    }
+
+    @Test
+    void usersAreOnlyListenedToForOrganizationsWithALoadedDirectory() {
+        assertEquals(List.of(Optional.empty()), changeStream.open(CacheInvalidationBus.MEMBERSHIPS));
+        assertEquals(0, changeStream.subscriptions(CacheInvalidationBus.USERS));
+
+        directory.search("org_1", "asha", 10);
+        assertEquals(List.of(Optional.of(List.of("org_1"))), changeStream.open(CacheInvalidationBus.USERS));
+
+        // Firestore filters take 30 values, so the 31st organization gets a subscription of its own.
+        for (int i = 2; i <= 31; i++) {
+            directory.search("org_" + i, "asha", 10);
+        }
+        List<Optional<List<String>>> open = changeStream.open(CacheInvalidationBus.USERS);
+        assertEquals(2, open.size());
+        assertEquals(30, open.get(0).orElseThrow().size());
+        assertEquals(List.of("org_31"), open.get(1).orElseThrow());
+
+        // Dropping an organization only resubscribes its own slot.
+        int subscriptions = changeStream.subscriptions(CacheInvalidationBus.USERS);
+        directory.invalidate("org_31");
+        assertEquals(1, changeStream.open(CacheInvalidationBus.USERS).size());
+        assertEquals(subscriptions, changeStream.subscriptions(CacheInvalidationBus.USERS));
+        directory.invalidate("org_2");
+        assertEquals(29, changeStream.open(CacheInvalidationBus.USERS).get(0).orElseThrow().size());
+        assertEquals(subscriptions + 1, changeStream.subscriptions(CacheInvalidationBus.USERS));
+        assertEquals(1, changeStream.subscriptions(CacheInvalidationBus.MEMBERSHIPS));
+    }
+
+    @Test
+    void initialSnapshotIsNotTreatedAsChanges() {
+        directory.search("org_1", "asha", 10);
+        membershipCache.find("user_1", "org_1");
+
+        changeStream.emit(CacheInvalidationBus.MEMBERSHIPS, true, new ChangeStream.Change(
+                ChangeStream.ChangeType.ADDED, "member_1",
+                Map.of("userId", "user_1", "organizationId", "org_1", "role", "ROLE_DOCTOR")));
+
+        membershipCache.find("user_1", "org_1");
+        verify(memberRepository, times(1)).findByUserIdAndOrgId("user_1", "org_1");
+    }
+
+    @Test
+    void failedListenerIsResubscribedWithBackoff() throws Exception {
+        directory.search("org_1", "asha", 10);
+        changeStream.emit(CacheInvalidationBus.USERS, true);
+        assertEquals(1.0, connectedGauge());
+
+        changeStream.fail(CacheInvalidationBus.USERS, new IllegalStateException("listen stream closed"));
+        assertEquals(0.0, connectedGauge());
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (changeStream.subscriptions(CacheInvalidationBus.USERS) < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, changeStream.subscriptions(CacheInvalidationBus.USERS));
+        changeStream.emit(CacheInvalidationBus.USERS, true);
+        assertEquals(1.0, connectedGauge());
+        assertEquals(1.0, meterRegistry.get("auth.cache.invalidation.reconnects").tag("collection", "users").counter().count());
+    }
+
+    private double connectedGauge() {
+        return meterRegistry.get("auth.cache.invalidation.connected").tag("collection", "users").gauge().value();
+    }
+
+    private static Users user(String displayName, UserStatus status) {
+        return Users.builder()
+                .userId("user_1")
+                .email("asha@hospital.example")
+                .displayName(displayName)
+                .status(status)
+                .organizations(new ArrayList<>(List.of("org_1")))
+                .build();
+    }
+
+    /**
+     * In-process change stream: the test decides what each subscription receives.
+     */
+    private static class FakeChangeStream implements ChangeStream {
+
+        // values is empty for a subscription to the whole collection.
+        private record FakeSubscription(String collection, Optional<List<String>> values, Listener listener,
+                                        boolean[] closed) implements Subscription {
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        }
+
+        private final List<FakeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Subscription subscribe(String collection, Listener listener) {
+            FakeSubscription subscription = new FakeSubscription(collection, Optional.empty(), listener, new boolean[1]);
+            subscriptions.add(subscription);
+            return subscription;
+        }
+
+        @Override
+        public Subscription subscribe(String collection, String field, Operator operator, List<String> values,
+                                      Listener listener) {
+            assertTrue(!values.isEmpty() && values.size() <= MAX_VALUES);
+            FakeSubscription subscription = new FakeSubscription(collection, Optional.of(values), listener,
+                    new boolean[1]);
+            subscriptions.add(subscription);
+            return subscription;
+        }
+
+        void emit(String collection, boolean initial, Change... changes) {
+            List<FakeSubscription> open = openSubscriptions(collection);
+            assertTrue(!open.isEmpty(), "no subscription to " + collection);
+            for (FakeSubscription subscription : open) {
+                subscription.listener().onChanges(new Batch(List.of(changes), Instant.now().minusMillis(20), initial));
+            }
+        }
+
+        void fail(String collection, Throwable error) {
+            openSubscriptions(collection).get(0).listener().onError(error);
+        }
+
+        int subscriptions(String collection) {
+            return (int) subscriptions.stream().filter(s -> s.collection().equals(collection)).count();
+        }
+
+        List<Optional<List<String>>> open(String collection) {
+            return openSubscriptions(collection).stream().map(FakeSubscription::values).toList();
+        }
+
+        private List<FakeSubscription> openSubscriptions(String collection) {
+            return subscriptions.stream()
+                    .filter(s -> s.collection().equals(collection) && !s.closed()[0])
+                    .toList();
+        }
+    }
+}
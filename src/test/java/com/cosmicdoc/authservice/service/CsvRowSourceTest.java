@@ -0,0 +1,64 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.service.BulkUserImportService.CsvRowSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+
+import static com.cosmicdoc.authservice.service.BulkUserImportService.CsvRowSource.split;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvRowSourceTest {
+
+    @Test
+    void unquotedFieldsAreSplitOnCommas() {
+        assertEquals(List.of("a", "b", "", "c"), split("a,b,,c"));
+        assertEquals(List.of("", ""), split(","));
+    }
+
+    @Test
+    void quotedFieldsKeepTheirCommas() {
+        assertEquals(List.of("Doe, Jane", "x"), split("\"Doe, Jane\",x"));
+    }
+
+    @Test
+    void doubledQuotesInsideAQuotedFieldAreOneQuote() {
+        assertEquals(List.of("say \"hi\"", ""), split("\"say \"\"hi\"\"\",\"\""));
+    }
+
+    @Test
+    void columnsAreFoundByHeaderName() throws Exception {
+        CsvRowSource source = source("Role,ignored,EMAIL,displayName\nADMIN,x,a@example.com,\"A, B\"\n");
+
+        BulkUserImportService.Row row = source.next();
+        assertEquals(2, row.line());
+        assertEquals("a@example.com", row.request().getEmail());
+        assertEquals("A, B", row.request().getDisplayName());
+        assertEquals("ADMIN", row.request().getRole());
+        assertNull(source.next());
+    }
+
+    @Test
+    void aShortRowLeavesItsMissingFieldsNull() throws Exception {
+        CsvRowSource source = source("email,displayName,role\n\na@example.com\n");
+
+        BulkUserImportService.Row row = source.next();
+        assertEquals(3, row.line());
+        assertEquals("a@example.com", row.request().getEmail());
+        assertNull(row.request().getDisplayName());
+        assertNull(row.request().getRole());
+    }
+
+    @Test
+    void aHeaderWithoutARequiredColumnIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> source("email,displayName\na@example.com,A\n"));
+    }
+
+    private static CsvRowSource source(String csv) throws Exception {
+        return new CsvRowSource(new BufferedReader(new StringReader(csv)));
+    }
+}
@@ -0,0 +1,244 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.service.FirestoreOtpStore.OtpRecord;
+import com.cosmicdoc.authservice.service.FirestoreOtpStore.Versioned;
+import com.google.cloud.Timestamp;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs two store instances against one in-process stand-in for Firestore, the way two
+ * Cloud Run instances share the real {@code otp_codes} collection.
+ */
+class FirestoreOtpStoreTest {
+
+    private final InProcessFirestore firestore = new InProcessFirestore();
+    private final SimpleMeterRegistry instanceARegistry = new SimpleMeterRegistry();
+    private final FirestoreOtpStore instanceA = newInstance(instanceARegistry);
+    private final SimpleMeterRegistry instanceBRegistry = new SimpleMeterRegistry();
+    private final FirestoreOtpStore instanceB = newInstance(instanceBRegistry);
+
+    private FirestoreOtpStore newInstance(SimpleMeterRegistry registry) {
+        return new FirestoreOtpStore(firestore, registry, Duration.ofMinutes(5), 5, 1_000, Clock.systemUTC());
+    }
+
+    @Test
+    void codeIssuedOnOneInstanceValidatesOnAnother() {
+        instanceA.put("9876543210", "123456", "login");
+
+        assertTrue(instanceB.verifyAndConsume("9876543210", "123456", "login"));
+        assertFalse(instanceA.verifyAndConsume("9876543210", "123456", "login"));
+        assertEquals(1.0, lookups(instanceBRegistry, "remote_hit"));
+        assertEquals(1.0, lookups(instanceARegistry, "local_hit"));
+    }
+
+    @Test
+    void resendOnAnotherInstanceSupersedesLocallyCachedCode() {
+        instanceA.put("9876543210", "111111", "reset");
+        instanceB.put("9876543210", "222222", "reset");
+
+        assertFalse(instanceA.verifyAndConsume("9876543210", "111111", "reset"));
+        assertTrue(instanceA.verifyAndConsume("9876543210", "222222", "reset"));
+    }
+
+    @Test
+    void codeForAnotherPurposeIssuedOnAnotherInstanceSupersedesLocallyCachedCode() {
+        instanceA.put("9876543210", "111111", "signup");
+        instanceB.put("9876543210", "222222", "reset");
+
+        assertTrue(instanceA.verifyAndConsume("9876543210", "222222", "reset"));
+    }
+
+    @Test
+    void resendOnAnotherInstanceSupersedesLocallyCachedExpiredCode() {
+        Instant now = Instant.now();
+        Clock[] clock = {Clock.fixed(now.minus(Duration.ofMinutes(10)), ZoneOffset.UTC)};
+        FirestoreOtpStore instanceC = new FirestoreOtpStore(firestore, new SimpleMeterRegistry(), Duration.ofMinutes(5),
+                5, 1_000, new Clock() {
+                    @Override
+                    public Instant instant() {
+                        return clock[0].instant();
+                    }
+
+                    @Override
+                    public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(ZoneId zone) {
+                        return this;
+                    }
+                });
+        instanceC.put("9876543210", "111111", "reset");
+        clock[0] = Clock.fixed(now, ZoneOffset.UTC);
+        instanceB.put("9876543210", "222222", "reset");
+
+        assertTrue(instanceC.verifyAndConsume("9876543210", "222222", "reset"));
+    }
+
+    @Test
+    void unknownMobileIsCountedAsMiss() {
+        assertFalse(instanceB.verifyAndConsume("9000000000", "123456", "login"));
+        assertEquals(1.0, lookups(instanceBRegistry, "miss"));
+    }
+
+    @Test
+    void failedAttemptsAreSharedAcrossInstances() {
+        instanceA.put("9876543210", "123456", "login");
+
+        for (int i = 0; i < 5; i++) {
+            FirestoreOtpStore instance = i % 2 == 0 ? instanceA : instanceB;
+            assertFalse(instance.verifyAndConsume("9876543210", "000000", "login"));
+        }
+
+        assertFalse(instanceB.verifyAndConsume("9876543210", "123456", "login"));
+    }
+
+    @Test
+    void concurrentWrongGuessesAreAllCounted() throws Exception {
+        instanceA.put("9876543210", "123456", "login");
+
+        // Four guesses on separate instances all read the same version before any is counted.
+        int guesses = 4;
+        firestore.holdReads(guesses);
+        ExecutorService executor = Executors.newFixedThreadPool(guesses);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < guesses; i++) {
+            FirestoreOtpStore instance = newInstance(new SimpleMeterRegistry());
+            futures.add(executor.submit(() -> instance.verifyAndConsume("9876543210", "000000", "login")));
+        }
+        for (Future<Boolean> future : futures) {
+            assertFalse(future.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(guesses, firestore.read("9876543210").orElseThrow().record().attempts());
+
+        // The fifth wrong guess uses up the budget, so the right code no longer works.
+        assertFalse(instanceB.verifyAndConsume("9876543210", "000001", "login"));
+        assertFalse(instanceB.verifyAndConsume("9876543210", "123456", "login"));
+    }
+
+    @Test
+    void concurrentValidationsAcrossInstancesSucceedExactlyOnce() throws Exception {
+        int mobiles = 500;
+        for (int i = 0; i < mobiles; i++) {
+            instanceA.put("m" + i, "123456", "login");
+        }
+
+        AtomicInteger successes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            FirestoreOtpStore instance = t % 2 == 0 ? instanceA : instanceB;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < mobiles; i++) {
+                    if (instance.verifyAndConsume("m" + i, "123456", "login")) {
+                        successes.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(mobiles, successes.get());
+    }
+
+    private static double lookups(SimpleMeterRegistry registry, String result) {
+        return registry.get("auth.otp.store.lookups").tag("result", result).counter().count();
+    }
+
+    /**
+     * Versioned documents with the same conditional-write semantics as Firestore
+     * {@code updatedAt} preconditions.
+     */
+    private static final class InProcessFirestore implements FirestoreOtpStore.Backend {
+
+        private final Map<String, Versioned> documents = new HashMap<>();
+        private long clock;
+        private volatile CountDownLatch heldReads = new CountDownLatch(0);
+
+        /**
+         * Makes the next {@code readers} reads wait for each other, so they all see the same version.
+         */
+        void holdReads(int readers) {
+            heldReads = new CountDownLatch(readers);
+        }
+
+        private Timestamp nextVersion() {
+            return Timestamp.ofTimeMicroseconds(++clock);
+        }
+
+        @Override
+        public synchronized Timestamp write(String mobile, OtpRecord record) {
+            Timestamp version = nextVersion();
+            documents.put(mobile, new Versioned(record, version));
+            return version;
+        }
+
+        @Override
+        public Optional<Versioned> read(String mobile) {
+            Optional<Versioned> read;
+            synchronized (this) {
+                read = Optional.ofNullable(documents.get(mobile));
+            }
+            CountDownLatch held = heldReads;
+            held.countDown();
+            try {
+                held.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized boolean deleteIfVersion(String mobile, Timestamp version) {
+            Versioned current = documents.get(mobile);
+            if (current == null || !current.version().equals(version)) {
+                return false;
+            }
+            documents.remove(mobile);
+            return true;
+        }
+
+        @Override
+        public synchronized Optional<Timestamp> incrementAttemptsIfVersion(String mobile, Timestamp version) {
+            Versioned current = documents.get(mobile);
+            if (current == null || !current.version().equals(version)) {
+                return Optional.empty();
+            }
+            Timestamp newVersion = nextVersion();
+            documents.put(mobile, new Versioned(current.record().withAttempts(current.record().attempts() + 1), newVersion));
+            return Optional.of(newVersion);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.exception.OtpResendTooSoonException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HmacOtpGeneratorTest {
+
+    private static final String SECRET = "test-secret-test-secret-test-secret";
+    private static final Duration WINDOW = Duration.ofSeconds(150);
+    private static final String MOBILE = "9876543210";
+
+    // The start of a window, so tests can move to its edges.
+    private final MutableClock clock = new MutableClock(Instant.ofEpochSecond(150L * 11_000_000));
+    private final HmacOtpGenerator generator = new HmacOtpGenerator(SECRET, WINDOW, 3, 1_000, true, clock);
+
+    @Test
+    void aCodeIsValidForTheRestOfItsWindowAndTheNext() {
+        clock.advance(WINDOW.minusMillis(1));
+        String code = generator.generate(MOBILE, "login");
+
+        clock.advance(Duration.ofMillis(1));
+        assertNotEquals(code, generator.generate(MOBILE, "login"));
+        clock.advance(WINDOW.minusMillis(1));
+        assertTrue(generator.verifyAndConsume(MOBILE, code, "login"));
+    }
+
+    @Test
+    void aCodeExpiresTwoWindowsAfterItsOwnStarted() {
+        String code = generator.generate(MOBILE, "login");
+
+        clock.advance(WINDOW.multipliedBy(2));
+        assertFalse(generator.verifyAndConsume(MOBILE, code, "login"));
+    }
+
+    @Test
+    void aCodeIsOnlyValidForItsPurpose() {
+        String code = generator.generate(MOBILE, "login");
+
+        assertFalse(generator.verifyAndConsume(MOBILE, code, "reset"));
+        assertTrue(generator.verifyAndConsume(MOBILE, code, "login"));
+    }
+
+    @Test
+    void aReplayedCodeIsRejected() {
+        String code = generator.generate(MOBILE, "login");
+
+        assertTrue(generator.verifyAndConsume(MOBILE, code, "login"));
+        assertFalse(generator.verifyAndConsume(MOBILE, code, "login"));
+    }
+
+    @Test
+    void wrongGuessesLockTheNumberOut() {
+        String code = generator.generate(MOBILE, "login");
+        String wrong = code.equals("000000") ? "000001" : "000000";
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(generator.verifyAndConsume(MOBILE, wrong, "login"));
+        }
+        assertFalse(generator.verifyAndConsume(MOBILE, code, "login"));
+        // Other purposes keep their own budget.
+        assertTrue(generator.verifyAndConsume(MOBILE, generator.generate(MOBILE, "reset"), "reset"));
+    }
+
+    @Test
+    void aResendAfterTheCodeWasUsedWaitsForTheNextWindow() {
+        clock.advance(Duration.ofSeconds(100));
+        assertTrue(generator.verifyAndConsume(MOBILE, generator.generate(MOBILE, "login"), "login"));
+
+        OtpResendTooSoonException refused = assertThrows(OtpResendTooSoonException.class,
+                () -> generator.generate(MOBILE, "login"));
+        assertEquals(50, refused.getRetryAfterSeconds());
+
+        clock.advance(Duration.ofSeconds(50));
+        assertTrue(generator.verifyAndConsume(MOBILE, generator.generate(MOBILE, "login"), "login"));
+    }
+
+    @Test
+    void startupFailsUnlessASingleInstanceIsDeclared() {
+        assertThrows(IllegalStateException.class,
+                () -> new HmacOtpGenerator(SECRET, WINDOW, 3, 1_000, false, clock));
+    }
+
+    @Test
+    void startupFailsWithAWeakSecret() {
+        assertThrows(IllegalStateException.class, () -> new HmacOtpGenerator("", WINDOW, 3, 1_000, true, clock));
+        assertThrows(IllegalStateException.class, () -> new HmacOtpGenerator("short", WINDOW, 3, 1_000, true, clock));
+        assertThrows(IllegalStateException.class, () -> new HmacOtpGenerator(
+                "YourSuperStrongAndLongSecretKeyForHmacShaAlgorithmsAtLeast256Bits", WINDOW, 3, 1_000, true, clock));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
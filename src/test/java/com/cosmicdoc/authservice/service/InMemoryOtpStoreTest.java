@@ -0,0 +1,196 @@
+package com.cosmicdoc.authservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryOtpStoreTest {
+
+    private static final int THREADS = 16;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock();
+
+    private InMemoryOtpStore newStore(int maxEntries) {
+        return new InMemoryOtpStore(meterRegistry, Duration.ofMinutes(5), 5, maxEntries, clock);
+    }
+
+    @Test
+    void concurrentResendsNeverLoseOrServeStaleCodes() throws Exception {
+        InMemoryOtpStore store = newStore(1_000_000);
+        int mobilesPerThread = 5_000;
+        AtomicInteger failures = new AtomicInteger();
+
+        long startNanos = System.nanoTime();
+        runConcurrently(thread -> {
+            for (int i = 0; i < mobilesPerThread; i++) {
+                String mobile = "9" + thread + "_" + i;
+                store.put(mobile, "111111", "login");
+                store.put(mobile, "222222", "login"); // resend replaces the first code
+                if (store.verifyAndConsume(mobile, "111111", "login")) {
+                    failures.incrementAndGet(); // stale code accepted
+                }
+                if (!store.verifyAndConsume(mobile, "222222", "login")) {
+                    failures.incrementAndGet(); // latest code lost
+                }
+                if (store.verifyAndConsume(mobile, "222222", "login")) {
+                    failures.incrementAndGet(); // code reused
+                }
+            }
+        });
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        int operations = THREADS * mobilesPerThread * 5;
+        double opsPerSecond = operations / (elapsedNanos / 1_000_000_000.0);
+        assertEquals(0, failures.get());
+        assertEquals(0, store.size());
+        assertTrue(opsPerSecond > 10_000, "throughput too low: " + opsPerSecond + " ops/s");
+    }
+
+    @Test
+    void concurrentValidationsOfSameCodeSucceedExactlyOnce() throws Exception {
+        InMemoryOtpStore store = newStore(1_000_000);
+        int mobiles = 2_000;
+        for (int i = 0; i < mobiles; i++) {
+            store.put("m" + i, "123456", "reset");
+        }
+
+        AtomicInteger successes = new AtomicInteger();
+        runConcurrently(thread -> {
+            for (int i = 0; i < mobiles; i++) {
+                if (store.verifyAndConsume("m" + i, "123456", "reset")) {
+                    successes.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(mobiles, successes.get());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void expiredEntriesAreSweptWithoutBeingValidated() {
+        InMemoryOtpStore store = newStore(1_000);
+        store.put("9876543210", "123456", "login");
+
+        clock.advance(Duration.ofMinutes(4));
+        store.sweepExpired();
+        assertEquals(1, store.size());
+
+        clock.advance(Duration.ofMinutes(1).plusSeconds(1));
+        store.sweepExpired();
+        assertEquals(0, store.size());
+        assertEquals(1.0, evictions("expired"));
+    }
+
+    @Test
+    void capacityCapEvictsEntriesClosestToExpiry() {
+        InMemoryOtpStore store = newStore(3);
+        for (int i = 0; i < 5; i++) {
+            store.put("m" + i, "123456", "login");
+            clock.advance(Duration.ofSeconds(2));
+        }
+
+        assertEquals(3, store.size());
+        assertEquals(2.0, evictions("capacity"));
+        assertFalse(store.verifyAndConsume("m0", "123456", "login"));
+        assertFalse(store.verifyAndConsume("m1", "123456", "login"));
+        assertTrue(store.verifyAndConsume("m4", "123456", "login"));
+    }
+
+    @Test
+    void codeIsDiscardedAfterTooManyFailedAttempts() {
+        InMemoryOtpStore store = newStore(1_000);
+        store.put("9876543210", "123456", "login");
+
+        for (int i = 0; i < 5; i++) {
+            assertFalse(store.verifyAndConsume("9876543210", "000000", "login"));
+        }
+
+        assertFalse(store.verifyAndConsume("9876543210", "123456", "login"));
+        assertEquals(1.0, evictions("attempts"));
+    }
+
+    @Test
+    void purposeMismatchDoesNotConsumeCode() {
+        InMemoryOtpStore store = newStore(1_000);
+        store.put("9876543210", "123456", "reset");
+
+        assertFalse(store.verifyAndConsume("9876543210", "123456", "login"));
+        assertTrue(store.verifyAndConsume("9876543210", "123456", "reset"));
+    }
+
+    private double evictions(String reason) {
+        return meterRegistry.get("auth.otp.store.evictions").tag("reason", reason).counter().count();
+    }
+
+    private void runConcurrently(ThreadBody body) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                body.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    @FunctionalInterface
+    private interface ThreadBody {
+        void run(int thread) throws Exception;
+    }
+
+    private static final class MutableClock extends Clock {
+        private final AtomicLong millis = new AtomicLong(Instant.parse("2024-01-01T00:00:00Z").toEpochMilli());
+
+        void advance(Duration duration) {
+            millis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
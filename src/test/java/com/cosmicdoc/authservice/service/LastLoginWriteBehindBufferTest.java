@@ -0,0 +1,126 @@
+package com.cosmicdoc.authservice.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LastLoginWriteBehindBufferTest {
+
+    private final Firestore firestore = mock(Firestore.class);
+    private final CollectionReference users = mock(CollectionReference.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<WriteBatch> batches = new ArrayList<>();
+    private ApiFuture<List<WriteResult>> commitResult = ApiFutures.immediateFuture(List.of());
+
+    LastLoginWriteBehindBufferTest() {
+        when(firestore.collection("users")).thenReturn(users);
+        when(users.document(anyString())).thenAnswer(invocation -> mock(DocumentReference.class));
+        when(firestore.batch()).thenAnswer(invocation -> {
+            WriteBatch batch = mock(WriteBatch.class);
+            when(batch.commit()).thenAnswer(commit -> commitResult);
+            batches.add(batch);
+            return batch;
+        });
+    }
+
+    @Test
+    void repeatedLoginsOfAUserAreWrittenOnce() {
+        LastLoginWriteBehindBuffer buffer = buffer(1_000);
+        buffer.record("u1");
+        buffer.record("u1");
+        buffer.record("u2");
+
+        assertEquals(2.0, registry.get("auth.lastlogin.pending").gauge().value());
+        assertEquals(3.0, counter("auth.lastlogin.recorded"));
+        assertEquals(1.0, counter("auth.lastlogin.coalesced"));
+
+        buffer.flush();
+
+        assertEquals(1, batches.size());
+        verify(batches.get(0), times(2)).update(any(DocumentReference.class),
+                argThat((Map<String, Object> fields) -> fields.keySet().equals(Set.of("lastLoginAt"))));
+        verify(users).document("u1");
+        verify(users).document("u2");
+        verify(batches.get(0)).commit();
+        assertEquals(2.0, counter("auth.lastlogin.written"));
+        assertEquals(0.0, registry.get("auth.lastlogin.pending").gauge().value());
+
+        buffer.flush();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    void pendingTimestampsAreSplitIntoBatchesOfTheFirestoreLimit() {
+        LastLoginWriteBehindBuffer buffer = buffer(10_000);
+        for (int i = 0; i <= LastLoginWriteBehindBuffer.MAX_BATCH_SIZE; i++) {
+            buffer.record("u" + i);
+        }
+
+        buffer.flush();
+
+        assertEquals(2, batches.size());
+        verify(batches.get(0), times(LastLoginWriteBehindBuffer.MAX_BATCH_SIZE)).update(any(DocumentReference.class), anyMap());
+        verify(batches.get(1), times(1)).update(any(DocumentReference.class), anyMap());
+        assertEquals(LastLoginWriteBehindBuffer.MAX_BATCH_SIZE + 1.0, counter("auth.lastlogin.written"));
+    }
+
+    @Test
+    void aFailedBatchIsDroppedNotRetried() {
+        commitResult = ApiFutures.immediateFailedFuture(new IllegalStateException("NOT_FOUND"));
+        LastLoginWriteBehindBuffer buffer = buffer(1_000);
+        buffer.record("u1");
+        buffer.record("u2");
+
+        buffer.flush();
+        buffer.flush();
+
+        assertEquals(1, batches.size());
+        assertEquals(2.0, counter("auth.lastlogin.failed"));
+        assertEquals(0.0, counter("auth.lastlogin.written"));
+    }
+
+    @Test
+    void reachingTheThresholdFlushesWithoutWaitingForTheInterval() throws Exception {
+        LastLoginWriteBehindBuffer buffer = buffer(2);
+        buffer.start();
+        try {
+            buffer.record("u1");
+            buffer.record("u2");
+
+            verify(firestore, timeout(5_000)).batch();
+        } finally {
+            buffer.stop();
+        }
+        assertEquals(2.0, counter("auth.lastlogin.written"));
+    }
+
+    private LastLoginWriteBehindBuffer buffer(int flushThreshold) {
+        return new LastLoginWriteBehindBuffer(firestore, registry, "lastLoginAt", 3_600_000, flushThreshold);
+    }
+
+    private double counter(String name) {
+        return registry.get(name).counter().count();
+    }
+}
@@ -0,0 +1,89 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.service.OrganizationUserDirectory.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrganizationUserDirectoryTest {
+
+    private final Directory directory = Directory.of(List.of(
+            user("u1", "Ana Maria Lopez", "ana@example.com"),
+            user("u2", "Bob Stone", "bob@example.com"),
+            user("u3", "Anabel Ruiz", "ruiz@example.com")));
+
+    @Test
+    void textIsNormalizedForMatching() {
+        assertEquals("jose garcia", OrganizationUserDirectory.normalize("  José   GARCÍA "));
+        assertEquals("", OrganizationUserDirectory.normalize(null));
+    }
+
+    @Test
+    void aQueryMatchesTheStartOfTheNameOfAnyLaterWordOrTheEmail() {
+        assertEquals(List.of("u1", "u3"), ids(directory.search("ana", 10)));
+        assertEquals(List.of("u1"), ids(directory.search("maria lo", 10)));
+        assertEquals(List.of("u1"), ids(directory.search("lopez", 10)));
+        assertEquals(List.of("u3"), ids(directory.search("ruiz", 10)));
+        assertEquals(List.of("u2"), ids(directory.search("bob@", 10)));
+        assertTrue(directory.search("tone", 10).isEmpty());
+    }
+
+    @Test
+    void accentsAndCaseAreIgnoredOnBothSides() {
+        Directory withAccents = directory.with(user("u4", "Zoë Müller", "zoe@example.com"));
+
+        assertEquals(List.of("u4"), ids(withAccents.search("MULL", 10)));
+        assertEquals(List.of("u1"), ids(withAccents.search("LÓPEZ", 10)));
+    }
+
+    @Test
+    void aUserMatchingSeveralKeysIsReturnedOnce() {
+        Directory annas = Directory.of(List.of(user("u1", "Ann Annis", "ann@example.com")));
+
+        assertEquals(List.of("u1"), ids(annas.search("ann", 10)));
+    }
+
+    @Test
+    void searchStopsAtTheLimit() {
+        assertEquals(1, directory.search("ana", 1).size());
+        assertTrue(directory.search("ana", 0).isEmpty());
+        assertTrue(directory.search("   ", 10).isEmpty());
+    }
+
+    @Test
+    void withInsertsANewUserAndLeavesTheOriginalUnchanged() {
+        Directory grown = directory.with(user("u4", "Carla Ana", "carla@example.com"));
+
+        assertEquals(4, grown.size());
+        assertEquals(List.of("u1", "u3", "u4"), ids(grown.search("ana", 10)).stream().sorted().toList());
+        assertEquals(3, directory.size());
+        assertNull(directory.get("u4"));
+    }
+
+    @Test
+    void withReplacesAUserAndDropsTheKeysOfTheOldName() {
+        UserDetailResponse renamed = user("u2", "Robert Stone", "robert@example.com");
+        Directory updated = directory.with(renamed);
+
+        assertEquals(3, updated.size());
+        assertSame(renamed, updated.get("u2"));
+        assertTrue(updated.search("bob", 10).isEmpty());
+        assertEquals(List.of("u2"), ids(updated.search("rob", 10)));
+        assertEquals(List.of("u2"), ids(updated.search("stone", 10)));
+    }
+
+    private static List<String> ids(List<UserDetailResponse> users) {
+        return users.stream().map(UserDetailResponse::getUserId).collect(Collectors.toList());
+    }
+
+    private static UserDetailResponse user(String userId, String displayName, String email) {
+        return UserDetailResponse.builder().userId(userId).displayName(displayName).email(email).build();
+    }
+}
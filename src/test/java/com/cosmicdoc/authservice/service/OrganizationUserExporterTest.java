@@ -0,0 +1,147 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.dto.response.UserDetailResponse;
+import com.cosmicdoc.authservice.dto.response.UserPageResponse;
+import com.cosmicdoc.common.model.UserStatus;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrganizationUserExporterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void writesOneUserPerLineAndFlushesEachPage() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> bytesSeenBeforePage = new ArrayList<>();
+        SyntheticOrganization organization = new SyntheticOrganization(25, 10);
+
+        long written = new OrganizationUserExporter(objectMapper).export(cursor -> {
+            bytesSeenBeforePage.add(out.size());
+            return organization.fetch(cursor);
+        }, out, false);
+
+        assertEquals(25, written);
+        // Every page after the first found the previous pages already written out.
+        assertEquals(0, bytesSeenBeforePage.get(0));
+        assertTrue(bytesSeenBeforePage.get(1) > 0);
+        assertTrue(bytesSeenBeforePage.get(2) > bytesSeenBeforePage.get(1));
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(25, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            UserDetailResponse user = objectMapper.readValue(lines[i], UserDetailResponse.class);
+            assertEquals("user_" + i, user.getUserId());
+        }
+    }
+
+    @Test
+    void gzipOutputDecompressesToTheSameNdjson() throws Exception {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        OrganizationUserExporter exporter = new OrganizationUserExporter(objectMapper);
+
+        exporter.export(new SyntheticOrganization(1_000, 100)::fetch, plain, false);
+        exporter.export(new SyntheticOrganization(1_000, 100)::fetch, gzipped, true);
+
+        byte[] decompressed = new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray())).readAllBytes();
+        assertEquals(plain.toString(StandardCharsets.UTF_8), new String(decompressed, StandardCharsets.UTF_8));
+        assertTrue(gzipped.size() < plain.size() / 3);
+    }
+
+    /**
+     * Exports 500,000 users in a separate JVM limited to a 32 MB heap. Holding those users
+     * in a list would take well over 100 MB, so this only passes if the export streams.
+     */
+    @Test
+    void exportsLargeOrganizationUnderSmallHeap() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-Xmx32m",
+                "-cp", System.getProperty("java.class.path"),
+                SmallHeapExport.class.getName(), "500000")
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES), "export did not finish");
+        assertEquals(0, process.exitValue(), output);
+        assertTrue(output.contains("exported 500000"), output);
+    }
+
+    /**
+     * Entry point of the small-heap JVM started by {@link #exportsLargeOrganizationUnderSmallHeap()}.
+     */
+    public static class SmallHeapExport {
+
+        public static void main(String[] args) throws IOException {
+            int users = Integer.parseInt(args[0]);
+            CountingOutputStream out = new CountingOutputStream();
+            long written = new OrganizationUserExporter(new ObjectMapper())
+                    .export(new SyntheticOrganization(users, 500)::fetch, out, true);
+            System.out.println("exported " + written + " users, " + out.count + " bytes");
+        }
+    }
+
+    /**
+     * Generates users on demand, page by page, like the real page source backed by Firestore.
+     */
+    private static class SyntheticOrganization {
+
+        private final int users;
+        private final int pageSize;
+
+        SyntheticOrganization(int users, int pageSize) {
+            this.users = users;
+            this.pageSize = pageSize;
+        }
+
+        UserPageResponse fetch(String cursor) {
+            int start = cursor == null ? 0 : Integer.parseInt(cursor);
+            int end = Math.min(start + pageSize, users);
+            List<UserDetailResponse> page = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                page.add(UserDetailResponse.builder()
+                        .userId("user_" + i)
+                        .email("staff" + i + "@hospital.example")
+                        .displayName("Staff Member " + i)
+                        .status(UserStatus.ACTIVE)
+                        .mobileNumber("98" + String.format("%08d", i))
+                        .role("ROLE_DOCTOR")
+                        .build());
+            }
+            return UserPageResponse.builder()
+                    .users(page)
+                    .nextCursor(end < users ? String.valueOf(end) : null)
+                    .build();
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
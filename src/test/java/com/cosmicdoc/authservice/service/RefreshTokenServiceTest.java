@@ -0,0 +1,270 @@
+package com.cosmicdoc.authservice.service;
+
+import com.cosmicdoc.authservice.exception.AuthenticationException;
+import com.cosmicdoc.authservice.security.JwtKeyRing;
+import com.cosmicdoc.authservice.security.JwtService;
+import com.cosmicdoc.authservice.service.RefreshTokenService.RefreshRecord;
+import com.cosmicdoc.authservice.service.RefreshTokenService.Revocation;
+import com.cosmicdoc.authservice.service.RefreshTokenService.Rotated;
+import com.cosmicdoc.authservice.service.RefreshTokenService.Versioned;
+import com.cosmicdoc.common.model.OrganizationMember;
+import com.cosmicdoc.common.model.Users;
+import com.google.cloud.Timestamp;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs two service instances against one in-process stand-in for Firestore, the way
+ * two Cloud Run instances share the real {@code refresh_tokens} collection.
+ */
+class RefreshTokenServiceTest {
+
+    private final InProcessFirestore firestore = new InProcessFirestore();
+    private final JwtKeyRing keyRing = new JwtKeyRing("", "", true, null, null, new SimpleMeterRegistry());
+    private final JwtService jwtService = new JwtService(keyRing, 900_000);
+    private final SimpleMeterRegistry instanceARegistry = new SimpleMeterRegistry();
+    private final RefreshTokenService instanceA = newInstance(instanceARegistry, Clock.systemUTC());
+    private final RefreshTokenService instanceB = newInstance(new SimpleMeterRegistry(), Clock.systemUTC());
+
+    private RefreshTokenService newInstance(SimpleMeterRegistry registry, Clock clock) {
+        return new RefreshTokenService(firestore, jwtService, registry, Duration.ofDays(14), 1_000, clock);
+    }
+
+    @Test
+    void refreshMintsAnAccessTokenWithTheSignInClaims() {
+        String refreshToken = instanceA.issue(user(), membership());
+
+        RefreshTokenService.Refreshed refreshed = instanceB.refresh(refreshToken);
+
+        Claims claims = Jwts.parserBuilder()
+                .setSigningKey(keyRing.current().verificationKeys().get(keyRing.current().activeKeyId()))
+                .build()
+                .parseClaimsJws(refreshed.accessToken())
+                .getBody();
+        assertEquals("user_1", claims.getSubject());
+        assertEquals("asha@hospital.example", claims.get("email"));
+        assertEquals("org_1", claims.get("organizationId"));
+        assertEquals("ROLE_DOCTOR", claims.get("role"));
+        assertNotEquals(refreshToken, refreshed.refreshToken());
+        instanceA.refresh(refreshed.refreshToken());
+    }
+
+    @Test
+    void reusingARotatedTokenRevokesTheUsersTokens() {
+        String first = instanceA.issue(user(), membership());
+        String second = instanceA.refresh(first).refreshToken();
+        String otherSession = instanceA.issue(user(), membership());
+
+        // The rotated token is replayed on another instance, then the live ones are used on the first.
+        assertThrows(AuthenticationException.class, () -> instanceB.refresh(first));
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(second));
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(otherSession));
+        assertEquals(1.0, results(instanceARegistry, "rotated"));
+        assertEquals(2.0, results(instanceARegistry, "revoked"));
+
+        instanceA.refresh(instanceA.issue(user(), membership()));
+    }
+
+    @Test
+    void aTokenConsumedElsewhereIsNotRotatedFromTheCache() {
+        String token = instanceA.issue(user(), membership());
+        instanceB.refresh(token);
+
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(token));
+        assertEquals(1.0, results(instanceARegistry, "reused"));
+    }
+
+    @Test
+    void anExpiredTokenIsRejected() {
+        Instant issuedAt = Instant.parse("2026-03-01T08:00:00Z");
+        String token = newInstance(new SimpleMeterRegistry(), Clock.fixed(issuedAt, ZoneOffset.UTC))
+                .issue(user(), membership());
+
+        RefreshTokenService later = newInstance(new SimpleMeterRegistry(),
+                Clock.fixed(issuedAt.plus(Duration.ofDays(15)), ZoneOffset.UTC));
+        assertThrows(AuthenticationException.class, () -> later.refresh(token));
+    }
+
+    @Test
+    void revokedUsersCannotRefreshCachedTokens() {
+        String token = instanceA.issue(user(), membership());
+        String rotated = instanceA.refresh(instanceA.issue(user(), membership())).refreshToken();
+
+        instanceB.revokeUsers(List.of("user_1"));
+
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(token));
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(rotated));
+    }
+
+    @Test
+    void aRevocationBetweenTheChecksAndTheCommitStopsTheRotation() {
+        String token = instanceA.issue(user(), membership());
+        instanceA.refresh(instanceA.issue(user(), membership()));
+
+        firestore.beforeNextRotation(() -> instanceB.revokeUsers(List.of("user_1")));
+
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(token));
+        assertEquals(1.0, results(instanceARegistry, "revoked"));
+    }
+
+    @Test
+    void loggingOutEndsTheFamily() {
+        String token = instanceA.issue(user(), membership());
+
+        instanceB.revoke(token);
+
+        assertThrows(AuthenticationException.class, () -> instanceA.refresh(token));
+    }
+
+    @Test
+    void concurrentRefreshesOfOneTokenSucceedExactlyOnce() throws Exception {
+        int tokens = 200;
+        List<String> issued = new ArrayList<>();
+        // One user per token: a losing thread replays a consumed token, which revokes its user.
+        for (int i = 0; i < tokens; i++) {
+            issued.add(instanceA.issue(Users.builder().userId("user_" + i).build(), membership()));
+        }
+
+        AtomicIntegerArray successes = new AtomicIntegerArray(tokens);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            RefreshTokenService instance = t % 2 == 0 ? instanceA : instanceB;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < tokens; i++) {
+                    try {
+                        instance.refresh(issued.get(i));
+                        successes.incrementAndGet(i);
+                    } catch (AuthenticationException e) {
+                        // Another thread rotated it first.
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < tokens; i++) {
+            assertEquals(1, successes.get(i));
+        }
+    }
+
+    private static Users user() {
+        return Users.builder().userId("user_1").email("asha@hospital.example").build();
+    }
+
+    private static OrganizationMember membership() {
+        return OrganizationMember.builder().userId("user_1").organizationId("org_1").role("ROLE_DOCTOR").build();
+    }
+
+    private static double results(SimpleMeterRegistry registry, String result) {
+        return registry.get("auth.refresh_tokens").tag("result", result).counter().count();
+    }
+
+    /**
+     * Versioned documents with the same conditional-write semantics as Firestore
+     * {@code updatedAt} preconditions, including a write that changes nothing keeping
+     * the document's update time.
+     */
+    private static final class InProcessFirestore implements RefreshTokenService.Backend {
+
+        private final Map<String, Versioned> documents = new HashMap<>();
+        private final Map<String, Revocation> revocations = new HashMap<>();
+        private Runnable beforeNextRotation;
+        private long clock;
+
+        private Timestamp nextVersion() {
+            return Timestamp.ofTimeMicroseconds(++clock);
+        }
+
+        synchronized void beforeNextRotation(Runnable action) {
+            beforeNextRotation = action;
+        }
+
+        @Override
+        public synchronized Timestamp create(String hash, RefreshRecord record) {
+            if (documents.containsKey(hash)) {
+                throw new IllegalStateException("Document already exists.");
+            }
+            Timestamp version = nextVersion();
+            documents.put(hash, new Versioned(record, version));
+            return version;
+        }
+
+        @Override
+        public synchronized Optional<Versioned> read(String hash) {
+            return Optional.ofNullable(documents.get(hash));
+        }
+
+        @Override
+        public synchronized Revocation readRevocation(String userId) {
+            return revocations.getOrDefault(userId, new Revocation(0, null));
+        }
+
+        @Override
+        public synchronized Optional<Rotated> rotate(String hash, Timestamp version, long consumedAtMillis,
+                                                     String successorHash, RefreshRecord successor,
+                                                     Revocation revocation) {
+            if (beforeNextRotation != null) {
+                Runnable action = beforeNextRotation;
+                beforeNextRotation = null;
+                action.run();
+            }
+            Versioned current = documents.get(hash);
+            Revocation stored = revocations.get(successor.userId());
+            boolean revocationUnchanged = revocation.version() == null
+                    ? stored == null
+                    : stored != null && stored.version().equals(revocation.version());
+            if (current == null || !current.version().equals(version) || !revocationUnchanged) {
+                return Optional.empty();
+            }
+            if (stored == null) {
+                stored = new Revocation(revocation.generation(), nextVersion());
+                revocations.put(successor.userId(), stored);
+            }
+            documents.put(hash, new Versioned(current.record().consumedAt(consumedAtMillis), nextVersion()));
+            return Optional.of(new Rotated(create(successorHash, successor), stored.version()));
+        }
+
+        @Override
+        public synchronized void revokeUsers(List<String> userIds) {
+            for (String userId : userIds) {
+                Revocation stored = revocations.get(userId);
+                revocations.put(userId, new Revocation(stored == null ? 1 : stored.generation() + 1, nextVersion()));
+            }
+        }
+
+        @Override
+        public synchronized void delete(String hash) {
+            documents.remove(hash);
+        }
+    }
+}
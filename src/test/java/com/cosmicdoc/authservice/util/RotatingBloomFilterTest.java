@@ -0,0 +1,91 @@
+package com.cosmicdoc.authservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RotatingBloomFilterTest {
+
+    private static final Duration PERIOD = Duration.ofMinutes(1);
+
+    private final MutableClock clock = new MutableClock(Instant.ofEpochSecond(60L * 29_000_000));
+    private final RotatingBloomFilter filter = new RotatingBloomFilter(1_000, 1e-6, PERIOD, clock);
+
+    @Test
+    void aKeyIsAddedOnce() {
+        assertFalse(filter.mightContain("a"));
+        assertTrue(filter.add("a"));
+        assertTrue(filter.mightContain("a"));
+        assertFalse(filter.add("a"));
+        assertTrue(filter.add("b"));
+    }
+
+    @Test
+    void aKeyIsRememberedThroughTheNextPeriodAndThenForgotten() {
+        clock.advance(PERIOD.minusMillis(1));
+        filter.add("a");
+
+        clock.advance(Duration.ofMillis(1));
+        assertTrue(filter.mightContain("a"));
+        clock.advance(PERIOD.minusMillis(1));
+        assertTrue(filter.mightContain("a"));
+
+        clock.advance(Duration.ofMillis(1));
+        assertFalse(filter.mightContain("a"));
+        assertTrue(filter.add("a"));
+    }
+
+    @Test
+    void skippedPeriodsForgetEverything() {
+        filter.add("a");
+
+        clock.advance(PERIOD.multipliedBy(5));
+        assertFalse(filter.mightContain("a"));
+    }
+
+    @Test
+    void keysAddedWithinTheWindowAreNeverMissed() {
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(filter.add("key-" + i));
+        }
+        clock.advance(PERIOD);
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(filter.mightContain("key-" + i));
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cosmicdoc.authservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", meterRegistry);
+
+    @Test
+    void concurrentCallersShareOneLoad() {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> load = new CompletableFuture<>();
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            results.add(singleFlight.execute("a@hospital.example", () -> {
+                loads.incrementAndGet();
+                return load;
+            }));
+        }
+        assertFalse(results.get(0).isDone());
+        load.complete("user_1");
+
+        assertEquals(1, loads.get());
+        results.forEach(result -> assertEquals("user_1", result.join()));
+        assertEquals(4.0, deduplicated());
+        assertEquals(0, singleFlight.inFlight());
+    }
+
+    @Test
+    void distinctKeysAndLaterCallersLoadAgain() {
+        AtomicInteger loads = new AtomicInteger();
+        singleFlight.execute("a", () -> CompletableFuture.completedFuture("1" + loads.incrementAndGet())).join();
+        singleFlight.execute("b", () -> CompletableFuture.completedFuture("2" + loads.incrementAndGet())).join();
+        singleFlight.execute("a", () -> CompletableFuture.completedFuture("3" + loads.incrementAndGet())).join();
+
+        assertEquals(3, loads.get());
+        assertEquals(0.0, deduplicated());
+    }
+
+    @Test
+    void failureReachesEveryCallerAndIsNotRemembered() {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("a", () -> load);
+        CompletableFuture<String> second = singleFlight.execute("a", () -> load);
+        load.completeExceptionally(new IllegalStateException("unavailable"));
+
+        assertThrows(CompletionException.class, first::join);
+        assertThrows(CompletionException.class, second::join);
+        assertEquals("ok", singleFlight.execute("a", () -> CompletableFuture.completedFuture("ok")).join());
+    }
+
+    @Test
+    void cancellingOneCallerDoesNotAffectTheOthers() {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("a", () -> load);
+        CompletableFuture<String> second = singleFlight.execute("a", () -> load);
+
+        first.cancel(true);
+        load.complete("user_1");
+
+        assertTrue(first.isCancelled());
+        assertEquals("user_1", second.join());
+    }
+
+    private double deduplicated() {
+        return meterRegistry.get("auth.singleflight.deduplicated").tag("lookup", "test").counter().count();
+    }
+}